@@ -0,0 +1,113 @@
+package art.xeloboyo.airshipsloader.installer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An AppCDS archive of the classes the JVM loads from the class path, i.e. Knot, ASM, Mixin and the rest of fabric.
+ * Mapping the archive skips parsing and verifying those classes on every launch.
+ * <br>
+ * The first launch is the training run, it writes the list of loaded classes. Once the game exits the archive is dumped
+ * from that list and every later launch uses it. A different java or a changed class path starts over with a new training run.
+ * <br>
+ * The game and mod classes are loaded by Knot from patched bytes, the JVM can't archive those.
+ */
+public final class CdsArchive {
+    private final Path dir;
+    private final Path classList;
+    private final Path archive;
+    private final Path stampFile;
+    private final JavaRuntime runtime;
+    private final List<Path> classPath;
+    private boolean training;
+
+    public CdsArchive(Path dir, JavaRuntime runtime, List<Path> classPath) {
+        this.dir = dir;
+        this.classList = dir.resolve("classes.lst");
+        this.archive = dir.resolve("airships.jsa");
+        this.stampFile = dir.resolve("stamp.txt");
+        this.runtime = runtime;
+        this.classPath = classPath;
+    }
+
+    /**
+     * Archiving classes of the application class path works without extra flags from Java 11 on
+     */
+    public static boolean isSupported(JavaRuntime runtime) {
+        return runtime.version >= 11;
+    }
+
+    /**
+     * @return the flags to use the archive or, if there is none yet, to record the class list
+     */
+    public List<String> flags() throws IOException {
+        Files.createDirectories(dir);
+        String stamp = stamp();
+        if (!Files.isRegularFile(stampFile) || !stamp.equals(new String(Files.readAllBytes(stampFile), StandardCharsets.UTF_8))) {
+            Files.deleteIfExists(classList);
+            Files.deleteIfExists(archive);
+            Files.write(stampFile, stamp.getBytes(StandardCharsets.UTF_8));
+        }
+
+        if (Files.isRegularFile(archive)) {
+            // auto: a broken or mismatching archive is ignored instead of failing the launch
+            return Arrays.asList("-XX:SharedArchiveFile=" + archive.toAbsolutePath(), "-Xshare:auto");
+        }
+        if (Files.isRegularFile(classList)) {
+            // The training run happened but the dump failed, don't record again
+            return Collections.emptyList();
+        }
+        training = true;
+        return Collections.singletonList("-XX:DumpLoadedClassList=" + classList.toAbsolutePath());
+    }
+
+    /**
+     * @return whether this launch records the class list
+     */
+    public boolean isTraining() {
+        return training;
+    }
+
+    public boolean needsDump() {
+        return Files.isRegularFile(classList) && !Files.isRegularFile(archive);
+    }
+
+    /**
+     * Dumps the archive from the recorded class list, the output goes to {@code dump.log}.
+     */
+    public void dump() throws IOException, InterruptedException {
+        System.out.println("Creating the class data sharing archive " + archive);
+        Process process = new ProcessBuilder(runtime.executable.toString(),
+                "-Xshare:dump",
+                "-XX:SharedClassListFile=" + classList.toAbsolutePath(),
+                "-XX:SharedArchiveFile=" + archive.toAbsolutePath(),
+                "-cp", LaunchClassPath.join(classPath))
+                .redirectErrorStream(true)
+                .redirectOutput(dir.resolve("dump.log").toFile())
+                .start();
+
+        if (process.waitFor() != 0) {
+            Files.deleteIfExists(archive);
+            System.err.println("Failed to create the class data sharing archive, see " + dir.resolve("dump.log"));
+        }
+    }
+
+    /**
+     * The JVM only accepts an archive for the same java and class path, with unchanged jars
+     */
+    private String stamp() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append(runtime.executable.toAbsolutePath()).append(' ').append(runtime.version).append('\n');
+        for (Path jar : classPath) {
+            sb.append(jar.toAbsolutePath()).append(' ')
+                    .append(Files.size(jar)).append(' ')
+                    .append(Files.getLastModifiedTime(jar).toMillis()).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,85 @@
+package art.xeloboyo.airshipsloader.installer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * The java executable the game is started with and its feature version (8, 11, 17, ...).
+ */
+public final class JavaRuntime {
+    public final Path executable;
+    public final int version;
+
+    private JavaRuntime(Path executable, int version) {
+        this.executable = executable;
+        this.version = version;
+    }
+
+    /**
+     * @return the JVM running the launcher
+     */
+    public static JavaRuntime current() {
+        Path bin = Paths.get(System.getProperty("java.home"), "bin");
+        Path executable = bin.resolve(isWindows() ? "java.exe" : "java");
+        return new JavaRuntime(executable, parseVersion(System.getProperty("java.specification.version")));
+    }
+
+    /**
+     * Asks another java installation for its version.
+     */
+    public static JavaRuntime probe(Path executable) throws IOException {
+        if (!Files.isRegularFile(executable)) {
+            throw new IOException("No java executable at " + executable);
+        }
+
+        Process process = new ProcessBuilder(executable.toString(), "-XshowSettings:properties", "-version")
+                .redirectErrorStream(true)
+                .start();
+        String version = null;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.startsWith("java.specification.version = ")) {
+                    version = line.substring("java.specification.version = ".length());
+                }
+            }
+        }
+        try {
+            process.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (version == null) {
+            throw new IOException("Could not determine the version of " + executable);
+        }
+        return new JavaRuntime(executable, parseVersion(version));
+    }
+
+    /**
+     * '1.8' is 8, '11' is 11
+     */
+    static int parseVersion(String version) {
+        if (version.startsWith("1.")) {
+            version = version.substring(2);
+        }
+        int end = 0;
+        while (end < version.length() && Character.isDigit(version.charAt(end))) end++;
+        return Integer.parseInt(version.substring(0, end));
+    }
+
+    static boolean isWindows() {
+        return System.getProperty("os.name").toLowerCase().startsWith("windows");
+    }
+
+    @Override
+    public String toString() {
+        return executable + " (Java " + version + ")";
+    }
+}
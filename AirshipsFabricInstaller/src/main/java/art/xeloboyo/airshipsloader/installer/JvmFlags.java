@@ -0,0 +1,111 @@
+package art.xeloboyo.airshipsloader.installer;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Heap, GC and diagnostic flags for the game, sized from the machine it runs on.
+ * <br>
+ * Flags the user passes with {@code -J} win: if they set the heap or a GC, the generated one is left out.
+ * <br>
+ * A dedicated server gets a small heap that only grows when needed and the serial GC,
+ * so several of them fit on one host.
+ */
+public final class JvmFlags {
+    private static final long MIB = 1024 * 1024;
+    private static final long MIN_HEAP = 512 * MIB;
+    private static final long MAX_HEAP = 4096 * MIB;
+    private static final long MIN_SERVER_HEAP = 256 * MIB;
+    private static final long MAX_SERVER_HEAP = 1024 * MIB;
+
+    private JvmFlags() {
+    }
+
+    public static List<String> create(JavaRuntime runtime, List<String> userFlags, boolean server) {
+        if (server) {
+            return createServer(runtime, userFlags);
+        }
+
+        List<String> flags = new ArrayList<>();
+        long totalMemory = totalMemory();
+
+        if (totalMemory > 0 && !hasFlag(userFlags, "-Xmx", "-XX:MaxRAMPercentage")) {
+            // A quarter of the RAM, the game and the OS need the rest
+            long heap = Math.max(MIN_HEAP, Math.min(MAX_HEAP, totalMemory / 4));
+            flags.add("-Xmx" + heap / MIB + "m");
+            if (!hasFlag(userFlags, "-Xms")) {
+                // Starting at half the maximum saves the GCs that would only grow the heap during loading
+                flags.add("-Xms" + heap / 2 / MIB + "m");
+            }
+        }
+
+        if (!hasFlag(userFlags, "-XX:+Use")) {
+            if (Runtime.getRuntime().availableProcessors() >= 2 && (totalMemory <= 0 || totalMemory / 4 >= 1024 * MIB)) {
+                // Short pauses matter more than throughput for a game, G1 isn't the default on Java 8
+                flags.add("-XX:+UseG1GC");
+                flags.add("-XX:MaxGCPauseMillis=50");
+            } else {
+                flags.add("-XX:+UseSerialGC");
+            }
+        }
+
+        if (runtime.version >= 14) {
+            flags.add("-XX:+ShowCodeDetailsInExceptionMessages");
+        }
+        return flags;
+    }
+
+    private static List<String> createServer(JavaRuntime runtime, List<String> userFlags) {
+        List<String> flags = new ArrayList<>();
+        long totalMemory = totalMemory();
+
+        if (!hasFlag(userFlags, "-Xmx", "-XX:MaxRAMPercentage")) {
+            // An eighth of the RAM, capped, a server without players needs far less than a client
+            long heap = totalMemory > 0 ? Math.max(MIN_SERVER_HEAP, Math.min(MAX_SERVER_HEAP, totalMemory / 8)) : MIN_SERVER_HEAP;
+            flags.add("-Xmx" + heap / MIB + "m");
+            if (!hasFlag(userFlags, "-Xms")) {
+                // Idle servers stay small
+                flags.add("-Xms" + MIN_SERVER_HEAP / 4 / MIB + "m");
+            }
+        }
+
+        if (!hasFlag(userFlags, "-XX:+Use")) {
+            // No GC threads and the least overhead per instance, pauses on a small heap are short anyway
+            flags.add("-XX:+UseSerialGC");
+        }
+        if (!hasFlag(userFlags, "-XX:ReservedCodeCacheSize")) {
+            flags.add("-XX:ReservedCodeCacheSize=64m");
+        }
+        if (!hasFlag(userFlags, "-Xss")) {
+            flags.add("-Xss512k");
+        }
+        flags.add("-Djava.awt.headless=true");
+
+        if (runtime.version >= 14) {
+            flags.add("-XX:+ShowCodeDetailsInExceptionMessages");
+        }
+        return flags;
+    }
+
+    private static boolean hasFlag(List<String> flags, String... prefixes) {
+        for (String flag : flags) {
+            for (String prefix : prefixes) {
+                if (flag.startsWith(prefix)) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the physical memory in bytes or {@code -1} on JVMs without the HotSpot extension
+     */
+    private static long totalMemory() {
+        OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+        if (bean instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) bean).getTotalPhysicalMemorySize();
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,134 @@
+package art.xeloboyo.airshipsloader.installer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * Builds the class path of the game: fabric and its dependencies, the game provider and the game's own libraries.
+ * <br>
+ * The fabric jars are taken from {@code deps.txt} if every jar it lists exists.
+ * Otherwise, e.g. after a loader update that {@code deps.txt} missed, all jars in {@code fabric-dependencies} are used.
+ * <br>
+ * A dedicated server leaves out the game's libraries that only render, play sound or read input.
+ */
+public final class LaunchClassPath {
+    /**
+     * Entries that mark a jar as client-only, the same as the client libraries in {@code AirshipsLibraries}.
+     * The launcher runs without fabric, so it can't use the enum itself.
+     */
+    private static final String[] CLIENT_ONLY = {
+            "org/lwjgl/Sys.class", "org/lwjgl/Version.class",
+            "net/java/games/input/Controller.class",
+            "org/newdawn/slick/Graphics.class", "org/newdawn/slick/opengl/Texture.class"
+    };
+
+    private LaunchClassPath() {
+    }
+
+    /**
+     * @param dir the directory of the launcher, containing {@code deps.txt}, {@code fabric-dependencies} and the game provider jar
+     * @param gameLibraries the game's {@code lib} directory, its jars are added at the end
+     * @param server leave out the client-only jars of {@code gameLibraries}
+     */
+    public static List<Path> resolve(Path dir, Path gameLibraries, boolean server) throws IOException {
+        List<Path> classPath = fromDepsFile(dir);
+        if (classPath == null) {
+            classPath = new ArrayList<>();
+            classPath.addAll(jars(dir.resolve("fabric-dependencies")));
+            for (Path jar : jars(dir)) {
+                if (jar.getFileName().toString().startsWith("AirshipsGameProvider")) {
+                    classPath.add(jar);
+                }
+            }
+        }
+
+        if (classPath.isEmpty()) {
+            throw new IOException("Found no fabric jars in " + dir.toAbsolutePath() + ", neither deps.txt nor fabric-dependencies exist");
+        }
+
+        for (Path jar : jars(gameLibraries)) {
+            if (server && isClientOnly(jar)) continue;
+            classPath.add(jar);
+        }
+        return classPath;
+    }
+
+    private static boolean isClientOnly(Path jar) throws IOException {
+        try (ZipFile zipFile = new ZipFile(jar.toFile())) {
+            for (String entry : CLIENT_ONLY) {
+                if (zipFile.getEntry(entry) != null) return true;
+            }
+        } catch (ZipException e) {
+            // Not our business, the JVM will complain about it
+            return false;
+        }
+        return false;
+    }
+
+    /**
+     * @return the jars listed after {@code -cp} in {@code deps.txt} or {@code null} if it's missing or outdated
+     */
+    private static List<Path> fromDepsFile(Path dir) throws IOException {
+        Path depsFile = dir.resolve("deps.txt");
+        if (!Files.isRegularFile(depsFile)) {
+            return null;
+        }
+
+        String content = new String(Files.readAllBytes(depsFile), StandardCharsets.UTF_8).trim();
+        if (content.startsWith("-cp")) {
+            content = content.substring(3).trim();
+        }
+
+        // deps.txt is written for run.bat, but a ':' separated list works too
+        String separator = content.contains(";") ? ";" : ":";
+        List<Path> classPath = new ArrayList<>();
+        for (String entry : content.split(separator)) {
+            entry = entry.trim();
+            if (entry.isEmpty()) continue;
+
+            Path jar = dir.resolve(entry.replace('\\', File.separatorChar).replace('/', File.separatorChar)).normalize();
+            if (!Files.isRegularFile(jar)) {
+                System.err.println("deps.txt lists " + entry + " which doesn't exist, using the jars in fabric-dependencies instead");
+                return null;
+            }
+            if (!classPath.contains(jar)) {
+                classPath.add(jar);
+            }
+        }
+        return classPath;
+    }
+
+    /**
+     * Like the {@code dir/*} wildcard of {@code -cp}, but sorted so the class path is the same on every launch
+     */
+    static List<Path> jars(Path dir) throws IOException {
+        List<Path> jars = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return jars;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.jar")) {
+            for (Path jar : stream) {
+                jars.add(jar.normalize());
+            }
+        }
+        jars.sort(null);
+        return jars;
+    }
+
+    public static String join(List<Path> classPath) {
+        StringBuilder sb = new StringBuilder();
+        for (Path path : classPath) {
+            if (sb.length() > 0) sb.append(File.pathSeparatorChar);
+            sb.append(path.toAbsolutePath());
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,140 @@
+package art.xeloboyo.airshipsloader.installer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Starts Airships with fabric, replacing the hand written {@code run.sh} and {@code run.bat}.
+ * <br>
+ * It is run from the folder containing {@code deps.txt} or {@code fabric-dependencies} and the game provider jar,
+ * which lies in the game folder next to {@code lib}.
+ * <pre>
+ * java -jar AirshipsFabricInstaller.jar [--server [--allLibraries]] [--steam] [--bake|--baked] [--java &lt;path&gt;] [--noCds] [--print] [-J&lt;jvm flag&gt;...] [game args...]
+ * </pre>
+ * <ul>
+ *     <li>{@code --server} starts the dedicated server, headless, with a small heap and without the client-only libraries and natives</li>
+ *     <li>{@code --allLibraries} keeps the client-only libraries on the server's class path</li>
+ *     <li>{@code --steam} tells the game it was started by Steam</li>
+ *     <li>{@code --bake} transforms the game with the current mods into a baked jar and exits, {@code --baked} starts from it</li>
+ *     <li>{@code --java} the java executable, by default the one running the launcher</li>
+ *     <li>{@code --noCds} doesn't use or create the class data sharing archive, see {@link CdsArchive}</li>
+ *     <li>{@code --print} only prints the command</li>
+ *     <li>{@code -J} passes a flag to the JVM, e.g. {@code -J-Xmx2g}</li>
+ * </ul>
+ * Every other argument is passed to the game.
+ */
+public final class Launcher {
+    private static final String KNOT_CLIENT = "net.fabricmc.loader.impl.launch.knot.KnotClient";
+    private static final String KNOT_SERVER = "net.fabricmc.loader.impl.launch.knot.KnotServer";
+
+    private Launcher() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        boolean server = false;
+        boolean allLibraries = false;
+        boolean steam = false;
+        boolean cds = true;
+        boolean print = false;
+        Path java = null;
+        List<String> userFlags = new ArrayList<>();
+        List<String> gameArgs = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--server")) {
+                server = true;
+            } else if (arg.equals("--allLibraries")) {
+                allLibraries = true;
+            } else if (arg.equals("--steam")) {
+                steam = true;
+            } else if (arg.equals("--bake")) {
+                userFlags.add("-Dairships.bake=true");
+            } else if (arg.equals("--baked")) {
+                userFlags.add("-Dairships.useBaked=true");
+            } else if (arg.equals("--noCds")) {
+                cds = false;
+            } else if (arg.equals("--print")) {
+                print = true;
+            } else if (arg.equals("--java") && i + 1 < args.length) {
+                java = Paths.get(args[++i]);
+            } else if (arg.startsWith("-J")) {
+                userFlags.add(arg.substring(2));
+            } else {
+                gameArgs.add(arg);
+            }
+        }
+
+        Path dir = Paths.get("").toAbsolutePath();
+        Path gameLibraries = dir.resolveSibling("lib");
+        JavaRuntime runtime = java != null ? JavaRuntime.probe(java) : JavaRuntime.current();
+        List<Path> classPath = LaunchClassPath.resolve(dir, gameLibraries, server && !allLibraries);
+
+        List<String> command = new ArrayList<>();
+        command.add(runtime.executable.toString());
+        command.addAll(JvmFlags.create(runtime, userFlags, server));
+
+        CdsArchive archive = null;
+        if (cds && CdsArchive.isSupported(runtime)) {
+            // Client and server load different classes, each keeps its own archive
+            archive = new CdsArchive(dir.resolve(".fabric").resolve("airships").resolve(server ? "cds-server" : "cds"), runtime, classPath);
+            command.addAll(archive.flags());
+        }
+
+        command.add("-Dhttps.protocols=TLSv1.2,TLSv1.1,TLSv1");
+        command.add("-Dfabric.skipMcProvider=true");
+        command.add("-Dfabric.side=" + (server ? "server" : "client"));
+        if (!server || allLibraries) {
+            // The natives are all rendering, sound and input
+            command.add("-Djava.library.path=" + gameLibraries.resolve("native"));
+        }
+        if (steam) {
+            command.add("-Dsteam=true");
+        }
+        command.addAll(userFlags);
+        // Separate files, so a client and a server can be started from the same folder at the same time
+        Path argFile = dir.resolve(".fabric").resolve("airships").resolve(server ? "classpath-server.args" : "classpath.args");
+        addClassPath(command, runtime, classPath, argFile);
+        command.add(server ? KNOT_SERVER : KNOT_CLIENT);
+        command.addAll(gameArgs);
+
+        if (print) {
+            System.out.println(String.join(" ", command));
+            return;
+        }
+
+        if (archive != null && archive.isTraining()) {
+            System.out.println("Recording the loaded classes for the class data sharing archive, the next launch will start faster");
+        }
+        Process process = new ProcessBuilder(command).inheritIO().start();
+        int exitCode = process.waitFor();
+
+        if (archive != null && archive.needsDump()) {
+            archive.dump();
+        }
+        System.exit(exitCode);
+    }
+
+    /**
+     * With all of the game's libraries the class path gets too long for a Windows command line,
+     * from Java 9 on it is passed in an argument file instead.
+     */
+    private static void addClassPath(List<String> command, JavaRuntime runtime, List<Path> classPath, Path argFile) throws IOException {
+        String joined = LaunchClassPath.join(classPath);
+        if (runtime.version < 9) {
+            command.add("-cp");
+            command.add(joined);
+            return;
+        }
+
+        Files.createDirectories(argFile.getParent());
+        String quoted = "\"" + joined.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+        Files.write(argFile, ("-cp " + quoted + "\n").getBytes(StandardCharsets.UTF_8));
+        command.add("@" + argFile);
+    }
+}
@@ -0,0 +1,98 @@
+package art.xeloboyo.airshipsloader.benchmarks;
+
+import art.xeloboyo.airshipsloader.gameprovider.AirshipsLibraries;
+import art.xeloboyo.airshipsloader.gameprovider.cache.GameJarIndex;
+import art.xeloboyo.airshipsloader.gameprovider.cache.LibraryCache;
+import art.xeloboyo.airshipsloader.gameprovider.services.AirshipGameProvider;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.loader.impl.game.GameProviderHelper;
+import net.fabricmc.loader.impl.game.LibClassifier;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipFile;
+
+/**
+ * The parts of {@link AirshipGameProvider#locateGame} that read jars: finding the game jar and classifying the class path.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LocateBenchmark {
+    private static final String[] ENTRYPOINTS = {AirshipGameProvider.CLIENT_ENTRYPOINT, AirshipGameProvider.SERVER_ENTRYPOINT};
+
+    private List<Path> gameJars;
+    private List<Path> classPath;
+    private AirshipGameProvider provider;
+    private LibraryCache libraryCache;
+
+    @Setup
+    public void setup(SyntheticGame game) throws IOException {
+        gameJars = Collections.singletonList(game.gameJar);
+        classPath = new ArrayList<>();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            if (!entry.isEmpty()) classPath.add(Paths.get(entry).toAbsolutePath().normalize());
+        }
+        provider = new AirshipGameProvider();
+        libraryCache = new LibraryCache(Files.createTempDirectory("airships-bench").resolve("libraries.properties"));
+    }
+
+    /**
+     * How {@code locateGame} found the game jar before it had {@link GameJarIndex}: opens the jar and looks up the entrypoints.
+     */
+    @Benchmark
+    public GameProviderHelper.FindResult findFirst() throws IOException {
+        Map<Path, ZipFile> zipFiles = new HashMap<>();
+        try {
+            return GameProviderHelper.findFirst(gameJars, zipFiles, true, ENTRYPOINTS);
+        } finally {
+            for (ZipFile zipFile : zipFiles.values()) {
+                zipFile.close();
+            }
+        }
+    }
+
+    /**
+     * What {@code locateGame} does now, with the index already mapped by an earlier launch step.
+     */
+    @Benchmark
+    public boolean indexLookup() throws IOException {
+        GameJarIndex index = GameJarIndex.get(gameJars.get(0));
+        for (String name : ENTRYPOINTS) {
+            if (index.containsClass(name)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * How {@code locateGame} classified the class path before it had {@link LibraryCache}:
+     * the {@link LibClassifier} pass over {@link AirshipsLibraries}, for the game jar and then the benchmark's class path.
+     */
+    @Benchmark
+    public Collection<Path> libClassifier() throws IOException {
+        LibClassifier<AirshipsLibraries> classifier = new LibClassifier<>(AirshipsLibraries.class, EnvType.CLIENT, provider);
+        classifier.process(gameJars.get(0));
+        classifier.process(classPath);
+        return classifier.getSystemLibraries();
+    }
+
+    /**
+     * What {@code locateGame} does now, the {@link LibraryCache} is warm after the first invocation.
+     */
+    @Benchmark
+    public Map<Path, Set<AirshipsLibraries>> libraryCache() {
+        List<Path> jars = new ArrayList<>(classPath.size() + 1);
+        jars.add(gameJars.get(0));
+        jars.addAll(classPath);
+        return libraryCache.classify(AirshipsLibraries.class, EnvType.CLIENT, jars);
+    }
+}
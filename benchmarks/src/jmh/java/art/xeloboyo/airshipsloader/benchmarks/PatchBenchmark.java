@@ -0,0 +1,106 @@
+package art.xeloboyo.airshipsloader.benchmarks;
+
+import art.xeloboyo.airshipsloader.gameprovider.GameVersion;
+import art.xeloboyo.airshipsloader.gameprovider.cache.GameJarIndex;
+import art.xeloboyo.airshipsloader.gameprovider.patch.AirshipsBrandingPatch;
+import art.xeloboyo.airshipsloader.gameprovider.patch.AirshipsEntrypointPatch;
+import art.xeloboyo.airshipsloader.gameprovider.patch.MethodPatch;
+import art.xeloboyo.airshipsloader.gameprovider.patch.PatchEngine;
+import art.xeloboyo.airshipsloader.gameprovider.services.AirshipGameHooks;
+import art.xeloboyo.airshipsloader.gameprovider.services.AirshipGameProvider;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.loader.impl.launch.FabricLauncher;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * The cost of the provider's {@link net.fabricmc.loader.impl.game.patch.GamePatch}es on the synthetic game,
+ * from parsing the class to handing the patched node to the emitter.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PatchBenchmark {
+    @Param({AirshipGameProvider.CLIENT_ENTRYPOINT, AirshipGameProvider.SERVER_ENTRYPOINT})
+    public String entrypoint;
+
+    private final Map<String, byte[]> classes = new HashMap<>();
+    private Function<String, ClassReader> classSource;
+    private FabricLauncher launcher;
+    private AirshipsEntrypointPatch entrypointPatch;
+    private AirshipsBrandingPatch brandingPatch;
+    private List<MethodPatch> allPatches;
+    private MethodNode initMethod;
+
+    @Setup
+    public void setup(SyntheticGame game) throws IOException {
+        GameJarIndex index = GameJarIndex.get(game.gameJar);
+        for (String name : new String[]{entrypoint, AirshipGameProvider.MAIN_MENU}) {
+            classes.put(name, index.getClassBytes(name));
+        }
+        classSource = name -> {
+            byte[] bytes = classes.get(name);
+            return bytes != null ? new ClassReader(bytes) : null;
+        };
+
+        launcher = SyntheticGame.launcher(entrypoint,
+                entrypoint.equals(AirshipGameProvider.CLIENT_ENTRYPOINT) ? EnvType.CLIENT : EnvType.SERVER);
+        entrypointPatch = new AirshipsEntrypointPatch();
+        GameVersion version = new GameVersion.Builder().setRaw(SyntheticGameJar.DEFAULT_VERSION).build();
+        brandingPatch = new AirshipsBrandingPatch(() -> version);
+        allPatches = Arrays.asList(entrypointPatch, brandingPatch);
+
+        ClassNode node = new ClassNode();
+        classSource.apply(entrypoint).accept(node, 0);
+        for (MethodNode method : node.methods) {
+            if (method.name.equals("<init>") && method.desc.equals("()V")) {
+                initMethod = method;
+            }
+        }
+    }
+
+    @Benchmark
+    public void entrypointPatch(Blackhole blackhole) {
+        entrypointPatch.process(launcher, classSource, blackhole::consume);
+    }
+
+    @Benchmark
+    public void brandingPatch(Blackhole blackhole) {
+        brandingPatch.process(launcher, classSource, blackhole::consume);
+    }
+
+    /**
+     * Both patches in one {@link PatchEngine} run, like {@code AirshipGameTransformer} does at launch.
+     */
+    @Benchmark
+    public Map<String, byte[]> engine() {
+        return PatchEngine.run(launcher, allPatches, classes::get);
+    }
+
+    /**
+     * Only the search for the last return and the insertion, the injected call is removed again so the method stays the same size.
+     */
+    @Benchmark
+    public MethodNode injectTailInsn() {
+        MethodInsnNode hook = new MethodInsnNode(Opcodes.INVOKESTATIC, AirshipGameHooks.INTERNAL_NAME, "initClient", "()V", false);
+        AirshipsEntrypointPatch.injectTailInsn(initMethod, hook);
+        initMethod.instructions.remove(hook);
+        return initMethod;
+    }
+}
@@ -0,0 +1,56 @@
+package art.xeloboyo.airshipsloader.benchmarks;
+
+import net.fabricmc.api.EnvType;
+import net.fabricmc.loader.impl.launch.FabricLauncher;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * The synthetic game jar written by the {@code generateSyntheticGame} task, its path is passed with {@code -Dairships.bench.gameJar}.
+ * When the benchmarks are started some other way a jar is generated into a temporary directory.
+ */
+@State(Scope.Benchmark)
+public class SyntheticGame {
+    public static final String GAME_JAR = "airships.bench.gameJar";
+
+    public Path gameJar;
+
+    @Setup
+    public void setup() throws IOException {
+        String path = System.getProperty(GAME_JAR);
+        if (path != null) {
+            gameJar = Paths.get(path).toAbsolutePath().normalize();
+        } else {
+            gameJar = Files.createTempDirectory("airships-bench").resolve("game.jar");
+            SyntheticGameJar.write(gameJar, 2000, SyntheticGameJar.DEFAULT_VERSION);
+        }
+    }
+
+    /**
+     * The patches only ask the launcher for the entrypoint and the environment, anything else returns the default value.
+     * A proxy keeps this working when fabric adds methods to {@link FabricLauncher}.
+     */
+    public static FabricLauncher launcher(String entrypoint, EnvType envType) {
+        return (FabricLauncher) Proxy.newProxyInstance(SyntheticGame.class.getClassLoader(), new Class<?>[]{FabricLauncher.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getEntrypoint":
+                            return entrypoint;
+                        case "getEnvironmentType":
+                            return envType;
+                        case "isDevelopment":
+                        case "isClassLoaded":
+                            return false;
+                        default:
+                            return null;
+                    }
+                });
+    }
+}
@@ -0,0 +1,238 @@
+package art.xeloboyo.airshipsloader.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Stream;
+
+/**
+ * Launches the synthetic game with Knot and the provider in fresh JVMs, which the JMH benchmarks can't:
+ * they measure single steps in a warmed up JVM, this measures {@code locateGame} to {@code initClient} as a player gets it.
+ * <br>
+ * The work directory is laid out like an installation, the {@link SyntheticGameJar} as {@code game.jar} next to the game directory
+ * {@code run}, where the provider looks for it, and the {@link SyntheticMods} in {@code run/mods}.
+ * Every launch is timed from starting the JVM until the {@link LaunchProbe} reports that the hook ran the initializers (time to hook)
+ * and until the JVM exited (time to exit). The probe also reports the JVM's peak resident set size, on Linux.
+ * <br>
+ * Cold launches start without {@code run/.fabric}, where Fabric and the provider keep their caches,
+ * warm launches keep what the launch before left there. Neither can drop the operating system's file cache.
+ * <br>
+ * Usage: {@code LaunchBenchmark --classpath <provider, fabric-loader and its libraries> [options] [-J<jvm argument>...]}
+ * <ul>
+ *     <li>{@code --work <dir>} where the game, the mods and the logs of every launch go, default {@code launch-benchmark}</li>
+ *     <li>{@code --runs <n>} measured launches per scenario, default 10</li>
+ *     <li>{@code --mods <n>} synthetic mods besides the probe, default 20</li>
+ *     <li>{@code --classes <n>} filler classes of the game jar, default 2000</li>
+ *     <li>{@code --env client|server} default {@code client}</li>
+ *     <li>{@code --scenario cold|warm|both} default {@code both}</li>
+ *     <li>{@code --java <path>} the java executable, default the one running the benchmark</li>
+ *     <li>{@code --report <file>} also writes the report to the file</li>
+ * </ul>
+ */
+public final class LaunchBenchmark {
+    private static final String KNOT_CLIENT = "net.fabricmc.loader.impl.launch.knot.KnotClient";
+    private static final String KNOT_SERVER = "net.fabricmc.loader.impl.launch.knot.KnotServer";
+    private static final long TIMEOUT_MINUTES = 5;
+    private static final double NANOS_PER_MS = 1_000_000.0;
+
+    private final Path work;
+    private final Path gameDir;
+    private final List<String> command;
+
+    private LaunchBenchmark(Path work, List<String> command) {
+        this.work = work;
+        this.gameDir = work.resolve("run");
+        this.command = command;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = new HashMap<>();
+        List<String> jvmArgs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].startsWith("-J")) {
+                jvmArgs.add(args[i].substring(2));
+            } else if (args[i].startsWith("--") && i + 1 < args.length) {
+                options.put(args[i].substring(2), args[++i]);
+            } else {
+                throw new IllegalArgumentException("Unknown argument " + args[i] + ", see the documentation of " + LaunchBenchmark.class.getName());
+            }
+        }
+
+        String classPath = options.get("classpath");
+        if (classPath == null) {
+            throw new IllegalArgumentException("--classpath is required, it has to hold the provider, fabric-loader and its libraries");
+        }
+        Path work = Paths.get(options.getOrDefault("work", "launch-benchmark")).toAbsolutePath().normalize();
+        int runs = Integer.parseInt(options.getOrDefault("runs", "10"));
+        if (runs < 1) {
+            throw new IllegalArgumentException("--runs has to be at least 1");
+        }
+        int mods = Integer.parseInt(options.getOrDefault("mods", "20"));
+        int classes = Integer.parseInt(options.getOrDefault("classes", "2000"));
+        String env = options.getOrDefault("env", "client");
+        String scenario = options.getOrDefault("scenario", "both");
+        String java = options.getOrDefault("java", Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+
+        List<String> command = new ArrayList<>();
+        command.add(java);
+        command.addAll(jvmArgs);
+        command.add("-cp");
+        command.add(classPath);
+        command.add(env.equals("server") ? KNOT_SERVER : KNOT_CLIENT);
+
+        LaunchBenchmark benchmark = new LaunchBenchmark(work, command);
+        benchmark.setup(mods, classes);
+
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.ROOT, "%s, %d mods, %d filler classes, %d runs per scenario%n", env, mods, classes, runs));
+        if (!scenario.equals("warm")) {
+            report.append(benchmark.run("cold", runs, true));
+        }
+        if (!scenario.equals("cold")) {
+            report.append(benchmark.run("warm", runs, false));
+        }
+
+        System.out.print(report);
+        String reportFile = options.get("report");
+        if (reportFile != null) {
+            Path file = Paths.get(reportFile);
+            if (file.toAbsolutePath().getParent() != null) Files.createDirectories(file.toAbsolutePath().getParent());
+            Files.write(file, report.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private void setup(int mods, int classes) throws IOException {
+        Files.createDirectories(gameDir);
+        SyntheticGameJar.write(work.resolve("game.jar"), classes, SyntheticGameJar.DEFAULT_VERSION);
+        SyntheticMods.write(gameDir.resolve("mods"), mods, classes);
+    }
+
+    /**
+     * @param cold whether every launch starts without caches, otherwise one launch fills them first
+     * @return the scenario's part of the report
+     */
+    private String run(String scenario, int runs, boolean cold) throws IOException, InterruptedException {
+        if (!cold) {
+            deleteCaches();
+            launch(scenario + "-warmup");
+        }
+
+        List<Result> results = new ArrayList<>();
+        for (int i = 0; i < runs; i++) {
+            if (cold) deleteCaches();
+            Result result = launch(scenario + "-" + i);
+            results.add(result);
+            System.out.printf(Locale.ROOT, "%s %d/%d: hook %.0f ms, exit %.0f ms%n", scenario, i + 1, runs,
+                    result.hookNanos / NANOS_PER_MS, result.exitNanos / NANOS_PER_MS);
+        }
+
+        StringBuilder out = new StringBuilder();
+        out.append(String.format(Locale.ROOT, "%n%-6s %-14s %10s %10s %10s %10s %10s%n", scenario, "", "min", "p50", "p90", "max", "mean"));
+        out.append(row("time to hook", results, r -> r.hookNanos / NANOS_PER_MS, "ms"));
+        out.append(row("time to exit", results, r -> r.exitNanos / NANOS_PER_MS, "ms"));
+        if (results.stream().allMatch(r -> r.peakRssKiB >= 0)) {
+            out.append(row("peak RSS", results, r -> r.peakRssKiB / 1024.0, "MiB"));
+        } else {
+            out.append(String.format(Locale.ROOT, "       %-14s not available on this system%n", "peak RSS"));
+        }
+        return out.toString();
+    }
+
+    private static String row(String name, List<Result> results, ToDoubleFunction<Result> value, String unit) {
+        double[] values = results.stream().mapToDouble(value).sorted().toArray();
+        double mean = Arrays.stream(values).average().orElse(Double.NaN);
+        return String.format(Locale.ROOT, "       %-14s %10.1f %10.1f %10.1f %10.1f %10.1f %s%n", name,
+                values[0], percentile(values, 0.5), percentile(values, 0.9), values[values.length - 1], mean, unit);
+    }
+
+    /**
+     * Nearest rank
+     */
+    private static double percentile(double[] sorted, double p) {
+        return sorted[Math.max(0, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+
+    private void deleteCaches() throws IOException {
+        Path caches = gameDir.resolve(".fabric");
+        if (!Files.exists(caches)) return;
+
+        try (Stream<Path> files = Files.walk(caches)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Launches the game once, its output goes to {@code logs/<name>.log}.
+     */
+    private Result launch(String name) throws IOException, InterruptedException {
+        Path log = work.resolve("logs").resolve(name + ".log");
+        Files.createDirectories(log.getParent());
+
+        ProcessBuilder builder = new ProcessBuilder(command).directory(gameDir.toFile()).redirectErrorStream(true);
+        AtomicLong hook = new AtomicLong(-1);
+        AtomicLong peakRss = new AtomicLong(-1);
+
+        long start = System.nanoTime();
+        Process process = builder.start();
+        Thread reader = new Thread(() -> {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+                 Writer out = Files.newBufferedWriter(log, StandardCharsets.UTF_8)) {
+                for (String line; (line = in.readLine()) != null; ) {
+                    // Fabric logs to the same stream, the probe's lines may not start at the beginning
+                    if (hook.get() < 0 && line.contains(LaunchProbe.HOOK)) {
+                        hook.set(System.nanoTime() - start);
+                    }
+                    int rss = line.indexOf(LaunchProbe.PEAK_RSS);
+                    if (rss >= 0) {
+                        peakRss.set(Long.parseLong(line.substring(rss + LaunchProbe.PEAK_RSS.length()).trim()));
+                    }
+                    out.write(line);
+                    out.write(System.lineSeparator());
+                }
+            } catch (IOException | NumberFormatException e) {
+                System.err.println("Failed to read the output of " + name + ": " + e);
+            }
+        }, "Launch Output");
+        reader.setDaemon(true);
+        reader.start();
+
+        if (!process.waitFor(TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+            process.destroyForcibly();
+            throw new IllegalStateException(name + " didn't exit within " + TIMEOUT_MINUTES + " minutes, see " + log);
+        }
+        long exit = System.nanoTime() - start;
+        reader.join();
+
+        if (process.exitValue() != 0) {
+            throw new IllegalStateException(name + " exited with " + process.exitValue() + ", see " + log);
+        }
+        if (hook.get() < 0) {
+            throw new IllegalStateException(name + " never reached the hook, see " + log);
+        }
+        return new Result(hook.get(), exit, peakRss.get());
+    }
+
+    private static final class Result {
+        private final long hookNanos;
+        private final long exitNanos;
+        /** -1 if unknown */
+        private final long peakRssKiB;
+
+        Result(long hookNanos, long exitNanos, long peakRssKiB) {
+            this.hookNanos = hookNanos;
+            this.exitNanos = exitNanos;
+            this.peakRssKiB = peakRssKiB;
+        }
+    }
+}
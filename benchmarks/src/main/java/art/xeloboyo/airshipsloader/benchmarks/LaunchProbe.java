@@ -0,0 +1,53 @@
+package art.xeloboyo.airshipsloader.benchmarks;
+
+import net.fabricmc.api.ClientModInitializer;
+import net.fabricmc.api.DedicatedServerModInitializer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * The entrypoint of the probe mod {@link SyntheticMods} adds to every launch of the {@link LaunchBenchmark}.
+ * <br>
+ * It tells the benchmark when the provider's hook ran the {@code client} or {@code server} initializers,
+ * and the peak resident set size of the JVM when it shuts down, both as lines on {@code System.out}.
+ */
+public class LaunchProbe implements ClientModInitializer, DedicatedServerModInitializer {
+    public static final String MOD_ID = "airships_bench_probe";
+    public static final String HOOK = "airships-bench: hook";
+    public static final String PEAK_RSS = "airships-bench: peak rss kB ";
+
+    @Override
+    public void onInitializeClient() {
+        reached();
+    }
+
+    @Override
+    public void onInitializeServer() {
+        reached();
+    }
+
+    private static void reached() {
+        System.out.println(HOOK);
+        System.out.flush();
+        Runtime.getRuntime().addShutdownHook(new Thread(LaunchProbe::printPeakRss, "Launch Probe"));
+    }
+
+    /**
+     * {@code VmHWM} of {@code /proc/self/status}, only Linux has it
+     */
+    private static void printPeakRss() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"), StandardCharsets.UTF_8)) {
+                if (line.startsWith("VmHWM:")) {
+                    System.out.println(PEAK_RSS + line.substring("VmHWM:".length()).replace("kB", "").trim());
+                    System.out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // Not Linux
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package art.xeloboyo.airshipsloader.benchmarks;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.function.Consumer;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Writes a jar that looks enough like the game for the provider to patch it, so the benchmarks need no game files.
+ * <br>
+ * It has stand-ins for {@code com.zarkonnen.airships.AirshipGame}, {@code MainMenu}, {@code Main}, {@code Server} and {@code SaveGame}
+ * with the methods the patches look for, and {@code fillerClasses} classes that make the jar as big as the real one.
+ * {@code Main} and {@code Server} load every filler class before they create the game, like the game loads its classes while it starts.
+ * <br>
+ * Usage: {@code SyntheticGameJar <output jar> <filler classes> <version>}
+ */
+public final class SyntheticGameJar {
+    public static final String PACKAGE = "com/zarkonnen/airships/";
+    public static final String DEFAULT_VERSION = "1.2.2";
+    private static final String FILLERS = PACKAGE + "filler/Fillers";
+    /** Filler classes per method of {@link #FILLERS}, so a method stays below the 64 KiB limit */
+    private static final int FILLERS_PER_METHOD = 1000;
+
+    private SyntheticGameJar() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path output = Paths.get(args[0]);
+        int fillerClasses = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        String version = args.length > 2 ? args[2] : DEFAULT_VERSION;
+        write(output, fillerClasses, version);
+        System.out.printf("Wrote %s with %d filler classes, version %s%n", output, fillerClasses, version);
+    }
+
+    public static void write(Path output, int fillerClasses, String version) throws IOException {
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(output))) {
+            add(out, PACKAGE + "AirshipGame", game());
+            add(out, PACKAGE + "MainMenu", mainMenu(version));
+            add(out, PACKAGE + "Main", main(PACKAGE + "Main", PACKAGE + "AirshipGame"));
+            add(out, PACKAGE + "Server", server());
+            add(out, PACKAGE + "SaveGame", saveGame());
+            add(out, FILLERS, fillers(fillerClasses));
+            for (int i = 0; i < fillerClasses; i++) {
+                add(out, fillerName(i), filler(fillerName(i), i));
+            }
+        }
+    }
+
+    /**
+     * @return the internal name of the filler class, e.g. for mixins targeting it
+     */
+    public static String fillerName(int index) {
+        return PACKAGE + "filler/Filler" + index;
+    }
+
+    private static void add(JarOutputStream out, String internalName, byte[] bytes) throws IOException {
+        out.putNextEntry(new JarEntry(internalName + ".class"));
+        out.write(bytes);
+        out.closeEntry();
+    }
+
+    /**
+     * The client entrypoint, {@code <init>()V} has two returns so the tail injection has to pick the last one.
+     */
+    private static byte[] game() {
+        ClassWriter cw = begin(PACKAGE + "AirshipGame");
+
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        Label skip = new Label();
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/System", "nanoTime", "()J", false);
+        mv.visitInsn(Opcodes.LCONST_0);
+        mv.visitInsn(Opcodes.LCMP);
+        mv.visitJumpInsn(Opcodes.IFGE, skip);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitLabel(skip);
+        mv.visitFrame(Opcodes.F_FULL, 1, new Object[]{PACKAGE + "AirshipGame"}, 0, new Object[0]);
+        for (int i = 0; i < 32; i++) {
+            mv.visitFieldInsn(Opcodes.GETSTATIC, "java/lang/System", "out", "Ljava/io/PrintStream;");
+            mv.visitLdcInsn("Loading " + i);
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/io/PrintStream", "println", "(Ljava/lang/String;)V", false);
+        }
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        // catengine's Game, which the game implements
+        emptyMethod(cw, "input", "(Lcom/zarkonnen/catengine/Input;)V");
+        emptyMethod(cw, "render", "(Lcom/zarkonnen/catengine/Frame;)V");
+        return end(cw);
+    }
+
+    /**
+     * {@code render} draws a few strings, one of them is the version the branding patch replaces.
+     */
+    private static byte[] mainMenu(String version) {
+        ClassWriter cw = begin(PACKAGE + "MainMenu");
+        constructor(cw);
+
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "render", "(Ljava/lang/Object;)V", null, null);
+        mv.visitCode();
+        String[] labels = {"New Game", "Load Game", "Options", "Multiplayer", "0.5", version, "Quit"};
+        for (String label : labels) {
+            mv.visitFieldInsn(Opcodes.GETSTATIC, "java/lang/System", "out", "Ljava/io/PrintStream;");
+            mv.visitLdcInsn(label);
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/io/PrintStream", "println", "(Ljava/lang/String;)V", false);
+        }
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        return end(cw);
+    }
+
+    private static byte[] main(String name, String game) {
+        return main(name, game, cw -> {
+        });
+    }
+
+    private static byte[] main(String name, String game, Consumer<ClassWriter> extraMethods) {
+        ClassWriter cw = begin(name);
+        constructor(cw);
+        extraMethods.accept(cw);
+
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "main", "([Ljava/lang/String;)V", null, null);
+        mv.visitCode();
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, FILLERS, "loadAll", "()V", false);
+        mv.visitTypeInsn(Opcodes.NEW, game);
+        mv.visitInsn(Opcodes.DUP);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, game, "<init>", "()V", false);
+        mv.visitInsn(Opcodes.POP);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        return end(cw);
+    }
+
+    /**
+     * The server entrypoint and main class at once, like in the game, with the tick the tick hooks go into.
+     */
+    private static byte[] server() {
+        return main(PACKAGE + "Server", PACKAGE + "Server", cw -> emptyMethod(cw, "tick", "()V"));
+    }
+
+    /**
+     * {@code save(String)} writes through a {@code FileOutputStream} and {@code load(String)} reads through a {@code FileInputStream},
+     * neither is called.
+     */
+    private static byte[] saveGame() {
+        ClassWriter cw = begin(PACKAGE + "SaveGame");
+        constructor(cw);
+        stream(cw, "save", "java/io/FileOutputStream", "write");
+        stream(cw, "load", "java/io/FileInputStream", "read");
+        return end(cw);
+    }
+
+    private static void stream(ClassWriter cw, String name, String stream, String use) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, name, "(Ljava/lang/String;)V", null, new String[]{"java/io/IOException"});
+        mv.visitCode();
+        mv.visitTypeInsn(Opcodes.NEW, stream);
+        mv.visitInsn(Opcodes.DUP);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, stream, "<init>", "(Ljava/lang/String;)V", false);
+        mv.visitVarInsn(Opcodes.ASTORE, 2);
+        mv.visitVarInsn(Opcodes.ALOAD, 2);
+        if (use.equals("write")) {
+            mv.visitInsn(Opcodes.ICONST_0);
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, stream, use, "(I)V", false);
+        } else {
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, stream, use, "()I", false);
+            mv.visitInsn(Opcodes.POP);
+        }
+        mv.visitVarInsn(Opcodes.ALOAD, 2);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, stream, "close", "()V", false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    /**
+     * {@code loadAll()} loads every filler class with an {@code ldc}, which loads a class without initializing it.
+     */
+    private static byte[] fillers(int fillerClasses) {
+        ClassWriter cw = begin(FILLERS);
+        int methods = (fillerClasses + FILLERS_PER_METHOD - 1) / FILLERS_PER_METHOD;
+
+        MethodVisitor all = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "loadAll", "()V", null, null);
+        all.visitCode();
+        for (int m = 0; m < methods; m++) {
+            all.visitMethodInsn(Opcodes.INVOKESTATIC, FILLERS, "load" + m, "()V", false);
+
+            MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC, "load" + m, "()V", null, null);
+            mv.visitCode();
+            for (int i = m * FILLERS_PER_METHOD; i < Math.min(fillerClasses, (m + 1) * FILLERS_PER_METHOD); i++) {
+                mv.visitLdcInsn(Type.getObjectType(fillerName(i)));
+                mv.visitInsn(Opcodes.POP);
+            }
+            mv.visitInsn(Opcodes.RETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+        all.visitInsn(Opcodes.RETURN);
+        all.visitMaxs(0, 0);
+        all.visitEnd();
+        return end(cw);
+    }
+
+    private static byte[] filler(String name, int seed) {
+        ClassWriter cw = begin(name);
+        constructor(cw);
+        for (int m = 0; m < 8; m++) {
+            MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "method" + m, "(I)I", null, null);
+            mv.visitCode();
+            mv.visitVarInsn(Opcodes.ILOAD, 1);
+            for (int i = 0; i < 16; i++) {
+                mv.visitLdcInsn(seed * 31 + m * 17 + i);
+                mv.visitInsn(i % 2 == 0 ? Opcodes.IADD : Opcodes.IXOR);
+            }
+            mv.visitInsn(Opcodes.IRETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+        cw.visitField(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, "NAME", "Ljava/lang/String;",
+                null, "filler-" + seed).visitEnd();
+        return end(cw);
+    }
+
+    private static ClassWriter begin(String name) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, "java/lang/Object", null);
+        return cw;
+    }
+
+    private static byte[] end(ClassWriter cw) {
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static void constructor(ClassWriter cw) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    private static void emptyMethod(ClassWriter cw, String name, String desc) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, name, desc, null, null);
+        mv.visitCode();
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+}
@@ -0,0 +1,220 @@
+package art.xeloboyo.airshipsloader.benchmarks;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+
+/**
+ * Writes Fabric mods for the {@link SyntheticGameJar}, so a launch has mods to resolve, mixins to apply and initializers to run.
+ * <br>
+ * Every mod {@code airships_bench_<n>} has one class for its {@code main}, {@code client} and {@code server} entrypoints
+ * and {@value #MIXINS_PER_MOD} mixins, each injecting at the head of {@code method0} of another filler class.
+ * The game loads all filler classes while it starts, so all of them are applied.
+ * The probe mod tells the {@link LaunchBenchmark} when the mods are initialized, see {@link LaunchProbe}.
+ * <br>
+ * Usage: {@code SyntheticMods <mods folder> <mods> <filler classes>}
+ */
+public final class SyntheticMods {
+    public static final int MIXINS_PER_MOD = 4;
+    private static final String MOD_ID = "airships_bench_";
+
+    private SyntheticMods() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path modsDir = Paths.get(args[0]);
+        int mods = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int fillerClasses = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        write(modsDir, mods, fillerClasses);
+        System.out.printf("Wrote %d mods and the probe to %s%n", mods, modsDir);
+    }
+
+    /**
+     * Writes the mods and the probe mod into the folder, replacing the jars of earlier calls.
+     * @param fillerClasses the number of filler classes of the game jar, which the mixins target
+     */
+    public static void write(Path modsDir, int mods, int fillerClasses) throws IOException {
+        Files.createDirectories(modsDir);
+        try (Stream<Path> files = Files.list(modsDir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.getFileName().toString().startsWith(MOD_ID)) {
+                    Files.delete(file);
+                }
+            }
+        }
+
+        for (int i = 0; i < mods; i++) {
+            writeMod(modsDir.resolve(MOD_ID + i + ".jar"), i, fillerClasses);
+        }
+        writeProbe(modsDir.resolve(MOD_ID + "probe.jar"));
+    }
+
+    private static void writeMod(Path jar, int index, int fillerClasses) throws IOException {
+        String id = MOD_ID + index;
+        String pkg = "airships/bench/mod" + index + "/";
+        String init = pkg + "Init";
+
+        List<String> mixins = new ArrayList<>();
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+            add(out, init + ".class", initializer(init));
+            for (int m = 0; m < MIXINS_PER_MOD && m < fillerClasses; m++) {
+                String mixin = "FillerMixin" + m;
+                String target = SyntheticGameJar.fillerName((index * MIXINS_PER_MOD + m) % fillerClasses);
+                add(out, pkg + "mixin/" + mixin + ".class", mixin(pkg + "mixin/" + mixin, target, id));
+                mixins.add(mixin);
+            }
+            add(out, id + ".mixins.json", mixinConfig(pkg.replace('/', '.') + "mixin", mixins));
+
+            String entrypoint = quote(init.replace('/', '.'));
+            add(out, "fabric.mod.json", modJson(id,
+                    "\"main\": [" + entrypoint + "], \"client\": [" + entrypoint + "], \"server\": [" + entrypoint + "]",
+                    "\"mixins\": [" + quote(id + ".mixins.json") + "]"));
+        }
+    }
+
+    private static void writeProbe(Path jar) throws IOException {
+        String probe = Type.getInternalName(LaunchProbe.class);
+        byte[] bytes;
+        try (InputStream in = LaunchProbe.class.getResourceAsStream("/" + probe + ".class")) {
+            if (in == null) throw new IOException("Can't find " + probe);
+            bytes = readAll(in);
+        }
+
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+            add(out, probe + ".class", bytes);
+            String entrypoint = quote(LaunchProbe.class.getName());
+            add(out, "fabric.mod.json", modJson(LaunchProbe.MOD_ID,
+                    "\"client\": [" + entrypoint + "], \"server\": [" + entrypoint + "]", null));
+        }
+    }
+
+    private static byte[] modJson(String id, String entrypoints, String extra) {
+        return ("{\n"
+                + "  \"schemaVersion\": 1,\n"
+                + "  \"id\": " + quote(id) + ",\n"
+                + "  \"version\": \"1.0.0\",\n"
+                + "  \"environment\": \"*\",\n"
+                + "  \"entrypoints\": {" + entrypoints + "}" + (extra != null ? ",\n  " + extra : "") + "\n"
+                + "}\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] mixinConfig(String pkg, List<String> mixins) {
+        List<String> quoted = new ArrayList<>();
+        for (String mixin : mixins) {
+            quoted.add(quote(mixin));
+        }
+        return ("{\n"
+                + "  \"required\": true,\n"
+                + "  \"package\": " + quote(pkg) + ",\n"
+                + "  \"compatibilityLevel\": \"JAVA_8\",\n"
+                + "  \"mixins\": [" + String.join(", ", quoted) + "],\n"
+                + "  \"injectors\": {\"defaultRequire\": 1}\n"
+                + "}\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Implements the {@code main}, {@code client} and {@code server} initializers with empty methods
+     */
+    private static byte[] initializer(String name) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, "java/lang/Object", new String[]{
+                "net/fabricmc/api/ModInitializer", "net/fabricmc/api/ClientModInitializer", "net/fabricmc/api/DedicatedServerModInitializer"});
+        constructor(cw);
+        for (String method : new String[]{"onInitialize", "onInitializeClient", "onInitializeServer"}) {
+            MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, method, "()V", null, null);
+            mv.visitCode();
+            mv.visitInsn(Opcodes.RETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /**
+     * The compiled form of
+     * <pre>
+     * &#64;Mixin(target.class)
+     * public class name {
+     *     &#64;Inject(method = "method0", at = &#64;At("HEAD"))
+     *     private void id$method0(int value, CallbackInfoReturnable&lt;Integer&gt; info) {
+     *     }
+     * }
+     * </pre>
+     */
+    private static byte[] mixin(String name, String target, String id) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, "java/lang/Object", null);
+        // @Mixin and @Inject are retained in the class file only, which makes them invisible annotations
+        AnnotationVisitor annotation = cw.visitAnnotation("Lorg/spongepowered/asm/mixin/Mixin;", false);
+        AnnotationVisitor targets = annotation.visitArray("value");
+        targets.visit(null, Type.getObjectType(target));
+        targets.visitEnd();
+        annotation.visitEnd();
+        constructor(cw);
+
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PRIVATE, id + "$method0",
+                "(ILorg/spongepowered/asm/mixin/injection/callback/CallbackInfoReturnable;)V", null, null);
+        AnnotationVisitor inject = mv.visitAnnotation("Lorg/spongepowered/asm/mixin/injection/Inject;", false);
+        AnnotationVisitor methods = inject.visitArray("method");
+        methods.visit(null, "method0");
+        methods.visitEnd();
+        AnnotationVisitor at = inject.visitArray("at");
+        AnnotationVisitor head = at.visitAnnotation(null, "Lorg/spongepowered/asm/mixin/injection/At;");
+        head.visit("value", "HEAD");
+        head.visitEnd();
+        at.visitEnd();
+        inject.visitEnd();
+        mv.visitCode();
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static void constructor(ClassWriter cw) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    private static void add(JarOutputStream out, String name, byte[] bytes) throws IOException {
+        out.putNextEntry(new JarEntry(name));
+        out.write(bytes);
+        out.closeEntry();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n; (n = in.read(buffer)) > 0; ) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static String quote(String value) {
+        return "\"" + value + "\"";
+    }
+}
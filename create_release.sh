@@ -1,6 +1,9 @@
 mkdir sail
 cp build/libs/AirshipsGameProvider-1.0.0.jar sail
+cp AirshipsFabricInstaller/build/libs/AirshipsFabricInstaller-1.0.0.jar sail
 cp fabric-dependencies sail -r
 cp run.sh sail
 cp run.bat sail
+cp run_server.sh sail
+cp run_server.bat sail
 cp deps.txt sail
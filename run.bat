@@ -1,3 +1,4 @@
 @echo off
-java -Dhttps.protocols=TLSv1.2,TLSv1.1,TLSv1 -XX:+ShowCodeDetailsInExceptionMessages ^
--Dfabric.skipMcProvider=true -Dfabric.side=client @"deps.txt" net.fabricmc.loader.impl.launch.knot.KnotClient
+rem Starts the game with fabric, see art.xeloboyo.airshipsloader.installer.Launcher for the options
+cd /d "%~dp0"
+java -jar AirshipsFabricInstaller-1.0.0.jar %*
@@ -0,0 +1,4 @@
+@echo off
+rem Starts the dedicated server with fabric, see art.xeloboyo.airshipsloader.installer.Launcher for the options
+cd /d "%~dp0"
+java -jar AirshipsFabricInstaller-1.0.0.jar --server %*
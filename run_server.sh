@@ -0,0 +1,5 @@
+#!/bin/sh
+# Starts the dedicated server with fabric: headless, with a small heap and without the client-only libraries.
+# See art.xeloboyo.airshipsloader.installer.Launcher for the options, e.g. '--allLibraries' or '-J-Xmx2g'.
+cd "$(dirname "$0")"
+exec java -jar AirshipsFabricInstaller-1.0.0.jar --server "$@"
@@ -0,0 +1,210 @@
+package art.xeloboyo.airshipsloader.api;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads and decodes files on a thread pool before the game or a mod asks for them.
+ * <br>
+ * The provider preloads the files the game read while it started the last time, which the game's loaders then
+ * get from here instead of the disk. Mods can preload their own files from a {@code preLaunch} entrypoint
+ * and take them in their initializers:
+ * <pre>
+ * AssetPreloader.preload(path, ExampleMod.MODEL_DECODER);
+ * ...
+ * Model model = AssetPreloader.take(path, ExampleMod.MODEL_DECODER);
+ * if (model == null) model = ExampleMod.MODEL_DECODER.decode(Files.readAllBytes(path));
+ * </pre>
+ * Every preloaded file can be taken once, with the same decoder it was preloaded with.
+ * A file whose size or modification time changed since it was read isn't handed out, it has to be read again.
+ * Whatever wasn't taken once the {@code client} (or {@code server}) initializers are done is dropped.
+ * The files read ahead add up to at most a quarter of the maximum heap, the rest is left to the game.
+ */
+public final class AssetPreloader {
+    /** Hands out the bytes as they are */
+    public static final Decoder<byte[]> BYTES = bytes -> bytes;
+    /** Decodes images with {@link ImageIO}, which can decode on several threads at once */
+    public static final Decoder<BufferedImage> IMAGE = bytes -> ImageIO.read(new ByteArrayInputStream(bytes));
+
+    private static final long MAX_BYTES = Runtime.getRuntime().maxMemory() / 4;
+
+    private static final Map<Key, Future<Preloaded>> preloaded = new ConcurrentHashMap<>();
+    private static final AtomicLong bytesRead = new AtomicLong();
+    private static final AtomicInteger taken = new AtomicInteger();
+    /** Guarded by the class lock, created by the first preload */
+    private static ExecutorService executor;
+    /** Guarded by the class lock */
+    private static boolean finished;
+
+    private AssetPreloader() {
+    }
+
+    public static void preload(Path file) {
+        preload(file, BYTES);
+    }
+
+    /**
+     * Starts reading and decoding the file on the pool, does nothing if it is already preloaded with this decoder.
+     */
+    public static synchronized <T> void preload(Path file, Decoder<T> decoder) {
+        Objects.requireNonNull(decoder, "decoder");
+        if (finished) return;
+
+        Key key = new Key(file, decoder);
+        if (preloaded.containsKey(key)) return;
+
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), threadFactory());
+        }
+        preloaded.put(key, executor.submit(() -> {
+            BasicFileAttributes attributes = attributes(key.file);
+            byte[] bytes = attributes != null ? read(key.file, attributes.size()) : null;
+            // Written to while it was read
+            if (bytes == null || bytes.length != attributes.size()) return null;
+            return new Preloaded(attributes, decoder.decode(bytes));
+        }));
+    }
+
+    /**
+     * @return the file's bytes, waiting if they are still being read, or {@code null} if it wasn't preloaded
+     */
+    public static byte[] take(Path file) {
+        return take(file, BYTES);
+    }
+
+    /**
+     * @return the decoded file, waiting if it is still being decoded, or {@code null} if it wasn't preloaded
+     * with the decoder, failed to or changed since. Read it yourself then, to get the error or the new contents.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T take(Path file, Decoder<T> decoder) {
+        Key key = new Key(file, decoder);
+        Future<Preloaded> future = preloaded.remove(key);
+        if (future == null) return null;
+
+        try {
+            Preloaded result = future.get();
+            if (result == null || result.value == null || !result.isCurrent(attributes(key.file))) return null;
+            taken.incrementAndGet();
+            return (T) result.value;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | CancellationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Called by the provider once the initializers are done, drops and cancels whatever wasn't taken.
+     * Files preloaded later are ignored.
+     * @return how many preloaded files were taken
+     */
+    public static int finish() {
+        synchronized (AssetPreloader.class) {
+            finished = true;
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+
+        List<Future<Preloaded>> unused = new ArrayList<>(preloaded.values());
+        preloaded.clear();
+        for (Future<Preloaded> future : unused) {
+            future.cancel(true);
+        }
+        return taken.get();
+    }
+
+    /**
+     * @return the size and modification time of a regular file, {@code null} if it isn't one
+     */
+    private static BasicFileAttributes attributes(Path file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return attributes.isRegularFile() ? attributes : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static byte[] read(Path file, long size) throws IOException {
+        if (bytesRead.addAndGet(size) > MAX_BYTES) {
+            bytesRead.addAndGet(-size);
+            return null;
+        }
+        return Files.readAllBytes(file);
+    }
+
+    private static ThreadFactory threadFactory() {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "Asset Preload-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Turns the bytes of a file into what the game or mod works with, called on one of the pool's threads.
+     * Decoders are told apart by identity, keep them in a constant.
+     */
+    @FunctionalInterface
+    public interface Decoder<T> {
+        T decode(byte[] bytes) throws IOException;
+    }
+
+    /**
+     * A decoded file and the size and modification time it had when it was read.
+     */
+    private static final class Preloaded {
+        private final long size;
+        private final FileTime modified;
+        private final Object value;
+
+        Preloaded(BasicFileAttributes attributes, Object value) {
+            this.size = attributes.size();
+            this.modified = attributes.lastModifiedTime();
+            this.value = value;
+        }
+
+        boolean isCurrent(BasicFileAttributes attributes) {
+            return attributes != null && attributes.size() == size && attributes.lastModifiedTime().equals(modified);
+        }
+    }
+
+    private static final class Key {
+        private final Path file;
+        private final Decoder<?> decoder;
+
+        Key(Path file, Decoder<?> decoder) {
+            this.file = file.toAbsolutePath().normalize();
+            this.decoder = decoder;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return file.equals(other.file) && decoder == other.decoder;
+        }
+
+        @Override
+        public int hashCode() {
+            return file.hashCode() * 31 + System.identityHashCode(decoder);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package art.xeloboyo.airshipsloader.api;
+
+/**
+ * An entrypoint for initialization that doesn't have to finish before the game shows its first frame,
+ * like warming caches or parsing data files.
+ * <br>
+ * Declare it in fabric.mod.json as
+ * <pre>"entrypoints": { "airships:async-init": [ "com.example.ExampleAsyncInit" ] }</pre>
+ * {@link #onInitializeAsync()} is run on a background thread once every {@code main} and {@code client}
+ * (or {@code server}) initializer is done. Mods still wait for the async initializers of the mods they depend on.
+ * <br>
+ * {@link #onInitializeComplete()} is then called on the game's main thread, at the start of a frame,
+ * which is the place to hand the results over to the game.
+ */
+@FunctionalInterface
+public interface AsyncModInitializer {
+    /** The name of the entrypoint in fabric.mod.json */
+    String ENTRYPOINT = "airships:async-init";
+
+    /**
+     * Runs on a background thread, it must not touch the game's state.
+     */
+    void onInitializeAsync();
+
+    /**
+     * Runs on the main thread after {@link #onInitializeAsync()} has returned.
+     * On a dedicated server there are no frames, it is called right after all async initializers are done.
+     */
+    default void onInitializeComplete() {
+    }
+}
@@ -0,0 +1,97 @@
+package art.xeloboyo.airshipsloader.api;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * Calls the {@link TickListener}s from the provider's pre- and post-tick hooks in the game loop.
+ * <br>
+ * The listeners are kept in two flat arrays, one for each hook and only with the listeners that override it,
+ * sorted by priority. They are rebuilt when a listener is added or removed, a tick only walks the array.
+ */
+public final class TickBus {
+    private static final TickListener[] EMPTY = new TickListener[0];
+
+    /** Every registered listener in registration order, guarded by the class lock */
+    private static final List<TickListener> listeners = new ArrayList<>();
+    private static volatile TickListener[] preTick = EMPTY;
+    private static volatile TickListener[] postTick = EMPTY;
+    /** Guarded by the class lock, see {@link #setWrapper(UnaryOperator)} */
+    private static UnaryOperator<TickListener> wrapper;
+
+    private TickBus() {
+    }
+
+    public static synchronized void register(TickListener listener) {
+        if (listener == null) throw new NullPointerException("listener");
+        listeners.add(listener);
+        rebuild();
+    }
+
+    public static synchronized void unregister(TickListener listener) {
+        if (listeners.remove(listener)) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Replaces every listener in the arrays with {@code wrapper.apply(listener)}, e.g. to time them.
+     * The wrapper is applied when the arrays are rebuilt, not every tick.
+     * It has to return the same wrapper for a listener every time or it loses what it measured so far.
+     * @param wrapper the wrapper or {@code null} to call the listeners directly again
+     */
+    public static synchronized void setWrapper(UnaryOperator<TickListener> wrapper) {
+        TickBus.wrapper = wrapper;
+        rebuild();
+    }
+
+    /**
+     * Called by code injected by the provider at the start of every tick.
+     */
+    public static void preTick() {
+        TickListener[] listeners = preTick;
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i].onPreTick();
+        }
+    }
+
+    /**
+     * Called by code injected by the provider at the end of every tick.
+     */
+    public static void postTick() {
+        TickListener[] listeners = postTick;
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i].onPostTick();
+        }
+    }
+
+    private static void rebuild() {
+        List<TickListener> sorted = new ArrayList<>(listeners);
+        // Stable, so equal priorities keep the registration order
+        sorted.sort(Comparator.comparingInt(TickListener::getPriority));
+
+        List<TickListener> pre = new ArrayList<>();
+        List<TickListener> post = new ArrayList<>();
+        for (TickListener listener : sorted) {
+            TickListener called = wrapper != null ? wrapper.apply(listener) : listener;
+            if (overrides(listener, "onPreTick")) pre.add(called);
+            if (overrides(listener, "onPostTick")) post.add(called);
+        }
+        preTick = pre.toArray(EMPTY);
+        postTick = post.toArray(EMPTY);
+    }
+
+    /**
+     * Calling a default method that does nothing would still cost a virtual call every tick.
+     */
+    private static boolean overrides(TickListener listener, String method) {
+        try {
+            return listener.getClass().getMethod(method).getDeclaringClass() != TickListener.class;
+        } catch (NoSuchMethodException e) {
+            // Can't happen, it's declared in the interface
+            return true;
+        }
+    }
+}
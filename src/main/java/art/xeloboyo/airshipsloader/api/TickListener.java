@@ -0,0 +1,42 @@
+package art.xeloboyo.airshipsloader.api;
+
+/**
+ * Per-tick work, without a mixin into the game loop of its own.
+ * <br>
+ * Declare it in fabric.mod.json as
+ * <pre>"entrypoints": { "airships:tick": [ "com.example.ExampleTicker" ] }</pre>
+ * or register it at runtime with {@link TickBus#register(TickListener)}.
+ * Listeners registered through the entrypoint are added once the {@code client} (or {@code server}) initializers are done.
+ * <br>
+ * On the client a tick is a frame: {@link #onPreTick()} runs before the game handles input,
+ * {@link #onPostTick()} after it rendered. Both run on the game's main thread and are called every frame,
+ * so they should not allocate.
+ * <br>
+ * When one JVM hosts several servers ({@code -Dairships.host}) every server calls them from its own main thread.
+ * The calls never overlap, but the ticks of the servers interleave, so state kept from
+ * {@link #onPreTick()} to {@link #onPostTick()} has to be kept per thread.
+ */
+public interface TickListener {
+    /** The name of the entrypoint in fabric.mod.json */
+    String ENTRYPOINT = "airships:tick";
+
+    /**
+     * Only called if the listener overrides it.
+     */
+    default void onPreTick() {
+    }
+
+    /**
+     * Only called if the listener overrides it.
+     */
+    default void onPostTick() {
+    }
+
+    /**
+     * Listeners with a lower priority run first, those with the same priority in the order they were registered.
+     * It is only read when listeners are registered or unregistered, not every tick.
+     */
+    default int getPriority() {
+        return 0;
+    }
+}
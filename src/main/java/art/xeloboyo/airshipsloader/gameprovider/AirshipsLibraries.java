@@ -3,9 +3,21 @@ package art.xeloboyo.airshipsloader.gameprovider;
 import net.fabricmc.api.*;
 import net.fabricmc.loader.impl.game.*;
 
+/**
+ * The libraries the game provider looks for on the class path, each identified by the class files it contains.
+ * The paths are entry names in the jar, e.g. {@code com/zarkonnen/airships/Main.class}, a jar has to contain any one of them.
+ * <br>
+ * Libraries with an {@link EnvType} are only used in that environment.
+ * The client-only ones are what the launcher leaves off the class path of a dedicated server,
+ * see {@code LaunchClassPath#CLIENT_ONLY} in the installer, which has to be kept in sync.
+ */
 public enum AirshipsLibraries implements LibClassifier.LibraryType {
-    AIRSHIPS_CLIENT("com/zarkonnen/airships.Main/class"),
-    AIRSHIPS_SERVER("com/zarkonnen/airships.Server/class");
+    AIRSHIPS_CLIENT(EnvType.CLIENT, "com/zarkonnen/airships/Main.class"),
+    AIRSHIPS_SERVER(EnvType.SERVER, "com/zarkonnen/airships/Server.class"),
+    // LWJGL 2 and 3
+    LWJGL(EnvType.CLIENT, "org/lwjgl/Sys.class", "org/lwjgl/Version.class"),
+    JINPUT(EnvType.CLIENT, "net/java/games/input/Controller.class"),
+    SLICK(EnvType.CLIENT, "org/newdawn/slick/Graphics.class", "org/newdawn/slick/opengl/Texture.class");
 
     private final EnvType envType;
     private final String[] classPaths;
@@ -19,10 +31,31 @@ public enum AirshipsLibraries implements LibClassifier.LibraryType {
     }
 
     AirshipsLibraries(EnvType env, String... paths) {
+        for (String path : paths) {
+            validate(path);
+        }
         classPaths = paths;
         envType = env;
     }
 
+    /**
+     * A malformed path never matches anything, so the library would silently never be found
+     */
+    private void validate(String path) {
+        String className = path.endsWith(".class") ? path.substring(0, path.length() - ".class".length()) : null;
+        if (className == null || className.isEmpty() || className.startsWith("/") || className.endsWith("/")
+                || className.contains(".") || className.contains("\\") || className.contains("//")) {
+            throw new IllegalArgumentException("Malformed path " + path + " of library " + name() + ", expected e.g. com/zarkonnen/airships/Main.class");
+        }
+    }
+
+    /**
+     * @return {@code true} for libraries the dedicated server doesn't need, except for the game itself
+     */
+    public boolean isClientOnly() {
+        return envType == EnvType.CLIENT && this != AIRSHIPS_CLIENT;
+    }
+
     @Override
     public boolean isApplicable(EnvType env){
         return envType == null || envType == env;
@@ -0,0 +1,45 @@
+package art.xeloboyo.airshipsloader.gameprovider;
+
+/**
+ * System properties understood by the Airships game provider.
+ * <br>
+ * This is the counterpart of fabric's own <a href="https://github.com/FabricMC/fabric-loader/blob/6adfe08efeb04c8dde829053e3cc546c01ef8415/src/main/java/net/fabricmc/loader/impl/util/SystemProperties.java">SystemProperties.java</a>,
+ * all of them can be set with {@code -Dname=value} on the java command line.
+ */
+public final class AirshipsSystemProperties {
+    /** Disables the on-disk caches of patched game classes and of what Mixin made of them, every launch transforms the game again */
+    public static final String DISABLE_CLASS_CACHE = "airships.disableClassCache";
+    /** Disables loading the classes of the previous session ahead on background threads */
+    public static final String DISABLE_PREFETCH = "airships.disablePrefetch";
+    /** Disables reading the game's assets ahead on a thread pool, see {@code AssetPreloader} */
+    public static final String DISABLE_ASSET_PRELOAD = "airships.disableAssetPreload";
+    /** Disables the index of the class path Knot looks up the classes and resources it doesn't find in the game and the mods in */
+    public static final String DISABLE_PACKAGE_INDEX = "airships.disablePackageIndex";
+    /** Runs the mod initializers of each stage on a thread pool, ordered by the mods' dependencies */
+    public static final String PARALLEL_MOD_INIT = "airships.parallelModInit";
+    /** Records the startup phases and writes them to the diagnostics directory once the mods are initialized */
+    public static final String STARTUP_TRACE = "airships.startupTrace";
+    /** Disables the watchdog that reports when the game thread stops looping, see {@code StallWatchdog} */
+    public static final String DISABLE_STALL_WATCHDOG = "airships.disableStallWatchdog";
+    /** How long in milliseconds the game thread may take for one loop iteration before the watchdog reports a stall */
+    public static final String STALL_THRESHOLD = "airships.stallThreshold";
+    /** Writes the loader metrics, which are always exposed over JMX, to the diagnostics directory at shutdown */
+    public static final String METRICS_DUMP = "airships.metricsDump";
+    /** Records the classes Knot defines, so the {@code HeapAccounting} MXBean can estimate the heap every mod retains */
+    public static final String HEAP_ACCOUNTING = "airships.heapAccounting";
+    /** The objects the heap accounting visits at most per walk */
+    public static final String HEAP_ACCOUNTING_BUDGET = "airships.heapAccountingBudget";
+    /** Transforms every game class with the patches, access wideners and mixins into a baked jar instead of starting the game */
+    public static final String BAKE = "airships.bake";
+    /** Starts from the baked jar, if it was baked from the same game, loader and mods */
+    public static final String USE_BAKED = "airships.useBaked";
+    /** The host file of host mode, which runs several dedicated servers in one JVM */
+    public static final String HOST = "airships.host";
+    /** The game's save routine as {@code <class>#<save method>#<load method>}, whose saves are then written on a background thread */
+    public static final String ASYNC_SAVES = "airships.asyncSaves";
+    /** The dedicated server's method that runs once per tick as {@code <method><descriptor>}, which then gets the tick hooks */
+    public static final String SERVER_TICK = "airships.serverTick";
+
+    private AirshipsSystemProperties() {
+    }
+}
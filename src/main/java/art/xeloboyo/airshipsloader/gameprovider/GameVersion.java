@@ -30,13 +30,18 @@ public class GameVersion {
      * Revision number. Used for hotfixes. Does not affect server compatibility.
      */
     public final int revision;
+    /**
+     * The version exactly as the game displays it, e.g. '1.2.2'. {@code null} if it is not known.
+     */
+    public final String raw;
 
-    private GameVersion(String type, String modifier, int number, int build, int revision) {
+    private GameVersion(String type, String modifier, int number, int build, int revision, String raw) {
         this.type = type;
         this.modifier = modifier;
         this.number = number;
         this.build = build;
         this.revision = revision;
+        this.raw = raw;
     }
 
     @Override
@@ -47,6 +52,7 @@ public class GameVersion {
                 ", number=" + number +
                 ", build=" + build +
                 ", revision=" + revision +
+                ", raw='" + raw + '\'' +
                 '}';
     }
 
@@ -64,6 +70,7 @@ public class GameVersion {
         private int number = 0;
         private int build = 0;
         private int revision = 0;
+        private String raw = null;
 
         public Builder setType(String type) {
             this.type = type;
@@ -90,8 +97,13 @@ public class GameVersion {
             return this;
         }
 
+        public Builder setRaw(String raw) {
+            this.raw = raw;
+            return this;
+        }
+
         public GameVersion build() {
-            return new GameVersion(type, modifier, number, build, revision);
+            return new GameVersion(type, modifier, number, build, revision, raw);
         }
     }
 }
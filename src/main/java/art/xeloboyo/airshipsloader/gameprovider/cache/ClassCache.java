@@ -0,0 +1,143 @@
+package art.xeloboyo.airshipsloader.gameprovider.cache;
+
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+import java.io.*;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * A content-addressed on-disk cache of the classes patched by the game provider.
+ * <br>
+ * The layout of the cache directory is
+ * <ul>
+ *     <li>{@code objects/<sha1>.class} the class bytes, named after their hash</li>
+ *     <li>{@code <key>.idx} the class names and object hashes for one launch fingerprint</li>
+ * </ul>
+ * Only one index is kept, storing a new one deletes the others and every object they alone referenced.
+ * So as soon as the game jar, the loader or a mod changes the old classes are gone.
+ */
+public final class ClassCache {
+    private static final int MAGIC = 0x41435343; // ACSC
+    private static final int FORMAT_VERSION = 1;
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private final Path dir;
+    private final Path objectDir;
+    private final String key;
+
+    public ClassCache(Path dir, String key) {
+        this.dir = dir;
+        this.objectDir = dir.resolve("objects");
+        this.key = key;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return the cached classes by their fully-qualified name or {@code null} if there is no (valid) entry for the key
+     */
+    public Map<String, byte[]> load() {
+        Path index = dir.resolve(key + INDEX_SUFFIX);
+        if (!Files.isRegularFile(index)) return null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(index)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) return null;
+
+            int count = in.readInt();
+            Map<String, byte[]> classes = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                String hash = in.readUTF();
+                byte[] data = Files.readAllBytes(objectDir.resolve(hash + ".class"));
+                if (!hash.equals(hash(data))) {
+                    Log.warn(LogCategory.GAME_PATCH, "Class cache entry %s for %s is corrupt, ignoring the cache", hash, name);
+                    return null;
+                }
+                classes.put(name, data);
+            }
+            return classes;
+        } catch (IOException e) {
+            Log.warn(LogCategory.GAME_PATCH, "Failed to read the class cache " + index, e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the classes under the key and drops every other key.
+     * Failing to write the cache is not fatal, the next launch will simply patch again.
+     */
+    public void store(Map<String, byte[]> classes) {
+        try {
+            Files.createDirectories(objectDir);
+
+            Set<String> referenced = new HashSet<>();
+            ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(indexBytes)) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(classes.size());
+                for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                    String hash = hash(entry.getValue());
+                    Path object = objectDir.resolve(hash + ".class");
+                    if (!Files.exists(object)) {
+                        writeAtomic(object, entry.getValue());
+                    }
+                    referenced.add(object.getFileName().toString());
+                    out.writeUTF(entry.getKey());
+                    out.writeUTF(hash);
+                }
+            }
+
+            Path index = dir.resolve(key + INDEX_SUFFIX);
+            writeAtomic(index, indexBytes.toByteArray());
+            prune(index, referenced);
+        } catch (IOException e) {
+            Log.warn(LogCategory.GAME_PATCH, "Failed to write the class cache " + dir, e);
+        }
+    }
+
+    /**
+     * Deletes all other indices and the objects not referenced by the current one.
+     */
+    private void prune(Path keep, Set<String> referenced) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.getFileName().toString().endsWith(INDEX_SUFFIX) && !file.equals(keep)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+        try (Stream<Path> files = Files.list(objectDir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (!referenced.contains(file.getFileName().toString())) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private static void writeAtomic(Path target, byte[] data) throws IOException {
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.write(tmp, data);
+        try {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    static String hash(byte[] data) {
+        try {
+            return Fingerprint.toHex(MessageDigest.getInstance("SHA-1").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
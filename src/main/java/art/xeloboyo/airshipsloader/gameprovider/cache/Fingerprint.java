@@ -0,0 +1,91 @@
+package art.xeloboyo.airshipsloader.gameprovider.cache;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.stream.Stream;
+
+/**
+ * A cheap hash over a set of files and strings, used as the key of the on-disk caches.
+ * <br>
+ * Files are not read, instead their path, size and last modified time are hashed.
+ * That is the same information build tools use to decide if something is up-to-date
+ * and it is good enough to notice a game update or a mod being added, removed or replaced.
+ */
+public final class Fingerprint {
+    private final MessageDigest digest;
+
+    public Fingerprint() {
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM has to support SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public Fingerprint add(String value) {
+        digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        return this;
+    }
+
+    public Fingerprint add(long value) {
+        for (int i = 0; i < 8; i++) {
+            digest.update((byte) (value >>> (i * 8)));
+        }
+        return this;
+    }
+
+    /**
+     * Adds the path, size and mtime of the file. Missing files are hashed as such.
+     */
+    public Fingerprint add(Path file) {
+        if (file == null) return add("<none>");
+
+        Path path = file.toAbsolutePath().normalize();
+        add(path.toString());
+        try {
+            add(Files.size(path));
+            add(Files.getLastModifiedTime(path).toMillis());
+        } catch (IOException e) {
+            add(-1L);
+        }
+        return this;
+    }
+
+    /**
+     * Adds every jar in the directory, sorted by name so the order of the directory listing does not matter.
+     */
+    public Fingerprint addJars(Path dir) {
+        if (dir == null || !Files.isDirectory(dir)) return add("<no dir>");
+
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(file -> file.getFileName().toString().endsWith(".jar"))
+                    .sorted()
+                    .forEach(this::add);
+        } catch (IOException e) {
+            add("<unreadable dir>");
+        }
+        return this;
+    }
+
+    /**
+     * Finishes the hash. The fingerprint must not be used afterwards.
+     */
+    public String build() {
+        return toHex(digest.digest());
+    }
+
+    public static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >>> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
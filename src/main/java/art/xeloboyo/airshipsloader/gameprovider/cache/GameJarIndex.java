@@ -0,0 +1,474 @@
+package art.xeloboyo.airshipsloader.gameprovider.cache;
+
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A compact binary index of a game jar, stored next to it as {@code <jar>.index} and read through a {@link MappedByteBuffer}.
+ * <br>
+ * For every entry of the jar it holds the name and where the data is, so entries can be read straight from the
+ * (also mapped) jar without going through the zip central directory again.
+ * Class entries additionally get their method names/descriptors and string constants,
+ * which is everything the provider needs to find the game, its version and its patch targets.
+ * <br>
+ * The index is rebuilt when the jar's size and mtime changed and the hash of its central directory does not match either.
+ * If it can't be written next to the jar it is kept in memory for this launch.
+ */
+public final class GameJarIndex {
+    private static final int MAGIC = 0x41474a49; // AGJI
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 40;
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int CEN_SIGNATURE = 0x02014b50;
+    private static final int LOC_SIGNATURE = 0x04034b50;
+
+    private static final Map<Path, GameJarIndex> INDICES = new ConcurrentHashMap<>();
+
+    private final Path jar;
+    private final ByteBuffer index;
+    private final ByteBuffer jarData;
+    private final int slots;
+
+    private GameJarIndex(Path jar, ByteBuffer index, ByteBuffer jarData) {
+        this.jar = jar;
+        this.index = index;
+        this.jarData = jarData;
+        this.slots = index.getInt(36);
+    }
+
+    /**
+     * Returns the index of the jar, loading or building it on first use.
+     * The same instance is shared by everything that looks at the jar.
+     */
+    public static GameJarIndex get(Path jar) throws IOException {
+        Path path = jar.toAbsolutePath().normalize();
+        GameJarIndex index = INDICES.get(path);
+        if (index == null) {
+            index = open(path);
+            GameJarIndex prev = INDICES.putIfAbsent(path, index);
+            if (prev != null) index = prev;
+        }
+        return index;
+    }
+
+    private static GameJarIndex open(Path jar) throws IOException {
+        ByteBuffer jarData;
+        try (FileChannel channel = FileChannel.open(jar, StandardOpenOption.READ)) {
+            jarData = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        long size = jarData.capacity();
+        long mtime = Files.getLastModifiedTime(jar).toMillis();
+        ByteBuffer centralDirectory = findCentralDirectory(jarData);
+        Path indexFile = jar.resolveSibling(jar.getFileName() + ".index");
+
+        ByteBuffer header = readHeader(indexFile);
+        if (header != null && header.getInt(0) == MAGIC && header.getInt(4) == FORMAT_VERSION) {
+            boolean stampMatches = header.getLong(8) == size && header.getLong(16) == mtime;
+            if (stampMatches || header.getLong(24) == crc(centralDirectory)) {
+                Log.debug(LogCategory.GAME_PROVIDER, "Using game jar index %s", indexFile);
+                return new GameJarIndex(jar, map(indexFile), jarData);
+            }
+        }
+
+        long start = System.nanoTime();
+        byte[] built = build(jar, jarData, centralDirectory, size, mtime);
+        Log.debug(LogCategory.GAME_PROVIDER, "Indexed %s in %d ms", jar, (System.nanoTime() - start) / 1_000_000);
+
+        Path tmp = null;
+        try {
+            // Unique, two launches may index the jar at the same time
+            tmp = Files.createTempFile(indexFile.toAbsolutePath().getParent(), indexFile.getFileName().toString(), ".tmp");
+            Files.write(tmp, built);
+            try {
+                Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return new GameJarIndex(jar, map(indexFile), jarData);
+        } catch (IOException e) {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ignored) {
+                    // Left for the next launch that indexes the jar to ignore
+                }
+            }
+            Log.debug(LogCategory.GAME_PROVIDER, "Can't store the game jar index next to %s, keeping it in memory: %s", jar, e);
+            return new GameJarIndex(jar, ByteBuffer.wrap(built), jarData);
+        }
+    }
+
+    private static ByteBuffer readHeader(Path indexFile) {
+        if (!Files.isRegularFile(indexFile)) return null;
+
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) ;
+            return header.hasRemaining() ? null : header;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static ByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    public Path getJar() {
+        return jar;
+    }
+
+    /**
+     * @param entryName an entry name as it appears in the jar, e.g. {@code com/zarkonnen/airships/Main.class}
+     */
+    public boolean contains(String entryName) {
+        return find(entryName) >= 0;
+    }
+
+    /**
+     * @param className a fully-qualified class name, e.g. {@code com.zarkonnen.airships.Main}
+     */
+    public boolean containsClass(String className) {
+        return contains(toEntryName(className));
+    }
+
+    /**
+     * Reads an entry directly from the jar.
+     * @return the uncompressed data or {@code null} if there is no such entry
+     */
+    public byte[] getBytes(String entryName) throws IOException {
+        int record = find(entryName);
+        if (record < 0) return null;
+
+        return readEntry(jar, jarData, entryName,
+                index.getInt(record + 4), index.getInt(record + 8), index.getInt(record + 12), index.getShort(record + 16));
+    }
+
+    private static byte[] readEntry(Path jar, ByteBuffer jarData, String entryName,
+                                    int localOffset, int compressedSize, int size, int method) throws IOException {
+        if (jarData.getInt(localOffset) != LOC_SIGNATURE) {
+            throw new IOException("Invalid local header for " + entryName + " in " + jar);
+        }
+        int dataOffset = localOffset + 30 + (jarData.getShort(localOffset + 26) & 0xFFFF) + (jarData.getShort(localOffset + 28) & 0xFFFF);
+
+        ByteBuffer data = jarData.duplicate();
+        data.position(dataOffset);
+        data.limit(dataOffset + compressedSize);
+        byte[] compressed = new byte[compressedSize];
+        data.get(compressed);
+
+        if (method == 0) return compressed;
+        if (method != 8) throw new IOException("Unsupported compression method " + method + " for " + entryName + " in " + jar);
+
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            byte[] out = new byte[size];
+            int read = 0;
+            while (read < size && !inflater.finished()) {
+                int n = inflater.inflate(out, read, size - read);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                read += n;
+            }
+            if (read != size) throw new IOException("Truncated entry " + entryName + " in " + jar);
+            return out;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt entry " + entryName + " in " + jar, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * @return the bytes of the class or {@code null} if the jar does not contain it
+     */
+    public byte[] getClassBytes(String className) throws IOException {
+        return getBytes(toEntryName(className));
+    }
+
+    /**
+     * @return the methods of the class as {@code name + desc}, e.g. {@code "<init>()V"}, empty if the jar does not contain it
+     */
+    public List<String> getMethods(String className) {
+        int record = find(toEntryName(className));
+        if (record < 0) return Collections.emptyList();
+
+        ByteBuffer buf = index.duplicate();
+        buf.position(skipName(record));
+        int count = buf.getInt();
+        List<String> methods = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            methods.add(readString(buf) + readString(buf));
+        }
+        return methods;
+    }
+
+    /**
+     * @return the string constants of the class in constant pool order, empty if the jar does not contain it
+     */
+    public List<String> getStringConstants(String className) {
+        int record = find(toEntryName(className));
+        if (record < 0) return Collections.emptyList();
+
+        ByteBuffer buf = index.duplicate();
+        buf.position(skipName(record));
+        int methodCount = buf.getInt();
+        for (int i = 0; i < methodCount * 2; i++) {
+            skipString(buf);
+        }
+        int count = buf.getInt();
+        List<String> strings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            strings.add(readString(buf));
+        }
+        return strings;
+    }
+
+    /**
+     * @return the fully-qualified names of all classes in the jar
+     */
+    public List<String> getClassNames() {
+        List<String> names = new ArrayList<>(index.getInt(32));
+        ByteBuffer buf = index.duplicate();
+        buf.position(HEADER_SIZE + slots * 4);
+        while (buf.hasRemaining()) {
+            buf.position(buf.position() + 18);
+            String name = readString(buf);
+            int methodCount = buf.getInt();
+            for (int i = 0; i < methodCount * 2; i++) {
+                skipString(buf);
+            }
+            int stringCount = buf.getInt();
+            for (int i = 0; i < stringCount; i++) {
+                skipString(buf);
+            }
+            if (name.endsWith(".class")) {
+                names.add(name.substring(0, name.length() - 6).replace('/', '.'));
+            }
+        }
+        return names;
+    }
+
+    private int find(String entryName) {
+        byte[] name = entryName.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(name, 0, name.length);
+        int mask = slots - 1;
+
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int record = index.getInt(HEADER_SIZE + slot * 4);
+            if (record == 0) return -1;
+            if (index.getInt(record) == hash && nameEquals(record + 18, name)) return record;
+        }
+    }
+
+    private boolean nameEquals(int pos, byte[] name) {
+        if ((index.getShort(pos) & 0xFFFF) != name.length) return false;
+        for (int i = 0; i < name.length; i++) {
+            if (index.get(pos + 2 + i) != name[i]) return false;
+        }
+        return true;
+    }
+
+    private int skipName(int record) {
+        return record + 20 + (index.getShort(record + 18) & 0xFFFF);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getShort() & 0xFFFF];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void skipString(ByteBuffer buf) {
+        int len = buf.getShort() & 0xFFFF;
+        buf.position(buf.position() + len);
+    }
+
+    private static String toEntryName(String className) {
+        return className.replace('.', '/') + ".class";
+    }
+
+    private static ByteBuffer findCentralDirectory(ByteBuffer jarData) throws IOException {
+        // The end of central directory record is at least 22 bytes and followed by a comment of at most 64k
+        int min = Math.max(0, jarData.capacity() - 22 - 0xFFFF);
+        for (int pos = jarData.capacity() - 22; pos >= min; pos--) {
+            if (jarData.getInt(pos) != EOCD_SIGNATURE) continue;
+
+            long size = jarData.getInt(pos + 12) & 0xFFFFFFFFL;
+            long offset = jarData.getInt(pos + 16) & 0xFFFFFFFFL;
+            if (offset == 0xFFFFFFFFL || size == 0xFFFFFFFFL) {
+                throw new IOException("zip64 jars are not supported");
+            }
+            ByteBuffer cd = jarData.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            cd.position((int) offset);
+            cd.limit((int) (offset + size));
+            return cd.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+        throw new IOException("Not a zip file");
+    }
+
+    private static long crc(ByteBuffer centralDirectory) {
+        CRC32 crc = new CRC32();
+        crc.update(centralDirectory.duplicate());
+        return crc.getValue();
+    }
+
+    private static byte[] build(Path jar, ByteBuffer jarData, ByteBuffer cd, long size, long mtime) throws IOException {
+        List<byte[]> names = new ArrayList<>();
+        List<int[]> locations = new ArrayList<>();
+
+        for (int pos = 0; pos + 46 <= cd.limit(); ) {
+            if (cd.getInt(pos) != CEN_SIGNATURE) throw new IOException("Invalid central directory");
+
+            int method = cd.getShort(pos + 10) & 0xFFFF;
+            int compressedSize = cd.getInt(pos + 20);
+            int uncompressedSize = cd.getInt(pos + 24);
+            int nameLen = cd.getShort(pos + 28) & 0xFFFF;
+            int extraLen = cd.getShort(pos + 30) & 0xFFFF;
+            int commentLen = cd.getShort(pos + 32) & 0xFFFF;
+            int localOffset = cd.getInt(pos + 42);
+
+            byte[] name = new byte[nameLen];
+            for (int i = 0; i < nameLen; i++) {
+                name[i] = cd.get(pos + 46 + i);
+            }
+            // Directories don't need to be looked up
+            if (nameLen > 0 && name[nameLen - 1] != '/') {
+                names.add(name);
+                locations.add(new int[]{ localOffset, compressedSize, uncompressedSize, method });
+            }
+            pos += 46 + nameLen + extraLen + commentLen;
+        }
+
+        int slots = Integer.highestOneBit(Math.max(16, names.size() * 2) - 1) << 1;
+        int[] table = new int[slots];
+
+        // Records are written first so their offsets are known, the header and table are put in front of them afterwards
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+        DataOutputStream records = new DataOutputStream(recordBytes);
+        int base = HEADER_SIZE + slots * 4;
+
+        for (int i = 0; i < names.size(); i++) {
+            byte[] name = names.get(i);
+            int[] loc = locations.get(i);
+            int hash = hash(name, 0, name.length);
+
+            int slot = hash & (slots - 1);
+            while (table[slot] != 0) slot = (slot + 1) & (slots - 1);
+            table[slot] = base + records.size();
+
+            records.writeInt(hash);
+            records.writeInt(loc[0]);
+            records.writeInt(loc[1]);
+            records.writeInt(loc[2]);
+            records.writeShort(loc[3]);
+            records.writeShort(name.length);
+            records.write(name);
+
+            String entryName = new String(name, StandardCharsets.UTF_8);
+            if (entryName.endsWith(".class")) {
+                writeClassInfo(records, readEntry(jar, jarData, entryName, loc[0], loc[1], loc[2], loc[3]), entryName);
+            } else {
+                records.writeInt(0);
+                records.writeInt(0);
+            }
+        }
+        records.flush();
+
+        ByteBuffer out = ByteBuffer.allocate(base + recordBytes.size());
+        out.putInt(MAGIC);
+        out.putInt(FORMAT_VERSION);
+        out.putLong(size);
+        out.putLong(mtime);
+        out.putLong(crc(cd));
+        out.putInt(names.size());
+        out.putInt(slots);
+        for (int record : table) {
+            out.putInt(record);
+        }
+        out.put(recordBytes.toByteArray());
+        return out.array();
+    }
+
+    /**
+     * Writes the method table and the string constants, read from the raw class bytes without building a tree.
+     */
+    private static void writeClassInfo(DataOutputStream out, byte[] bytes, String entryName) throws IOException {
+        List<String> methods = new ArrayList<>();
+        List<String> strings = new ArrayList<>();
+        try {
+            ClassReader reader = new ClassReader(bytes);
+            reader.accept(new ClassVisitor(Opcodes.ASM9) {
+                @Override
+                public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                    methods.add(name);
+                    methods.add(descriptor);
+                    return null;
+                }
+            }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+
+            char[] buf = new char[reader.getMaxStringLength()];
+            for (int i = 1; i < reader.getItemCount(); i++) {
+                int offset = reader.getItem(i);
+                // CONSTANT_String_info, its data is the index of the Utf8 constant which readUTF8 resolves
+                if (offset > 0 && bytes[offset - 1] == 8) {
+                    strings.add(reader.readUTF8(offset, buf));
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.debug(LogCategory.GAME_PROVIDER, "Can't index the class %s: %s", entryName, e);
+        }
+
+        out.writeInt(methods.size() / 2);
+        for (String method : methods) {
+            writeString(out, method);
+        }
+        int count = 0;
+        for (String string : strings) {
+            if (string.getBytes(StandardCharsets.UTF_8).length <= 0xFFFF) count++;
+        }
+        out.writeInt(count);
+        for (String string : strings) {
+            if (string.getBytes(StandardCharsets.UTF_8).length <= 0xFFFF) writeString(out, string);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    /** FNV-1a, it only has to be stable between builds of the index */
+    private static int hash(byte[] bytes, int off, int len) {
+        int hash = 0x811c9dc5;
+        for (int i = off; i < off + len; i++) {
+            hash ^= bytes[i] & 0xFF;
+            hash *= 0x01000193;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,173 @@
+package art.xeloboyo.airshipsloader.gameprovider.cache;
+
+import net.fabricmc.api.EnvType;
+import net.fabricmc.loader.impl.game.LibClassifier;
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipFile;
+
+/**
+ * Remembers which libraries (see {@link LibClassifier.LibraryType}) every jar on the class path contains,
+ * so {@code locateGame} only has to open the jars that changed since the last launch.
+ * <br>
+ * A jar is looked up by its path and only trusted if its size and mtime are unchanged.
+ * The cache is also dropped when the classes that identify the libraries change.
+ * Jars that aren't cached are opened in parallel.
+ */
+public final class LibraryCache {
+    private static final String LIBRARIES_KEY = "#libraries";
+
+    private final Path file;
+
+    /**
+     * @param file e.g. {@code <gameDir>/.fabric/airships/libraries.properties}
+     */
+    public LibraryCache(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * @return the libraries each jar contains, only those applicable to {@code env}, in the order of {@code jars}
+     */
+    public <L extends Enum<L> & LibClassifier.LibraryType> Map<Path, Set<L>> classify(Class<L> libraryType, EnvType env, Collection<Path> jars) {
+        L[] libraries = libraryType.getEnumConstants();
+        Properties cache = load(fingerprint(libraries));
+
+        Map<Path, String> stamps = new LinkedHashMap<>();
+        Map<Path, String> classified = new ConcurrentHashMap<>();
+        List<Path> misses = new ArrayList<>();
+        for (Path jar : jars) {
+            String stamp = stamp(jar);
+            if (stamp == null) continue;
+
+            stamps.put(jar, stamp);
+            String cached = cache.getProperty(jar.toString());
+            if (cached != null && cached.startsWith(stamp + " ")) {
+                classified.put(jar, cached.substring(stamp.length() + 1));
+            } else {
+                misses.add(jar);
+            }
+        }
+
+        misses.parallelStream().forEach(jar -> classified.put(jar, classify(jar, libraries)));
+        Log.debug(LogCategory.LIB_CLASSIFICATION, "Classified %d of %d jars, the rest was cached", misses.size(), stamps.size());
+
+        Map<Path, Set<L>> result = new LinkedHashMap<>();
+        Properties updated = new Properties();
+        updated.setProperty(LIBRARIES_KEY, fingerprint(libraries));
+        for (Map.Entry<Path, String> entry : stamps.entrySet()) {
+            String names = classified.get(entry.getKey());
+            updated.setProperty(entry.getKey().toString(), entry.getValue() + " " + names);
+
+            Set<L> contained = EnumSet.noneOf(libraryType);
+            for (String name : names.split(",")) {
+                if (name.isEmpty()) continue;
+                L library = Enum.valueOf(libraryType, name);
+                if (library.isApplicable(env)) {
+                    contained.add(library);
+                }
+            }
+            result.put(entry.getKey(), contained);
+        }
+
+        if (!misses.isEmpty() || !updated.equals(cache)) {
+            store(updated);
+        }
+        return result;
+    }
+
+    /**
+     * Checks every library regardless of the environment, so the cache works for client and server launches.
+     * A jar that can't be read contains nothing and is looked at again the next launch.
+     */
+    private static <L extends Enum<L> & LibClassifier.LibraryType> String classify(Path jar, L[] libraries) {
+        StringJoiner names = new StringJoiner(",");
+        try {
+            if (Files.isDirectory(jar)) {
+                for (L library : libraries) {
+                    for (String path : library.getPaths()) {
+                        if (Files.exists(jar.resolve(path))) {
+                            names.add(library.name());
+                            break;
+                        }
+                    }
+                }
+            } else {
+                try (ZipFile zipFile = new ZipFile(jar.toFile())) {
+                    for (L library : libraries) {
+                        for (String path : library.getPaths()) {
+                            if (zipFile.getEntry(path) != null) {
+                                names.add(library.name());
+                                break;
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.warn(LogCategory.LIB_CLASSIFICATION, "Failed to read " + jar, e);
+            return "";
+        }
+        return names.toString();
+    }
+
+    /**
+     * @return {@code <size>:<mtime>} or {@code null} if the path doesn't exist
+     */
+    private static String stamp(Path jar) {
+        try {
+            if (Files.isDirectory(jar)) {
+                // The contents of a directory can change without touching it, always check again
+                return "dir:" + System.nanoTime();
+            }
+            return Files.size(jar) + ":" + Files.getLastModifiedTime(jar).toMillis();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static <L extends Enum<L> & LibClassifier.LibraryType> String fingerprint(L[] libraries) {
+        Fingerprint fingerprint = new Fingerprint();
+        for (L library : libraries) {
+            fingerprint.add(library.name());
+            for (String path : library.getPaths()) {
+                fingerprint.add(path);
+            }
+        }
+        return fingerprint.build();
+    }
+
+    private Properties load(String fingerprint) {
+        Properties cache = new Properties();
+        if (Files.isRegularFile(file)) {
+            try (InputStream is = Files.newInputStream(file)) {
+                cache.load(is);
+            } catch (IOException e) {
+                Log.debug(LogCategory.LIB_CLASSIFICATION, "Can't read the library cache %s: %s", file, e);
+            }
+        }
+        if (!fingerprint.equals(cache.getProperty(LIBRARIES_KEY))) {
+            cache.clear();
+        }
+        return cache;
+    }
+
+    private void store(Properties cache) {
+        try {
+            Files.createDirectories(file.getParent());
+            try (OutputStream os = Files.newOutputStream(file)) {
+                cache.store(os, "Libraries by jar, <size>:<mtime> <libraries>");
+            }
+        } catch (IOException e) {
+            Log.debug(LogCategory.LIB_CLASSIFICATION, "Can't write the library cache %s: %s", file, e);
+        }
+    }
+}
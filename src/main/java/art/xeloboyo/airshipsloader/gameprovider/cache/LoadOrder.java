@@ -0,0 +1,111 @@
+package art.xeloboyo.airshipsloader.gameprovider.cache;
+
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Stream;
+
+/**
+ * The order in which the classes were loaded through Knot, stored as {@code <key>.txt} with one class name per line.
+ * The {@code GameAssets} record the files the game reads the same way.
+ * <br>
+ * A session starts with the order of the previous one and appends every name that wasn't in it yet,
+ * so classes that were loaded early by the {@code ClassPrefetcher} keep their place.
+ * Like the {@link ClassCache} only one key is kept, as soon as the game jar, the loader or a mod changes it starts over.
+ */
+public final class LoadOrder {
+    private static final String SUFFIX = ".txt";
+
+    private final Path dir;
+    private final String key;
+    private final Set<String> seen = ConcurrentHashMap.newKeySet();
+    private final Queue<String> order = new ConcurrentLinkedQueue<>();
+    private int previousSize;
+
+    public LoadOrder(Path dir, String key) {
+        this.dir = dir;
+        this.key = key;
+    }
+
+    /**
+     * Reads the order recorded by the previous session and continues recording from there.
+     * @return the names in load order, empty if nothing was recorded for the key
+     */
+    public List<String> load() {
+        Path file = dir.resolve(key + SUFFIX);
+        if (!Files.isRegularFile(file)) return Collections.emptyList();
+
+        List<String> names;
+        try {
+            names = Files.readAllLines(file, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            Log.warn(LogCategory.GAME_PROVIDER, "Failed to read the load order " + file, e);
+            return Collections.emptyList();
+        }
+
+        List<String> loaded = new ArrayList<>(names.size());
+        for (String name : names) {
+            if (!name.isEmpty() && record(name)) {
+                loaded.add(name);
+            }
+        }
+        previousSize = loaded.size();
+        return loaded;
+    }
+
+    /**
+     * Called for every class Knot loads (or file the game reads), from any thread.
+     * @return {@code true} if the name wasn't recorded before
+     */
+    public boolean record(String name) {
+        if (seen.add(name)) {
+            order.add(name);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Writes the order if this session loaded something the previous one didn't and drops every other key.
+     * Failing to write it is not fatal, the next launch just doesn't preload as much.
+     */
+    public void store() {
+        List<String> names = new ArrayList<>(order);
+        if (names.size() == previousSize) return;
+
+        Path file = dir.resolve(key + SUFFIX);
+        try {
+            Files.createDirectories(dir);
+            Path tmp = Files.createTempFile(dir, key, ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for (String name : names) {
+                    writer.write(name);
+                    writer.newLine();
+                }
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path other : (Iterable<Path>) files::iterator) {
+                    if (other.getFileName().toString().endsWith(SUFFIX) && !other.equals(file)) {
+                        Files.deleteIfExists(other);
+                    }
+                }
+            }
+            Log.debug(LogCategory.GAME_PROVIDER, "Recorded the load order of %d names in %s", names.size(), file);
+        } catch (IOException e) {
+            Log.warn(LogCategory.GAME_PROVIDER, "Failed to write the load order " + file, e);
+        }
+    }
+}
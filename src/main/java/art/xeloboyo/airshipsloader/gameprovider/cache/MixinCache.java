@@ -0,0 +1,181 @@
+package art.xeloboyo.airshipsloader.gameprovider.cache;
+
+import art.xeloboyo.airshipsloader.gameprovider.diagnostics.LoaderMetrics;
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+import java.io.*;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * The classes as Knot's Mixin transformer left them, stored as {@code <key>.bin}, so warm starts don't run Mixin again.
+ * <br>
+ * Knot runs every class through the game transformer, fabric's access widener and environment stripping and then Mixin.
+ * {@code KnotMixins} wraps the last step: {@link #get(String, byte[])} answers for a class that reaches Mixin with the same
+ * bytes as when it was recorded, compared by SHA-256, and {@link #record(String, byte[], byte[])} keeps what Mixin made of
+ * the others. Classes Mixin didn't change are stored without their bytes, the ones it generated without an input.
+ * <br>
+ * Mixin doesn't see the cached classes at all. The targets of mixin configs with a plugin always go through Mixin,
+ * so the plugins' {@code preApply} and {@code postApply} still run for every class they'd be called for.
+ * Like the {@link ClassCache} only one key is kept, the provider's launch fingerprint with the mixin configs and the mods' versions,
+ * so the entries are gone as soon as the game jar, the loader, a mod or its mixins change.
+ * What a session recorded is written once the mods are initialized and again at shutdown, together with the entries it was loaded with.
+ */
+public final class MixinCache {
+    private static final int MAGIC = 0x41434d43; // ACMC
+    private static final int FORMAT_VERSION = 2;
+    private static final String SUFFIX = ".bin";
+    /** The stored length of classes Mixin didn't change */
+    private static final int UNCHANGED = -1;
+    /** The input hash of classes Mixin generated */
+    private static final byte[] GENERATED = new byte[0];
+
+    private final Path dir;
+    private final String key;
+    /** The classes that always go through Mixin */
+    private final Set<String> uncached;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile boolean dirty;
+
+    /**
+     * @param uncached the fully-qualified names of the classes that always go through Mixin
+     */
+    public MixinCache(Path dir, String key, Set<String> uncached) {
+        this.dir = dir;
+        this.key = key;
+        this.uncached = uncached;
+    }
+
+    /**
+     * Reads the entries of the previous sessions, a missing or broken file leaves the cache empty.
+     */
+    public void load() {
+        Path file = dir.resolve(key + SUFFIX);
+        if (!Files.isRegularFile(file)) return;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) return;
+
+            int count = in.readInt();
+            long retained = 0;
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                byte[] hash = new byte[in.readUnsignedByte()];
+                in.readFully(hash);
+                int length = in.readInt();
+                byte[] output = null;
+                if (length != UNCHANGED) {
+                    output = new byte[length];
+                    in.readFully(output);
+                    retained += length;
+                }
+                entries.put(name, new Entry(hash, output));
+            }
+            LoaderMetrics.retained(retained);
+            Log.debug(LogCategory.GAME_PROVIDER, "Loaded %d classes from the Mixin cache %s", count, key);
+        } catch (IOException e) {
+            entries.clear();
+            Log.warn(LogCategory.GAME_PROVIDER, "Failed to read the Mixin cache " + file + ", running Mixin on every class", e);
+        }
+    }
+
+    /**
+     * @param input what Knot hands Mixin, {@code null} for a class Mixin is asked to generate
+     * @return what Mixin made of the same input before, the input itself if it didn't change it,
+     * {@code null} if the class has to go through Mixin
+     */
+    public byte[] get(String className, byte[] input) {
+        if (uncached.contains(className)) return null;
+        Entry entry = entries.get(className);
+        if (entry == null || !Arrays.equals(entry.hash, hash(input))) return null;
+        if (entry.output == null) return input;
+        return entry.output;
+    }
+
+    /**
+     * Called with what Mixin returned for a class {@link #get(String, byte[])} didn't know, from any thread.
+     */
+    public void record(String className, byte[] input, byte[] output) {
+        if (output == null || uncached.contains(className)) return;
+
+        Entry entry = new Entry(hash(input), output == input ? null : output);
+        if (entries.put(className, entry) == null && entry.output != null) {
+            LoaderMetrics.retained(entry.output.length);
+        }
+        dirty = true;
+    }
+
+    /**
+     * Writes the entries if this session recorded any since the last time and drops every other key.
+     * Failing to write them is not fatal, the next launch just runs Mixin again.
+     */
+    public synchronized void store() {
+        if (!dirty) return;
+        // What is recorded while writing is written the next time
+        dirty = false;
+
+        Path file = dir.resolve(key + SUFFIX);
+        try {
+            Files.createDirectories(dir);
+            List<Map.Entry<String, Entry>> snapshot = new ArrayList<>(entries.entrySet());
+            Path tmp = Files.createTempFile(dir, key, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<String, Entry> entry : snapshot) {
+                    out.writeUTF(entry.getKey());
+                    byte[] hash = entry.getValue().hash;
+                    out.writeByte(hash.length);
+                    out.write(hash);
+                    byte[] output = entry.getValue().output;
+                    out.writeInt(output != null ? output.length : UNCHANGED);
+                    if (output != null) out.write(output);
+                }
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path other : (Iterable<Path>) files::iterator) {
+                    if (other.getFileName().toString().endsWith(SUFFIX) && !other.equals(file)) {
+                        Files.deleteIfExists(other);
+                    }
+                }
+            }
+            Log.debug(LogCategory.GAME_PROVIDER, "Stored %d classes in the Mixin cache %s", snapshot.size(), file);
+        } catch (IOException e) {
+            dirty = true;
+            Log.warn(LogCategory.GAME_PROVIDER, "Failed to write the Mixin cache " + file, e);
+        }
+    }
+
+    private static byte[] hash(byte[] input) {
+        if (input == null) return GENERATED;
+
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(input);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Entry {
+        private final byte[] hash;
+        /** {@code null} if Mixin didn't change the class */
+        private final byte[] output;
+
+        Entry(byte[] hash, byte[] output) {
+            this.hash = hash;
+            this.output = output;
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package art.xeloboyo.airshipsloader.gameprovider.cache;
+
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+/**
+ * Which jars of the class path contain files in which directory (for classes: package).
+ * <br>
+ * A lookup only has to look into the jars that have the name's directory, in class path order,
+ * and a name whose directory no jar has can't be on the class path at all.
+ * The jars named by a jar's {@code Class-Path} manifest attribute follow it, like the JDK searches them.
+ * <br>
+ * Like the {@link LibraryCache} every jar is cached by path and only trusted if its size and mtime are unchanged,
+ * the jars that changed are read in parallel.
+ */
+public final class PackageIndex {
+    private static final int[] NONE = new int[0];
+    private static final String FIELD_SEPARATOR = "\t";
+
+    /** In lookup order */
+    private final List<Path> jars;
+    private final Map<String, int[]> directories;
+    /** Jars with versioned entries, which the JDK may resolve differently than their plain entries */
+    private final BitSet multiRelease;
+
+    private PackageIndex(List<Path> jars, Map<String, int[]> directories, BitSet multiRelease) {
+        this.jars = jars;
+        this.directories = directories;
+        this.multiRelease = multiRelease;
+    }
+
+    /**
+     * @param cacheFile e.g. {@code <gameDir>/.fabric/airships/package-index.properties}
+     * @return the index of the class path or {@code null} if it has an entry that isn't a jar, whose contents can change at any time
+     */
+    public static PackageIndex build(Path cacheFile, List<Path> classPath) {
+        Properties cache = load(cacheFile);
+        Properties updated = new Properties();
+        Map<Path, Entry> entries = new ConcurrentHashMap<>();
+        List<Path> misses = new ArrayList<>();
+
+        // Class-Path attributes are only known once a jar was read, so this goes in rounds
+        Set<Path> visited = new HashSet<>();
+        List<Path> pending = new ArrayList<>(classPath);
+        while (!pending.isEmpty()) {
+            for (Path jar : pending) {
+                if (!visited.add(jar)) continue;
+                if (Files.isDirectory(jar)) {
+                    Log.debug(LogCategory.GAME_PROVIDER, "Not indexing the class path, %s is a directory", jar);
+                    return null;
+                }
+
+                String stamp = stamp(jar);
+                // Doesn't exist, the JDK skips it as well
+                if (stamp == null) continue;
+
+                String cached = cache.getProperty(jar.toString());
+                Entry entry = cached != null ? Entry.parse(jar, stamp, cached) : null;
+                if (entry != null) {
+                    entries.put(jar, entry);
+                    updated.setProperty(jar.toString(), cached);
+                } else {
+                    misses.add(jar);
+                }
+            }
+
+            misses.parallelStream().forEach(jar -> {
+                Entry entry = Entry.read(jar);
+                if (entry != null) entries.put(jar, entry);
+            });
+            for (Path jar : misses) {
+                Entry entry = entries.get(jar);
+                if (entry != null) updated.setProperty(jar.toString(), entry.format());
+            }
+            if (!misses.isEmpty()) {
+                Log.debug(LogCategory.GAME_PROVIDER, "Indexed %d jars, the rest was cached", misses.size());
+            }
+
+            pending = new ArrayList<>();
+            for (Map.Entry<Path, Entry> entry : entries.entrySet()) {
+                if (!entry.getValue().complete) {
+                    Log.debug(LogCategory.GAME_PROVIDER, "Not indexing the class path, the Class-Path of %s isn't made of local jars", entry.getKey());
+                    return null;
+                }
+                for (Path jar : entry.getValue().classPath) {
+                    if (!visited.contains(jar)) pending.add(jar);
+                }
+            }
+            misses.clear();
+        }
+
+        if (!updated.equals(cache)) {
+            store(cacheFile, updated);
+        }
+        return create(classPath, entries);
+    }
+
+    private static PackageIndex create(List<Path> classPath, Map<Path, Entry> entries) {
+        List<Path> jars = new ArrayList<>();
+        order(classPath, entries, new HashSet<>(), jars);
+
+        Map<String, int[]> directories = new HashMap<>();
+        BitSet multiRelease = new BitSet();
+        for (int i = 0; i < jars.size(); i++) {
+            Entry entry = entries.get(jars.get(i));
+            if (entry.multiRelease) multiRelease.set(i);
+            for (String directory : entry.directories) {
+                int[] previous = directories.getOrDefault(directory, NONE);
+                int[] next = Arrays.copyOf(previous, previous.length + 1);
+                next[previous.length] = i;
+                directories.put(directory, next);
+            }
+        }
+        return new PackageIndex(jars, directories, multiRelease);
+    }
+
+    /**
+     * Every jar directly followed by those of its {@code Class-Path}, each jar only once.
+     */
+    private static void order(List<Path> classPath, Map<Path, Entry> entries, Set<Path> seen, List<Path> jars) {
+        for (Path jar : classPath) {
+            Entry entry = entries.get(jar);
+            if (entry == null || !seen.add(jar)) continue;
+
+            jars.add(jar);
+            order(entry.classPath, entries, seen, jars);
+        }
+    }
+
+    /**
+     * @param name a resource name like {@code org/lwjgl/Sys.class}
+     * @return the jars that have the name's directory, in lookup order. Empty if none has it, the name can't be in any.
+     */
+    public int[] find(String name) {
+        int end = name.lastIndexOf('/');
+        return directories.getOrDefault(end >= 0 ? name.substring(0, end) : "", NONE);
+    }
+
+    public Path getJar(int index) {
+        return jars.get(index);
+    }
+
+    public int size() {
+        return jars.size();
+    }
+
+    public boolean isMultiRelease(int index) {
+        return multiRelease.get(index);
+    }
+
+    /**
+     * @return {@code <size>:<mtime>} or {@code null} if the jar doesn't exist
+     */
+    private static String stamp(Path jar) {
+        try {
+            return Files.size(jar) + ":" + Files.getLastModifiedTime(jar).toMillis();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static Properties load(Path file) {
+        Properties cache = new Properties();
+        if (Files.isRegularFile(file)) {
+            try (InputStream is = Files.newInputStream(file)) {
+                cache.load(is);
+            } catch (IOException e) {
+                Log.debug(LogCategory.GAME_PROVIDER, "Can't read the package index %s: %s", file, e);
+            }
+        }
+        return cache;
+    }
+
+    private static void store(Path file, Properties cache) {
+        try {
+            Files.createDirectories(file.getParent());
+            try (OutputStream os = Files.newOutputStream(file)) {
+                cache.store(os, "Directories by jar, <size>:<mtime> <multi-release> <Class-Path> <directories...>");
+            }
+        } catch (IOException e) {
+            Log.debug(LogCategory.GAME_PROVIDER, "Can't write the package index %s: %s", file, e);
+        }
+    }
+
+    /**
+     * What is known about one jar
+     */
+    private static final class Entry {
+        private final String stamp;
+        private final boolean multiRelease;
+        /** The raw {@code Class-Path} attribute, space separated URLs relative to the jar */
+        private final String classPathAttribute;
+        private final List<Path> classPath;
+        /** Whether every URL of the {@code Class-Path} is a local file */
+        private final boolean complete;
+        private final Set<String> directories;
+
+        private Entry(Path jar, String stamp, boolean multiRelease, String classPathAttribute, Set<String> directories) {
+            this.stamp = stamp;
+            this.multiRelease = multiRelease;
+            this.classPathAttribute = classPathAttribute;
+            this.directories = directories;
+
+            List<Path> classPath = new ArrayList<>();
+            boolean complete = true;
+            for (String url : classPathAttribute.isEmpty() ? new String[0] : classPathAttribute.split("\\s+")) {
+                try {
+                    classPath.add(Paths.get(jar.toAbsolutePath().getParent().toUri().resolve(url)).normalize());
+                } catch (IllegalArgumentException | FileSystemNotFoundException e) {
+                    complete = false;
+                }
+            }
+            this.classPath = classPath;
+            this.complete = complete;
+        }
+
+        /**
+         * @return the entry or {@code null} if the jar can't be read, the JDK skips it as well
+         */
+        static Entry read(Path jar) {
+            String stamp = stamp(jar);
+            if (stamp == null) return null;
+
+            try (JarFile jarFile = new JarFile(jar.toFile(), false)) {
+                boolean multiRelease = false;
+                String classPath = "";
+                Manifest manifest = jarFile.getManifest();
+                if (manifest != null) {
+                    Attributes attributes = manifest.getMainAttributes();
+                    multiRelease = "true".equalsIgnoreCase(attributes.getValue("Multi-Release"));
+                    classPath = attributes.getValue(Attributes.Name.CLASS_PATH);
+                    if (classPath == null) classPath = "";
+                }
+
+                Set<String> directories = new HashSet<>();
+                for (Enumeration<? extends ZipEntry> e = jarFile.entries(); e.hasMoreElements(); ) {
+                    ZipEntry zipEntry = e.nextElement();
+                    if (zipEntry.isDirectory()) continue;
+
+                    String name = zipEntry.getName();
+                    int end = name.lastIndexOf('/');
+                    directories.add(end >= 0 ? name.substring(0, end) : "");
+                }
+                return new Entry(jar, stamp, multiRelease, classPath.trim(), directories);
+            } catch (IOException e) {
+                Log.warn(LogCategory.GAME_PROVIDER, "Failed to index " + jar, e);
+                return null;
+            }
+        }
+
+        /**
+         * @return the cached entry or {@code null} if the jar changed since
+         */
+        static Entry parse(Path jar, String stamp, String value) {
+            String[] fields = value.split(FIELD_SEPARATOR, -1);
+            if (fields.length < 3 || !fields[0].equals(stamp)) return null;
+            return new Entry(jar, stamp, Boolean.parseBoolean(fields[1]), fields[2],
+                    new HashSet<>(Arrays.asList(fields).subList(3, fields.length)));
+        }
+
+        String format() {
+            StringJoiner joiner = new StringJoiner(FIELD_SEPARATOR);
+            joiner.add(stamp).add(Boolean.toString(multiRelease)).add(classPathAttribute);
+            for (String directory : directories) {
+                joiner.add(directory);
+            }
+            return joiner.toString();
+        }
+    }
+}
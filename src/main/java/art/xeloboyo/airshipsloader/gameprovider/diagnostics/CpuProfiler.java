@@ -0,0 +1,415 @@
+package art.xeloboyo.airshipsloader.gameprovider.diagnostics;
+
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the stacks of all threads to find out which mods use the CPU, enabled with the launch argument
+ * {@code --profileCpu <samples per second>}, or {@code --profileCpu true} for {@value #DEFAULT_RATE}.
+ * <br>
+ * A thread is counted when it is runnable and, if the JVM measures thread CPU time, used the CPU since the previous sample,
+ * so threads blocked in native I/O don't show up. The stacks, at most {@value #MAX_DEPTH} frames from the top,
+ * go into a prefix tree of preallocated arrays, rooted by thread name, which holds {@value #MAX_NODES} call paths
+ * of {@value #MAX_FRAMES} distinct frames. A sample that doesn't fit anymore is counted at the deepest path that does.
+ * Frames are attributed to mods by their package through {@link ModOrigins} when the profile is written,
+ * which puts the game's classes under {@code airships-base}, so sampling only costs the stack dumps,
+ * bounded by the rate.
+ * <br>
+ * {@link #write()}, which is also an operation of the MXBean {@value #OBJECT_NAME}, writes on demand and once more at shutdown
+ * into the diagnostics directory:
+ * <ul>
+ *     <li>{@code cpu-profile.collapsed} the samples by thread and stack</li>
+ *     <li>{@code cpu-profile-by-mod.collapsed} the same, rooted by the innermost mod of each stack</li>
+ *     <li>{@code cpu-report.txt} every mod's share of the samples and the hottest methods</li>
+ * </ul>
+ * The {@code .collapsed} files are in the collapsed stack format of FlameGraph's {@code flamegraph.pl},
+ * which speedscope and most other flame graph viewers read as well.
+ */
+public final class CpuProfiler implements CpuProfilerMXBean {
+    public static final String OBJECT_NAME = "art.xeloboyo.airshipsloader:type=CpuProfiler";
+    public static final int DEFAULT_RATE = 100;
+    /** Beyond that the stack dumps take more time than they measure */
+    private static final int MAX_RATE = 1000;
+    private static final int MAX_DEPTH = 128;
+    private static final int MAX_NODES = 1 << 17;
+    private static final int MAX_FRAMES = 1 << 15;
+    private static final int REPORTED_METHODS = 30;
+    /** The frame of the paths that ran out of frames */
+    private static final int OTHER_FRAME = 0;
+    private static final double NANOS_PER_MS = 1_000_000.0;
+
+    private static volatile CpuProfiler active;
+
+    private final Path dir;
+    private final int rate;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final boolean cpuTime;
+
+    // The prefix tree, node 0 is the root, every other node is a frame called from its parent's frame
+    private final int[] nodeParent = new int[MAX_NODES];
+    private final int[] nodeFrame = new int[MAX_NODES];
+    /** The samples ending in the node */
+    private final long[] nodeSamples = new long[MAX_NODES];
+    private int nodeCount = 1;
+    /** Open addressing from parent and frame to the child, 0 marks a free slot as the root is nobody's child */
+    private final long[] childKeys = new long[MAX_NODES * 2];
+    private final int[] childNodes = new int[MAX_NODES * 2];
+
+    /** {@link StackTraceElement}s and the thread names, which root the paths */
+    private final Object[] frames = new Object[MAX_FRAMES];
+    private final Map<Object, Integer> frameIds = new HashMap<>();
+    private int frameCount = 1;
+
+    private final Map<Long, Long> lastCpuTimes = new HashMap<>();
+    private final Map<Long, Integer> threadFrames = new HashMap<>();
+    private long samples;
+    private long truncated;
+    private long sampleNanos;
+    private long start;
+    private Thread thread;
+    /** Serializes the writes, which don't hold the profiler's lock */
+    private final Object writeLock = new Object();
+
+    /**
+     * @param dir where the profile is written to
+     * @param rate samples per second
+     */
+    public CpuProfiler(Path dir, int rate) {
+        this.dir = dir;
+        this.rate = Math.max(1, Math.min(rate, MAX_RATE));
+        this.cpuTime = threads.isThreadCpuTimeSupported() && threads.isThreadCpuTimeEnabled();
+        frames[OTHER_FRAME] = "[other]";
+    }
+
+    /**
+     * @return the running profiler or {@code null} if profiling is disabled
+     */
+    public static CpuProfiler getActive() {
+        return active;
+    }
+
+    /**
+     * @param argument the value of the launch argument
+     * @return the samples per second it asks for, 0 if it disables the profiler
+     */
+    public static int parseRate(String argument) {
+        if ("false".equalsIgnoreCase(argument)) return 0;
+        if (argument == null || "true".equalsIgnoreCase(argument)) return DEFAULT_RATE;
+        try {
+            return Math.max(0, Math.min(Integer.parseInt(argument.trim()), MAX_RATE));
+        } catch (NumberFormatException e) {
+            Log.warn(LogCategory.GAME_PROVIDER, "Invalid sample rate %s, using %d per second", argument, DEFAULT_RATE);
+            return DEFAULT_RATE;
+        }
+    }
+
+    /**
+     * Starts sampling and registers the MXBean on a background thread, the platform MBean server takes a while to start.
+     */
+    public synchronized void start() {
+        if (thread != null) return;
+        active = this;
+        start = System.nanoTime();
+
+        thread = new Thread(this::sample, "CPU Profiler");
+        thread.setDaemon(true);
+        thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::write, "CPU Profiler Writer"));
+        Log.info(LogCategory.GAME_PROVIDER, "Profiling the CPU at %d samples per second, the profile is written to %s", rate, dir);
+
+        Thread registration = new Thread(() -> {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+            } catch (JMException | RuntimeException e) {
+                Log.warn(LogCategory.GAME_PROVIDER, "Failed to register the CPU profiler", e);
+            }
+        }, "CPU Profiler Registration");
+        registration.setDaemon(true);
+        registration.start();
+    }
+
+    @Override
+    public int getRate() {
+        return rate;
+    }
+
+    @Override
+    public synchronized long getSampleCount() {
+        return samples;
+    }
+
+    private void sample() {
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        long next = System.nanoTime();
+        try {
+            while (true) {
+                long begin = now();
+                sampleOnce();
+                sampleNanos += now() - begin;
+
+                // At a fixed rate, but a sample that took too long doesn't cause a burst of them
+                next = Math.max(next + interval, System.nanoTime());
+                TimeUnit.NANOSECONDS.sleep(next - System.nanoTime());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            Log.warn(LogCategory.GAME_PROVIDER, "The CPU profiler failed, the profile ends here", e);
+        }
+    }
+
+    /**
+     * @return the CPU time of the profiler's thread if the JVM measures it, so waiting for the CPU isn't counted as overhead
+     */
+    private long now() {
+        return cpuTime ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    private void sampleOnce() {
+        long self = Thread.currentThread().getId();
+        ThreadInfo[] infos = threads.getThreadInfo(threads.getAllThreadIds(), MAX_DEPTH);
+        synchronized (this) {
+            for (ThreadInfo info : infos) {
+                if (info == null || info.getThreadId() == self || info.getThreadState() != Thread.State.RUNNABLE) continue;
+                if (cpuTime && !usedCpu(info.getThreadId())) continue;
+
+                StackTraceElement[] stack = info.getStackTrace();
+                if (stack.length == 0) continue;
+                record(threadFrame(info), stack);
+            }
+            // Once a second, forget the threads that ended
+            if (++samples % rate == 0) {
+                Set<Long> alive = new HashSet<>();
+                for (ThreadInfo info : infos) {
+                    if (info != null) alive.add(info.getThreadId());
+                }
+                lastCpuTimes.keySet().retainAll(alive);
+                threadFrames.keySet().retainAll(alive);
+            }
+        }
+    }
+
+    /**
+     * @return whether the thread's CPU time grew since the last time it was asked about
+     */
+    private boolean usedCpu(long threadId) {
+        long time = threads.getThreadCpuTime(threadId);
+        if (time < 0) return false;
+        Long last = lastCpuTimes.put(threadId, time);
+        return last == null || time > last;
+    }
+
+    /**
+     * Thread pools name their threads by number, those without it are counted together.
+     */
+    private int threadFrame(ThreadInfo info) {
+        Integer frame = threadFrames.get(info.getThreadId());
+        if (frame == null) {
+            String name = info.getThreadName();
+            int end = name.length();
+            while (end > 0 && Character.isDigit(name.charAt(end - 1))) end--;
+            frame = frameId(end > 0 && end < name.length() ? name.substring(0, end) + "N" : name);
+            threadFrames.put(info.getThreadId(), frame);
+        }
+        return frame;
+    }
+
+    /**
+     * @param stack from the innermost frame outwards
+     */
+    private void record(int threadFrame, StackTraceElement[] stack) {
+        int node = child(0, threadFrame);
+        for (int i = stack.length - 1; i >= 0 && node >= 0; i--) {
+            int next = child(node, frameId(stack[i]));
+            if (next < 0) {
+                truncated++;
+                break;
+            }
+            node = next;
+        }
+        if (node >= 0) nodeSamples[node]++;
+    }
+
+    private int frameId(Object frame) {
+        Integer id = frameIds.get(frame);
+        if (id != null) return id;
+        if (frameCount == MAX_FRAMES) return OTHER_FRAME;
+
+        frames[frameCount] = frame;
+        frameIds.put(frame, frameCount);
+        return frameCount++;
+    }
+
+    /**
+     * @return the node of the frame called from the parent, -1 if the tree is full
+     */
+    private int child(int parent, int frame) {
+        long key = ((long) parent << 32) | frame;
+        int mask = childKeys.length - 1;
+        for (int slot = (int) (key * 0x9E3779B97F4A7C15L >>> 40) & mask; ; slot = (slot + 1) & mask) {
+            int node = childNodes[slot];
+            if (node == 0) {
+                if (nodeCount == MAX_NODES) return -1;
+                node = nodeCount++;
+                nodeParent[node] = parent;
+                nodeFrame[node] = frame;
+                childKeys[slot] = key;
+                childNodes[slot] = node;
+                return node;
+            }
+            if (childKeys[slot] == key) return node;
+        }
+    }
+
+    /**
+     * Writes the collapsed stacks and the report, failing to is logged and otherwise ignored.
+     * The samples are copied under the profiler's lock, the frames are attributed to mods after it is released,
+     * so the first write, which reads the mods' jars, doesn't stop the sampling.
+     * @return the report
+     */
+    @Override
+    public String write() {
+        synchronized (writeLock) {
+            Object[] frames;
+            int[] nodeParent;
+            int[] nodeFrame;
+            long[] nodeSamples;
+            long samples;
+            long truncated;
+            long sampleNanos;
+            boolean full;
+            synchronized (this) {
+                frames = Arrays.copyOf(this.frames, frameCount);
+                nodeParent = Arrays.copyOf(this.nodeParent, nodeCount);
+                nodeFrame = Arrays.copyOf(this.nodeFrame, nodeCount);
+                nodeSamples = Arrays.copyOf(this.nodeSamples, nodeCount);
+                samples = this.samples;
+                truncated = this.truncated;
+                sampleNanos = this.sampleNanos;
+                full = nodeCount == MAX_NODES || frameCount == MAX_FRAMES;
+            }
+
+            String[] labels = new String[frames.length];
+            String[] mods = new String[frames.length];
+            for (int i = 0; i < frames.length; i++) {
+                Object frame = frames[i];
+                if (frame instanceof StackTraceElement) {
+                    StackTraceElement element = (StackTraceElement) frame;
+                    labels[i] = element.getClassName() + "." + element.getMethodName();
+                    mods[i] = ModOrigins.getModId(element.getClassName());
+                } else {
+                    labels[i] = "[" + frame + "]";
+                    mods[i] = ModOrigins.UNKNOWN;
+                }
+            }
+
+            // Frames differing only in their line are merged here
+            Map<String, Long> stacks = new LinkedHashMap<>();
+            Map<String, Long> stacksByMod = new LinkedHashMap<>();
+            Map<String, Long> byMod = new HashMap<>();
+            Map<String, Long> byMethod = new HashMap<>();
+            long total = 0;
+            int[] path = new int[MAX_DEPTH + 1];
+            for (int node = 1; node < nodeSamples.length; node++) {
+                long count = nodeSamples[node];
+                if (count == 0) continue;
+                total += count;
+
+                int depth = 0;
+                String mod = null;
+                for (int n = node; n != 0; n = nodeParent[n]) {
+                    path[depth++] = nodeFrame[n];
+                    if (mod == null && !mods[nodeFrame[n]].equals(ModOrigins.UNKNOWN)) mod = mods[nodeFrame[n]];
+                }
+                if (mod == null) mod = ModOrigins.UNKNOWN;
+
+                StringBuilder stack = new StringBuilder();
+                for (int i = depth - 1; i >= 0; i--) {
+                    if (i != depth - 1) stack.append(';');
+                    stack.append(labels[path[i]]);
+                }
+                stacks.merge(stack.toString(), count, Long::sum);
+                stacksByMod.merge("[" + mod + "];" + stack, count, Long::sum);
+                byMod.merge(mod, count, Long::sum);
+                byMethod.merge(labels[path[0]] + (mods[path[0]].equals(ModOrigins.UNKNOWN) ? "" : " [" + mods[path[0]] + "]"), count, Long::sum);
+            }
+
+            StringWriter report = new StringWriter();
+            try {
+                writeReport(report, samples, sampleNanos, total, full ? truncated : -1, byMod, byMethod);
+                Files.createDirectories(dir);
+                writeCollapsed(dir.resolve("cpu-profile.collapsed"), stacks);
+                writeCollapsed(dir.resolve("cpu-profile-by-mod.collapsed"), stacksByMod);
+                Files.write(dir.resolve("cpu-report.txt"), report.toString().getBytes(StandardCharsets.UTF_8));
+                Log.info(LogCategory.GAME_PROVIDER, "Wrote the CPU profile of %d samples to %s", samples, dir);
+            } catch (IOException e) {
+                Log.warn(LogCategory.GAME_PROVIDER, "Failed to write the CPU profile", e);
+            }
+            return report.toString();
+        }
+    }
+
+    private static void writeCollapsed(Path file, Map<String, Long> stacks) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Long> entry : stacks.entrySet()) {
+                out.write(entry.getKey());
+                out.write(' ');
+                out.write(Long.toString(entry.getValue()));
+                out.write('\n');
+            }
+        }
+    }
+
+    /**
+     * @param truncated the stacks cut short, -1 if the profile didn't run out of space
+     */
+    private void writeReport(Writer out, long samples, long sampleNanos, long total, long truncated,
+                             Map<String, Long> byMod, Map<String, Long> byMethod) throws IOException {
+        double msPerSample = 1000.0 / rate;
+        out.write(String.format(Locale.ROOT, "%d samples at %d per second over %.1f s, %d thread stacks on the CPU%n",
+                samples, rate, (System.nanoTime() - start) / 1e9, total));
+        out.write(String.format(Locale.ROOT, "Sampling took %.1f ms of %s in total, %.3f ms per sample%n",
+                sampleNanos / NANOS_PER_MS, cpuTime ? "CPU" : "wall time", sampleNanos / NANOS_PER_MS / Math.max(samples, 1)));
+        if (!cpuTime) {
+            out.write(String.format(Locale.ROOT, "The JVM doesn't measure thread CPU time, all runnable threads were counted%n"));
+        }
+        if (truncated >= 0) {
+            out.write(String.format(Locale.ROOT, "The profile ran out of space, %d stacks were cut short%n", truncated));
+        }
+
+        out.write(String.format(Locale.ROOT, "%nCPU by the innermost mod on the stack, %s are the JDK, fabric and threads without mod code%n",
+                ModOrigins.UNKNOWN));
+        out.write(String.format(Locale.ROOT, "%-32s %10s %8s %12s%n", "mod", "samples", "share", "~cpu ms"));
+        for (Map.Entry<String, Long> entry : sorted(byMod, byMod.size())) {
+            out.write(String.format(Locale.ROOT, "%-32s %10d %7.1f%% %12.0f%n", entry.getKey(), entry.getValue(),
+                    100.0 * entry.getValue() / Math.max(total, 1), entry.getValue() * msPerSample));
+        }
+
+        out.write(String.format(Locale.ROOT, "%nThe %d methods on the top of the stack most often%n", REPORTED_METHODS));
+        out.write(String.format(Locale.ROOT, "%10s %8s  %s%n", "samples", "share", "method"));
+        for (Map.Entry<String, Long> entry : sorted(byMethod, REPORTED_METHODS)) {
+            out.write(String.format(Locale.ROOT, "%10d %7.1f%%  %s%n", entry.getValue(),
+                    100.0 * entry.getValue() / Math.max(total, 1), entry.getKey()));
+        }
+    }
+
+    private static List<Map.Entry<String, Long>> sorted(Map<String, Long> counts, int limit) {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        return entries.subList(0, Math.min(entries.size(), limit));
+    }
+}
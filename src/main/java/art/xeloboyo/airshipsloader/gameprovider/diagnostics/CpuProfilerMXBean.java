@@ -0,0 +1,17 @@
+package art.xeloboyo.airshipsloader.gameprovider.diagnostics;
+
+/**
+ * The management interface of the {@link CpuProfiler}, as JMX clients see it.
+ */
+public interface CpuProfilerMXBean {
+    /** Samples per second */
+    int getRate();
+
+    long getSampleCount();
+
+    /**
+     * Writes the collapsed stacks and the report to the diagnostics directory.
+     * @return the report as text
+     */
+    String write();
+}
@@ -0,0 +1,293 @@
+package art.xeloboyo.airshipsloader.gameprovider.diagnostics;
+
+import art.xeloboyo.airshipsloader.api.TickBus;
+import art.xeloboyo.airshipsloader.api.TickListener;
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Measures how long frames (or server ticks) take and which mod's {@link TickListener}s take how much of it,
+ * enabled with the launch argument {@code --profileFrames true}.
+ * <br>
+ * The provider's tick hooks call {@link #startTick()} and {@link #endTick()}, which write into preallocated ring buffers
+ * holding the last {@value #CAPACITY} values, so recording neither allocates nor grows.
+ * Every listener is wrapped through {@link TickBus#setWrapper} to add up its time.
+ * <br>
+ * {@link #write()}, which is also an operation of the MXBean {@value #OBJECT_NAME}, writes on demand and once more at shutdown
+ * into the diagnostics directory:
+ * <ul>
+ *     <li>{@code frame-times.hgrm} the time from the start of one tick to the start of the next, i.e. the frame time</li>
+ *     <li>{@code tick-times.hgrm} the time from the start of a tick to its end, i.e. what the game does per frame without waiting</li>
+ *     <li>{@code frame-report.txt} p50, p99, p99.9 and max of both and the time of every listener, by mod</li>
+ * </ul>
+ * The {@code .hgrm} files are in HdrHistogram's percentile distribution format and can be plotted with its plotter.
+ * The percentiles only cover the ticks still in the ring buffers, the listeners' times and their share of the tick time the whole session.
+ */
+public final class FrameProfiler implements FrameProfilerMXBean {
+    public static final String OBJECT_NAME = "art.xeloboyo.airshipsloader:type=FrameProfiler";
+    private static final int CAPACITY = 1 << 16;
+    private static final int MASK = CAPACITY - 1;
+    private static final double NANOS_PER_MS = 1_000_000.0;
+
+    private static volatile FrameProfiler active;
+
+    private final Path dir;
+    private final long[] frames = new long[CAPACITY];
+    private final long[] ticks = new long[CAPACITY];
+    /** Only written by the game's main thread, volatile so reports see the buffers filled up to there */
+    private volatile long frameCount;
+    private volatile long tickCount;
+    /** The time of every tick of the session, what the listeners' share is of */
+    private volatile long tickNanos;
+    private long tickStart;
+    private final Map<TickListener, TimedListener> timed = new IdentityHashMap<>();
+
+    public FrameProfiler(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * @return the running profiler or {@code null} if profiling is disabled
+     */
+    public static FrameProfiler getActive() {
+        return active;
+    }
+
+    /**
+     * Starts timing the listeners and registers the MXBean on a background thread, the platform MBean server takes a while to start.
+     */
+    public void start() {
+        active = this;
+        TickBus.setWrapper(this::wrap);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::write, "Frame Profiler Writer"));
+        Log.info(LogCategory.GAME_PROVIDER, "Profiling frame times, the report is written to %s", dir);
+
+        Thread thread = new Thread(() -> {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+            } catch (JMException | RuntimeException e) {
+                Log.warn(LogCategory.GAME_PROVIDER, "Failed to register the frame profiler", e);
+            }
+        }, "Frame Profiler Registration");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    @Override
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    public void startTick() {
+        long now = System.nanoTime();
+        if (tickStart != 0) {
+            long count = frameCount;
+            frames[(int) count & MASK] = now - tickStart;
+            frameCount = count + 1;
+        }
+        tickStart = now;
+    }
+
+    public void endTick() {
+        long count = tickCount;
+        long time = System.nanoTime() - tickStart;
+        ticks[(int) count & MASK] = time;
+        tickNanos += time;
+        tickCount = count + 1;
+    }
+
+    /**
+     * Called by the {@link TickBus} under its lock, whenever the listeners change.
+     */
+    private TickListener wrap(TickListener listener) {
+        synchronized (timed) {
+            return timed.computeIfAbsent(listener, TimedListener::new);
+        }
+    }
+
+    /**
+     * Writes the histograms and the report, failing to is logged and otherwise ignored.
+     * @return the report
+     */
+    @Override
+    public synchronized String write() {
+        long[] frameTimes = snapshot(frames, frameCount);
+        long[] tickTimes = snapshot(ticks, tickCount);
+        long totalTickNanos = tickNanos;
+        List<TimedListener> listeners;
+        synchronized (timed) {
+            listeners = new ArrayList<>(timed.values());
+        }
+
+        StringWriter report = new StringWriter();
+        try {
+            writeReport(report, frameTimes, tickTimes, totalTickNanos, listeners);
+            Files.createDirectories(dir);
+            writeHistogram(dir.resolve("frame-times.hgrm"), frameTimes);
+            writeHistogram(dir.resolve("tick-times.hgrm"), tickTimes);
+            Files.write(dir.resolve("frame-report.txt"), report.toString().getBytes(StandardCharsets.UTF_8));
+            Log.info(LogCategory.GAME_PROVIDER, "Wrote the frame profile of %d frames to %s", frameTimes.length, dir);
+        } catch (IOException e) {
+            Log.warn(LogCategory.GAME_PROVIDER, "Failed to write the frame profile", e);
+        }
+        return report.toString();
+    }
+
+    /**
+     * @return the values still in the ring buffer, sorted
+     */
+    private static long[] snapshot(long[] ring, long count) {
+        int size = (int) Math.min(count, CAPACITY);
+        long[] values = new long[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = ring[(int) (count - size + i) & MASK];
+        }
+        Arrays.sort(values);
+        return values;
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) return 0;
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /**
+     * The same rows as HdrHistogram's {@code outputPercentileDistribution} with five steps per halving of the distance to 100%.
+     */
+    private static void writeHistogram(Path file, long[] sorted) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write(String.format(Locale.ROOT, "%12s %14s %10s %14s%n%n", "Value", "Percentile", "TotalCount", "1/(1-Percentile)"));
+            if (sorted.length > 0) {
+                for (int half = 0; 1L << half <= sorted.length; half++) {
+                    double from = 1 - 1.0 / (1L << half);
+                    double to = 1 - 1.0 / (1L << (half + 1));
+                    for (int step = 0; step < 5; step++) {
+                        double percentile = from + (to - from) * step / 5;
+                        writeRow(out, sorted, percentile);
+                    }
+                }
+                writeRow(out, sorted, 1.0);
+            }
+
+            double mean = 0;
+            for (long value : sorted) mean += value;
+            mean = sorted.length > 0 ? mean / sorted.length : 0;
+            double variance = 0;
+            for (long value : sorted) variance += (value - mean) * (value - mean);
+            double deviation = sorted.length > 0 ? Math.sqrt(variance / sorted.length) : 0;
+
+            out.write(String.format(Locale.ROOT, "#[Mean    = %12.3f, StdDeviation   = %12.3f]%n", mean / NANOS_PER_MS, deviation / NANOS_PER_MS));
+            out.write(String.format(Locale.ROOT, "#[Max     = %12.3f, Total count    = %12d]%n", percentile(sorted, 1.0) / NANOS_PER_MS, sorted.length));
+            out.write(String.format(Locale.ROOT, "#[Unit    = %12s]%n", "ms"));
+        }
+    }
+
+    private static void writeRow(Writer out, long[] sorted, double percentile) throws IOException {
+        long count = Math.max(1, (long) Math.ceil(percentile * sorted.length));
+        String inverse = percentile < 1 ? String.format(Locale.ROOT, "%14.2f", 1 / (1 - percentile)) : "";
+        out.write(String.format(Locale.ROOT, "%12.3f %2.12f %10d %s%n",
+                percentile(sorted, percentile) / NANOS_PER_MS, percentile, count, inverse));
+    }
+
+    /**
+     * @param tickTotal the time of all ticks of the session, like the listeners' times
+     */
+    private static void writeReport(Writer out, long[] frameTimes, long[] tickTimes, long tickTotal, List<TimedListener> listeners) throws IOException {
+        listeners.sort(Comparator.comparingLong(TimedListener::total).reversed());
+        out.write(String.format(Locale.ROOT, "%-8s %8s %10s %10s %10s %10s%n", "", "count", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+        writeSummary(out, "frame", frameTimes);
+        writeSummary(out, "tick", tickTimes);
+
+        out.write(String.format(Locale.ROOT, "%nTick listeners over the whole session, the share is of the time of all %.3f ms of ticks%n",
+                tickTotal / NANOS_PER_MS));
+        out.write(String.format(Locale.ROOT, "%12s %8s %12s %12s %10s  %-24s %s%n",
+                "total ms", "share", "calls", "mean us", "max us", "mod", "listener"));
+        for (TimedListener listener : listeners) {
+            long total = listener.total();
+            long calls = listener.preCalls + listener.postCalls;
+            out.write(String.format(Locale.ROOT, "%12.3f %7.2f%% %12d %12.3f %10.1f  %-24s %s%n",
+                    total / NANOS_PER_MS,
+                    tickTotal > 0 ? 100.0 * total / tickTotal : 0,
+                    calls,
+                    calls > 0 ? total / 1000.0 / calls : 0,
+                    listener.max / 1000.0,
+                    listener.modId, listener.listener.getClass().getName()));
+        }
+    }
+
+    private static void writeSummary(Writer out, String name, long[] sorted) throws IOException {
+        out.write(String.format(Locale.ROOT, "%-8s %8d %10.3f %10.3f %10.3f %10.3f%n", name, sorted.length,
+                percentile(sorted, 0.5) / NANOS_PER_MS, percentile(sorted, 0.99) / NANOS_PER_MS,
+                percentile(sorted, 0.999) / NANOS_PER_MS, percentile(sorted, 1.0) / NANOS_PER_MS));
+    }
+
+    /**
+     * Adds up the time of one listener, its fields are only written by the game's main thread.
+     */
+    private static final class TimedListener implements TickListener {
+        private final TickListener listener;
+        private final String modId;
+        private long preNanos;
+        private long postNanos;
+        private long preCalls;
+        private long postCalls;
+        private long max;
+
+        TimedListener(TickListener listener) {
+            this.listener = listener;
+            this.modId = ModOrigins.getModId(listener.getClass());
+        }
+
+        long total() {
+            return preNanos + postNanos;
+        }
+
+        @Override
+        public void onPreTick() {
+            long start = System.nanoTime();
+            try {
+                listener.onPreTick();
+            } finally {
+                long time = System.nanoTime() - start;
+                preNanos += time;
+                preCalls++;
+                if (time > max) max = time;
+            }
+        }
+
+        @Override
+        public void onPostTick() {
+            long start = System.nanoTime();
+            try {
+                listener.onPostTick();
+            } finally {
+                long time = System.nanoTime() - start;
+                postNanos += time;
+                postCalls++;
+                if (time > max) max = time;
+            }
+        }
+
+        @Override
+        public int getPriority() {
+            return listener.getPriority();
+        }
+    }
+}
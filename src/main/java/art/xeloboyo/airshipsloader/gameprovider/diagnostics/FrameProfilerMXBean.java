@@ -0,0 +1,17 @@
+package art.xeloboyo.airshipsloader.gameprovider.diagnostics;
+
+/**
+ * The management interface of the {@link FrameProfiler}, as JMX clients see it.
+ */
+public interface FrameProfilerMXBean {
+    /** The frames recorded this session, including those no longer in the ring buffer */
+    long getFrameCount();
+
+    long getTickCount();
+
+    /**
+     * Writes the histograms and the report to the diagnostics directory.
+     * @return the report as text
+     */
+    String write();
+}
@@ -0,0 +1,491 @@
+package art.xeloboyo.airshipsloader.gameprovider.diagnostics;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Estimates how much of the heap every mod retains, enabled with {@code -Dairships.heapAccounting=true}.
+ * <br>
+ * The game transformer tells it every class Knot defines. {@link #start()}, which is also an operation of the MXBean
+ * {@value #OBJECT_NAME}, walks the objects reachable from the static fields of those classes on a background thread
+ * and writes {@code heap/heap-<time>.txt} to the diagnostics directory, with the retained size per mod,
+ * the game's classes counted as {@code airships-base}, and the static fields retaining the most.
+ * <br>
+ * The walk goes breadth first from all static fields at once, so an object reachable from several mods is counted
+ * for the one reaching it through the fewest references. It doesn't follow references to classes, class loaders, threads
+ * or the referents of weak and soft references. It stops after {@code -Dairships.heapAccountingBudget=<objects>} objects,
+ * {@value #DEFAULT_BUDGET} by default, which also bounds the memory it takes, and pauses every {@value #PAUSE_EVERY} objects,
+ * so it can be triggered on a live server instead of taking a heap dump.
+ * Classes whose static initializer hasn't run yet are skipped, reading their fields would run it.
+ * The sizes are estimates from the fields of each class, as the JVM doesn't tell the size of an object.
+ */
+public final class HeapAccounting implements HeapAccountingMXBean {
+    public static final String OBJECT_NAME = "art.xeloboyo.airshipsloader:type=HeapAccounting";
+    public static final int DEFAULT_BUDGET = 1_000_000;
+    private static final int PAUSE_EVERY = 10_000;
+    /** The size of a map entry or a collection's node, for collections of the JDK whose fields can't be read */
+    private static final int OPAQUE_ELEMENT_BYTES = 32;
+    private static final int REPORTED_FIELDS = 30;
+    private static final double NANOS_PER_MS = 1_000_000.0;
+
+    private static volatile HeapAccounting active;
+
+    private final Path dir;
+    private final int budget;
+    /** The classes Knot defined, once even if Knot was asked for a class again after it failed to define it, guarded by itself */
+    private final Set<String> classNames = new LinkedHashSet<>();
+    /** Guarded by this */
+    private ClassLoader loader;
+    private Thread thread;
+
+    /**
+     * @param dir where the reports are written to
+     * @param budget the objects a walk visits at most
+     */
+    public HeapAccounting(Path dir, int budget) {
+        this.dir = dir;
+        this.budget = Math.max(budget, 1);
+    }
+
+    /**
+     * @return the heap accounting or {@code null} if it is disabled or the game didn't launch yet
+     */
+    public static HeapAccounting getActive() {
+        return active;
+    }
+
+    /**
+     * Called by the game transformer for every class Knot defines, from any thread.
+     */
+    public void classDefined(String className) {
+        synchronized (classNames) {
+            classNames.add(className);
+        }
+    }
+
+    /**
+     * Registers the MXBean on a background thread, the platform MBean server takes a while to start.
+     * @param loader Knot's class loader, which defined the classes
+     */
+    public synchronized void register(ClassLoader loader) {
+        if (this.loader != null) return;
+        this.loader = loader;
+        active = this;
+
+        Thread thread = new Thread(() -> {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+            } catch (JMException | RuntimeException e) {
+                Log.warn(LogCategory.GAME_PROVIDER, "Failed to register the heap accounting", e);
+            }
+        }, "Heap Accounting Registration");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return thread != null && thread.isAlive();
+    }
+
+    @Override
+    public synchronized String start() {
+        if (loader == null) return "The game didn't launch yet";
+        if (isRunning()) return "Already walking the heap, the report will be written to " + dir;
+
+        thread = new Thread(this::run, "Heap Accounting");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+        return "Walking the heap, the report will be written to " + dir;
+    }
+
+    private void run() {
+        Date date = new Date();
+        long start = System.nanoTime();
+        List<String> names;
+        synchronized (classNames) {
+            names = new ArrayList<>(classNames);
+        }
+        ClassLoader loader;
+        synchronized (this) {
+            loader = this.loader;
+        }
+
+        try {
+            Walk walk = new Walk(budget);
+            walk.addRoots(names, loader);
+            walk.walk();
+            write(date, walk, System.nanoTime() - start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            Log.warn(LogCategory.GAME_PROVIDER, "The heap accounting failed", e);
+        }
+    }
+
+    private void write(Date date, Walk walk, long nanos) {
+        Path file = dir.resolve("heap-" + new SimpleDateFormat("yyyy-MM-dd_HH.mm.ss", Locale.ROOT).format(date) + ".txt");
+        try {
+            Files.createDirectories(dir);
+            try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                writeReport(out, walk, nanos);
+            }
+            Log.info(LogCategory.GAME_PROVIDER, "Wrote the heap accounting to %s", file);
+        } catch (IOException e) {
+            Log.warn(LogCategory.GAME_PROVIDER, "Failed to write the heap accounting", e);
+        }
+    }
+
+    private void writeReport(Writer out, Walk walk, long nanos) throws IOException {
+        long total = 0;
+        for (ModStats mod : walk.mods.values()) {
+            total += mod.bytes;
+        }
+
+        out.write(String.format(Locale.ROOT, "%d classes defined by Knot, %d static fields holding objects%n", walk.classes, walk.roots.size()));
+        if (walk.initialized == null) {
+            out.write(String.format(Locale.ROOT, "This JVM can't tell whether a class is initialized, no static fields were read%n"));
+        } else if (walk.uninitialized > 0) {
+            out.write(String.format(Locale.ROOT, "%d classes weren't initialized yet and were skipped%n", walk.uninitialized));
+        }
+        out.write(String.format(Locale.ROOT, "%d objects, %.1f MiB, visited in %.0f ms%n", walk.visited, total / 1048576.0, nanos / NANOS_PER_MS));
+        if (walk.exhausted) {
+            out.write(String.format(Locale.ROOT, "The budget of %d objects ran out, the sizes are lower bounds%n", budget));
+        }
+        out.write(String.format(Locale.ROOT, "Estimated with %d byte object headers and %d byte references, %s are classes outside any mod%n",
+                walk.headerSize, walk.referenceSize, ModOrigins.UNKNOWN));
+
+        List<ModStats> mods = new ArrayList<>(walk.mods.values());
+        mods.sort((a, b) -> Long.compare(b.bytes, a.bytes));
+        out.write(String.format(Locale.ROOT, "%n%-32s %8s %8s %10s %14s %8s%n", "mod", "classes", "fields", "objects", "retained KiB", "share"));
+        for (ModStats mod : mods) {
+            out.write(String.format(Locale.ROOT, "%-32s %8d %8d %10d %14.1f %7.1f%%%n", mod.id, mod.classes, mod.fields, mod.objects,
+                    mod.bytes / 1024.0, 100.0 * mod.bytes / Math.max(total, 1)));
+        }
+
+        List<Root> roots = new ArrayList<>(walk.roots);
+        roots.sort((a, b) -> Long.compare(b.bytes, a.bytes));
+        out.write(String.format(Locale.ROOT, "%nThe %d static fields retaining the most%n%14s %10s  %s%n", REPORTED_FIELDS, "retained KiB", "objects", "field"));
+        for (Root root : roots.subList(0, Math.min(roots.size(), REPORTED_FIELDS))) {
+            out.write(String.format(Locale.ROOT, "%14.1f %10d  %s [%s]%n", root.bytes / 1024.0, root.objects, root.name, root.mod.id));
+        }
+    }
+
+    /**
+     * {@code sun.misc.Unsafe#shouldBeInitialized}, which newer JVMs don't have anymore.
+     * @return whether a class is initialized, {@code null} if that can't be told
+     */
+    private static Predicate<Class<?>> initializedCheck() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+            Method method = unsafeClass.getMethod("shouldBeInitialized", Class.class);
+            return c -> {
+                try {
+                    return !(Boolean) method.invoke(unsafe, c);
+                } catch (ReflectiveOperationException e) {
+                    return false;
+                }
+            };
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * {@link ClassLoader#findLoadedClass}, which never loads a class, unlike {@link Class#forName(String, boolean, ClassLoader)}
+     * for a class the loader failed to define.
+     * @return the class the loader defined under a name or {@code null}, {@code null} if it can't be called
+     */
+    private static Function<String, Class<?>> loadedCheck(ClassLoader loader) {
+        try {
+            Method method = ClassLoader.class.getDeclaredMethod("findLoadedClass", String.class);
+            method.setAccessible(true);
+            return name -> {
+                try {
+                    return (Class<?>) method.invoke(loader, name);
+                } catch (ReflectiveOperationException e) {
+                    return null;
+                }
+            };
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Whether the JVM compresses references, it does for heaps below 32 GiB unless told otherwise
+     */
+    private static boolean compressedOops() {
+        try {
+            HotSpotDiagnosticMXBean hotSpot = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+            return hotSpot == null || Boolean.parseBoolean(hotSpot.getVMOption("UseCompressedOops").getValue());
+        } catch (RuntimeException e) {
+            return true;
+        }
+    }
+
+    /**
+     * The state of one walk, only touched by the walking thread.
+     */
+    private static final class Walk {
+        private final int budget;
+        private final int headerSize;
+        private final int arrayHeaderSize;
+        private final int referenceSize;
+        private final Predicate<Class<?>> initialized = initializedCheck();
+
+        private final Map<String, ModStats> mods = new HashMap<>();
+        private final List<Root> roots = new ArrayList<>();
+        private final Map<Class<?>, Layout> layouts = new HashMap<>();
+        /** Every object seen, with the static field it is counted for */
+        private final IdentityHashMap<Object, Root> owners = new IdentityHashMap<>();
+        private final ArrayDeque<Object> queue = new ArrayDeque<>();
+        private int classes;
+        private int uninitialized;
+        private int visited;
+        private boolean exhausted;
+
+        Walk(int budget) {
+            this.budget = budget;
+            boolean compressed = compressedOops();
+            this.headerSize = compressed ? 12 : 16;
+            this.arrayHeaderSize = compressed ? 16 : 24;
+            this.referenceSize = compressed ? 4 : 8;
+        }
+
+        void addRoots(List<String> names, ClassLoader loader) {
+            Function<String, Class<?>> loaded = loadedCheck(loader);
+            for (String name : names) {
+                Class<?> c;
+                if (loaded != null) {
+                    c = loaded.apply(name);
+                    if (c == null) continue;
+                } else {
+                    // Newer JVMs don't open ClassLoader, the names are of classes Knot defined so this only looks them up
+                    try {
+                        c = Class.forName(name, false, loader);
+                    } catch (ClassNotFoundException | LinkageError e) {
+                        continue;
+                    }
+                }
+                classes++;
+                if (initialized == null || !initialized.test(c)) {
+                    uninitialized++;
+                    continue;
+                }
+
+                String modId = ModOrigins.getModId(c);
+                if (modId.equals(ModOrigins.UNKNOWN)) modId = ModOrigins.getModId(c.getName());
+                ModStats mod = mods.computeIfAbsent(modId, ModStats::new);
+                mod.classes++;
+
+                Field[] fields;
+                try {
+                    fields = c.getDeclaredFields();
+                } catch (LinkageError e) {
+                    // A field's type can't be loaded
+                    continue;
+                }
+                for (Field field : fields) {
+                    if (!Modifier.isStatic(field.getModifiers()) || field.getType().isPrimitive()) continue;
+                    Object value;
+                    try {
+                        field.setAccessible(true);
+                        value = field.get(null);
+                    } catch (IllegalAccessException | RuntimeException | LinkageError e) {
+                        continue;
+                    }
+                    if (value == null) continue;
+
+                    Root root = new Root(c.getName() + "." + field.getName(), mod);
+                    roots.add(root);
+                    mod.fields++;
+                    enqueue(value, root);
+                }
+            }
+        }
+
+        void walk() throws InterruptedException {
+            int scanned = 0;
+            for (Object object; (object = queue.poll()) != null; ) {
+                Root root = owners.get(object);
+                long size = scan(object, root);
+                root.bytes += size;
+                root.objects++;
+                root.mod.bytes += size;
+                root.mod.objects++;
+
+                if (++scanned % PAUSE_EVERY == 0) {
+                    Thread.sleep(1);
+                }
+            }
+        }
+
+        private void enqueue(Object object, Root root) {
+            if (object == null || object instanceof Class || object instanceof ClassLoader
+                    || object instanceof Thread || object instanceof ThreadGroup || owners.containsKey(object)) return;
+            if (visited == budget) {
+                exhausted = true;
+                return;
+            }
+            owners.put(object, root);
+            queue.add(object);
+            visited++;
+        }
+
+        /**
+         * Enqueues what the object references.
+         * @return its estimated size
+         */
+        private long scan(Object object, Root root) {
+            Class<?> c = object.getClass();
+            if (c.isArray()) {
+                Class<?> component = c.getComponentType();
+                if (!component.isPrimitive()) {
+                    for (Object element : (Object[]) object) {
+                        enqueue(element, root);
+                    }
+                }
+                return align(arrayHeaderSize + (long) Array.getLength(object) * size(component));
+            }
+
+            Layout layout = layout(c);
+            for (Field field : layout.references) {
+                try {
+                    enqueue(field.get(object), root);
+                } catch (IllegalAccessException | RuntimeException e) {
+                    // Skipped
+                }
+            }
+            if (!layout.opaque) return layout.size;
+            if (object instanceof String) {
+                // Its characters, one byte each unless it has others than Latin-1
+                return layout.size + align(arrayHeaderSize + ((String) object).length());
+            }
+
+            // Java 16 and newer don't allow reading the fields of the JDK's collections, their contents are still reachable
+            int elements = 0;
+            try {
+                if (object instanceof Collection) {
+                    for (Object element : (Collection<?>) object) {
+                        enqueue(element, root);
+                        elements++;
+                    }
+                } else if (object instanceof Map) {
+                    for (Map.Entry<?, ?> entry : ((Map<?, ?>) object).entrySet()) {
+                        enqueue(entry.getKey(), root);
+                        enqueue(entry.getValue(), root);
+                        elements++;
+                    }
+                }
+            } catch (RuntimeException e) {
+                // Changed while it was iterated, the elements so far are counted
+            }
+            return layout.size + (long) elements * OPAQUE_ELEMENT_BYTES;
+        }
+
+        private Layout layout(Class<?> c) {
+            Layout layout = layouts.get(c);
+            if (layout != null) return layout;
+
+            long size = headerSize;
+            List<Field> references = new ArrayList<>();
+            boolean opaque = false;
+            for (Class<?> k = c; k != null; k = k.getSuperclass()) {
+                Field[] fields;
+                try {
+                    fields = k.getDeclaredFields();
+                } catch (LinkageError e) {
+                    continue;
+                }
+                for (Field field : fields) {
+                    if (Modifier.isStatic(field.getModifiers())) continue;
+                    size += size(field.getType());
+                    // A reference's fields are its referent, which it doesn't retain, and the bookkeeping of its queue
+                    if (field.getType().isPrimitive() || k == Reference.class) continue;
+                    try {
+                        field.setAccessible(true);
+                        references.add(field);
+                    } catch (RuntimeException e) {
+                        opaque = true;
+                    }
+                }
+            }
+            layout = new Layout(align(size), references.toArray(new Field[0]), opaque);
+            layouts.put(c, layout);
+            return layout;
+        }
+
+        private int size(Class<?> type) {
+            if (!type.isPrimitive()) return referenceSize;
+            if (type == long.class || type == double.class) return 8;
+            if (type == int.class || type == float.class) return 4;
+            if (type == short.class || type == char.class) return 2;
+            return 1;
+        }
+
+        private static long align(long size) {
+            return (size + 7) & ~7L;
+        }
+    }
+
+    private static final class Layout {
+        private final long size;
+        private final Field[] references;
+        /** Whether some of the fields can't be read */
+        private final boolean opaque;
+
+        Layout(long size, Field[] references, boolean opaque) {
+            this.size = size;
+            this.references = references;
+            this.opaque = opaque;
+        }
+    }
+
+    private static final class ModStats {
+        private final String id;
+        private int classes;
+        private int fields;
+        private long objects;
+        private long bytes;
+
+        ModStats(String id) {
+            this.id = id;
+        }
+    }
+
+    private static final class Root {
+        private final String name;
+        private final ModStats mod;
+        private long objects;
+        private long bytes;
+
+        Root(String name, ModStats mod) {
+            this.name = name;
+            this.mod = mod;
+        }
+    }
+}
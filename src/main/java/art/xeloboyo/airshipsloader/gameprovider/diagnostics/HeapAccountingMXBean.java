@@ -0,0 +1,15 @@
+package art.xeloboyo.airshipsloader.gameprovider.diagnostics;
+
+/**
+ * The management interface of the {@link HeapAccounting}, as JMX clients see it.
+ */
+public interface HeapAccountingMXBean {
+    /** Whether a walk is running */
+    boolean isRunning();
+
+    /**
+     * Starts walking the heap on a background thread, unless a walk is already running.
+     * @return what happened and where the report will be written
+     */
+    String start();
+}
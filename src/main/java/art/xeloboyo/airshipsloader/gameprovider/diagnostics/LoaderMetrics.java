@@ -0,0 +1,226 @@
+package art.xeloboyo.airshipsloader.gameprovider.diagnostics;
+
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * Counts what the loader does: the classes loaded, the time each transformer takes, the transformed class data kept in memory
+ * and the time of every mod's entrypoints.
+ * <br>
+ * The counters are {@link LongAdder}s, which the threads loading classes update without contending with each other,
+ * so they are always on. Callers look up their {@link Timer} or class loader counter once and keep it.
+ * {@link #register(Path, boolean)} registers them as the MXBean {@value #OBJECT_NAME}, for JConsole, VisualVM or any other JMX client.
+ * With {@code -Dairships.metricsDump=true} they are written to {@code loader-metrics.txt} in the diagnostics directory at shutdown,
+ * {@link #dump()} writes them on demand.
+ */
+public final class LoaderMetrics implements LoaderMetricsMXBean {
+    public static final String OBJECT_NAME = "art.xeloboyo.airshipsloader:type=LoaderMetrics";
+
+    private static final double NANOS_PER_MS = 1_000_000.0;
+    private static final LoaderMetrics INSTANCE = new LoaderMetrics();
+
+    private static final LongAdder classesLoaded = new LongAdder();
+    private static final LongAdder retainedClassBytes = new LongAdder();
+    private static final Map<String, LongAdder> classLoaders = new ConcurrentHashMap<>();
+    private static final Map<String, Timer> transformers = new ConcurrentHashMap<>();
+    private static final Map<String, Timer> entrypoints = new ConcurrentHashMap<>();
+
+    /** Guarded by the class lock */
+    private static Path dir;
+
+    private LoaderMetrics() {
+    }
+
+    /**
+     * Registers the MXBean on a background thread, the platform MBean server takes a while to start.
+     * @param dir where {@link #dump()} writes to
+     * @param dumpAtShutdown whether to dump once more at shutdown
+     */
+    public static synchronized void register(Path dir, boolean dumpAtShutdown) {
+        if (LoaderMetrics.dir != null) return;
+        LoaderMetrics.dir = dir;
+
+        Thread thread = new Thread(() -> {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+            } catch (JMException | RuntimeException e) {
+                Log.warn(LogCategory.GAME_PROVIDER, "Failed to register the loader metrics", e);
+            }
+        }, "Loader Metrics Registration");
+        thread.setDaemon(true);
+        thread.start();
+
+        if (dumpAtShutdown) {
+            Runtime.getRuntime().addShutdownHook(new Thread(INSTANCE::dump, "Loader Metrics Writer"));
+        }
+    }
+
+    /**
+     * @param name e.g. {@code knot} or a server of host mode
+     * @return the counter of the classes the class loader is asked for, add one per class
+     */
+    public static LongAdder classLoader(String name) {
+        return classLoaders.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    /**
+     * Counts a class loaded through any class loader, on top of its {@link #classLoader(String)} counter.
+     */
+    public static void classLoaded() {
+        classesLoaded.increment();
+    }
+
+    /**
+     * @param bytes the size of transformed class data that is kept, negative once it is dropped
+     */
+    public static void retained(long bytes) {
+        retainedClassBytes.add(bytes);
+    }
+
+    /**
+     * @param name e.g. {@code game}, {@code mixin} or a patch
+     */
+    public static Timer transformer(String name) {
+        return transformers.computeIfAbsent(name, k -> new Timer());
+    }
+
+    /**
+     * @param mod the mod id
+     * @param stage the entrypoint, e.g. {@code main} or {@code client}
+     */
+    public static Timer entrypoint(String mod, String stage) {
+        return entrypoints.computeIfAbsent(mod + " (" + stage + ")", k -> new Timer());
+    }
+
+    @Override
+    public long getClassesLoaded() {
+        return classesLoaded.sum();
+    }
+
+    @Override
+    public Map<String, Long> getClassesLoadedByClassLoader() {
+        TreeMap<String, Long> values = new TreeMap<>();
+        classLoaders.forEach((name, count) -> values.put(name, count.sum()));
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getTransformerCalls() {
+        return collect(transformers, timer -> timer.calls.sum());
+    }
+
+    @Override
+    public Map<String, Long> getClassesTransformed() {
+        return collect(transformers, timer -> timer.changed.sum());
+    }
+
+    @Override
+    public Map<String, Long> getTransformerNanos() {
+        return collect(transformers, timer -> timer.nanos.sum());
+    }
+
+    @Override
+    public Map<String, Long> getTransformerMaxNanos() {
+        return collect(transformers, timer -> timer.max.get());
+    }
+
+    @Override
+    public long getRetainedClassBytes() {
+        return retainedClassBytes.sum();
+    }
+
+    @Override
+    public Map<String, Long> getEntrypointCounts() {
+        return collect(entrypoints, timer -> timer.calls.sum());
+    }
+
+    @Override
+    public Map<String, Long> getEntrypointNanos() {
+        return collect(entrypoints, timer -> timer.nanos.sum());
+    }
+
+    @Override
+    public Map<String, Long> getEntrypointMaxNanos() {
+        return collect(entrypoints, timer -> timer.max.get());
+    }
+
+    private static Map<String, Long> collect(Map<String, Timer> timers, ToLongFunction<Timer> value) {
+        TreeMap<String, Long> values = new TreeMap<>();
+        timers.forEach((name, timer) -> values.put(name, value.applyAsLong(timer)));
+        return values;
+    }
+
+    @Override
+    public synchronized String dump() {
+        String text = format();
+        Path dir;
+        synchronized (LoaderMetrics.class) {
+            dir = LoaderMetrics.dir;
+        }
+        if (dir != null) {
+            try {
+                Files.createDirectories(dir);
+                Files.write(dir.resolve("loader-metrics.txt"), text.getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                Log.warn(LogCategory.GAME_PROVIDER, "Failed to write the loader metrics", e);
+            }
+        }
+        return text;
+    }
+
+    private String format() {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format(Locale.ROOT, "Classes loaded: %d%n", getClassesLoaded()));
+        getClassesLoadedByClassLoader().forEach((name, count) -> out.append(String.format(Locale.ROOT, "  %-40s %8d%n", name, count)));
+        out.append(String.format(Locale.ROOT, "Retained class data: %.1f KiB%n%n", getRetainedClassBytes() / 1024.0));
+
+        out.append(String.format(Locale.ROOT, "%-40s %8s %11s %10s %10s%n", "Transformer", "calls", "transformed", "total ms", "max ms"));
+        new TreeMap<>(transformers).forEach((name, timer) -> out.append(String.format(Locale.ROOT, "%-40s %8d %11d %10.1f %10.3f%n",
+                name, timer.calls.sum(), timer.changed.sum(), timer.nanos.sum() / NANOS_PER_MS, timer.max.get() / NANOS_PER_MS)));
+        out.append(String.format(Locale.ROOT, "%n"));
+
+        out.append(String.format(Locale.ROOT, "%-40s %8s %10s %10s%n", "Entrypoints", "count", "total ms", "max ms"));
+        new TreeMap<>(entrypoints).forEach((name, timer) -> out.append(String.format(Locale.ROOT, "%-40s %8d %10.1f %10.3f%n",
+                name, timer.calls.sum(), timer.nanos.sum() / NANOS_PER_MS, timer.max.get() / NANOS_PER_MS)));
+        return out.toString();
+    }
+
+    /**
+     * How often something ran, for how long in total and at most.
+     */
+    public static final class Timer {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder changed = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        private Timer() {
+        }
+
+        /**
+         * @param changed how many classes a transformer changed, 0 or 1 for a single class, always 0 for entrypoints.
+         * A patch runs once per launch on all the classes it targets.
+         */
+        public void record(long nanos, int changed) {
+            calls.increment();
+            if (changed > 0) this.changed.add(changed);
+            this.nanos.add(nanos);
+            max.accumulate(nanos);
+        }
+    }
+}
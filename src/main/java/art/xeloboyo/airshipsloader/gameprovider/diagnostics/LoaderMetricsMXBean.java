@@ -0,0 +1,39 @@
+package art.xeloboyo.airshipsloader.gameprovider.diagnostics;
+
+import java.util.Map;
+
+/**
+ * The management interface of the {@link LoaderMetrics}, as JMX clients see it.
+ * Times are in nanoseconds, maps are keyed by transformer, class loader or {@code <mod> (<stage>)}.
+ */
+public interface LoaderMetricsMXBean {
+    /** The classes the game's class loaders were asked for, whether or not they were transformed */
+    long getClassesLoaded();
+
+    Map<String, Long> getClassesLoadedByClassLoader();
+
+    /** The classes each transformer ran on */
+    Map<String, Long> getTransformerCalls();
+
+    /** The classes each transformer changed */
+    Map<String, Long> getClassesTransformed();
+
+    Map<String, Long> getTransformerNanos();
+
+    Map<String, Long> getTransformerMaxNanos();
+
+    /** The transformed class data the loader keeps in memory to hand it out again, e.g. the patched classes */
+    long getRetainedClassBytes();
+
+    Map<String, Long> getEntrypointCounts();
+
+    Map<String, Long> getEntrypointNanos();
+
+    Map<String, Long> getEntrypointMaxNanos();
+
+    /**
+     * Writes the metrics to the diagnostics directory.
+     * @return the metrics as text
+     */
+    String dump();
+}
@@ -0,0 +1,135 @@
+package art.xeloboyo.airshipsloader.gameprovider.diagnostics;
+
+import net.fabricmc.loader.api.FabricLoader;
+import net.fabricmc.loader.api.ModContainer;
+import net.fabricmc.loader.api.metadata.ModOrigin;
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Finds the mod a class belongs to, so the diagnostics can blame mods instead of classes.
+ * <br>
+ * Knot defines every class with the jar (or directory) it came from as its code source,
+ * which is matched against the paths the mods were loaded from.
+ * Jars nested in a mod are extracted by fabric first, their classes end up as {@link #UNKNOWN}.
+ * <br>
+ * Classes only known by name, like the frames of another thread's stack, are matched by their package
+ * against the packages in the mods' jars and directories.
+ */
+public final class ModOrigins {
+    /** Classes that aren't part of any mod, like the JDK. The game is the builtin mod {@code airships-base} */
+    public static final String UNKNOWN = "?";
+
+    /** The JDK, which fabric adds as a mod with the whole {@code java.home} as its path */
+    private static final String JAVA = "java";
+
+    private static volatile Map<Path, String> byPath;
+    private static volatile Map<String, String> byPackage;
+
+    private ModOrigins() {
+    }
+
+    public static String getModId(Class<?> c) {
+        CodeSource source = c.getProtectionDomain().getCodeSource();
+        URL location = source != null ? source.getLocation() : null;
+        if (location == null) return UNKNOWN;
+
+        Path path;
+        try {
+            path = Paths.get(location.toURI()).toAbsolutePath().normalize();
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return UNKNOWN;
+        }
+        return getPaths().getOrDefault(path, UNKNOWN);
+    }
+
+    /**
+     * @param className a binary name like {@code com.example.Foo$Bar}
+     * @return the mod having the package of the class, the first one if several mods have it
+     */
+    public static String getModId(String className) {
+        int end = className.lastIndexOf('.');
+        return getPackages().getOrDefault(end >= 0 ? className.substring(0, end) : "", UNKNOWN);
+    }
+
+    /**
+     * Reads the entries of every mod's jars once, the first time a class is looked up by name.
+     */
+    private static Map<String, String> getPackages() {
+        Map<String, String> packages = byPackage;
+        if (packages != null) return packages;
+
+        packages = new HashMap<>();
+        for (ModContainer mod : FabricLoader.getInstance().getAllMods()) {
+            String id = mod.getMetadata().getId();
+            ModOrigin origin = mod.getOrigin();
+            if (origin.getKind() != ModOrigin.Kind.PATH || id.equals(JAVA)) continue;
+            for (Path path : origin.getPaths()) {
+                try {
+                    for (String directory : classDirectories(path)) {
+                        packages.putIfAbsent(directory.replace('/', '.'), id);
+                    }
+                } catch (IOException | UncheckedIOException e) {
+                    Log.debug(LogCategory.GAME_PROVIDER, "Can't list the classes of %s in %s: %s", id, path, e);
+                }
+            }
+        }
+        byPackage = packages;
+        return packages;
+    }
+
+    /**
+     * @return the directories of the jar or directory that have classes, relative and separated by {@code /}
+     */
+    private static Set<String> classDirectories(Path path) throws IOException {
+        Set<String> directories = new HashSet<>();
+        if (Files.isDirectory(path)) {
+            try (Stream<Path> files = Files.walk(path)) {
+                files.filter(file -> file.getFileName() != null && file.getFileName().toString().endsWith(".class"))
+                        .forEach(file -> directories.add(path.relativize(file.getParent()).toString().replace('\\', '/')));
+            }
+        } else if (Files.isRegularFile(path)) {
+            try (ZipFile zip = new ZipFile(path.toFile())) {
+                for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+                    String name = e.nextElement().getName();
+                    if (!name.endsWith(".class")) continue;
+                    int end = name.lastIndexOf('/');
+                    directories.add(end >= 0 ? name.substring(0, end) : "");
+                }
+            }
+        }
+        return directories;
+    }
+
+    /**
+     * Mods are all known once the game is launched, so this is only built once.
+     */
+    private static Map<Path, String> getPaths() {
+        Map<Path, String> paths = byPath;
+        if (paths != null) return paths;
+
+        paths = new HashMap<>();
+        for (ModContainer mod : FabricLoader.getInstance().getAllMods()) {
+            ModOrigin origin = mod.getOrigin();
+            if (origin.getKind() != ModOrigin.Kind.PATH) continue;
+            for (Path path : origin.getPaths()) {
+                paths.put(path.toAbsolutePath().normalize(), mod.getMetadata().getId());
+            }
+        }
+        byPath = paths;
+        return paths;
+    }
+}
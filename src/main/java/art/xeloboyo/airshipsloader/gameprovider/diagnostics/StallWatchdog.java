@@ -0,0 +1,220 @@
+package art.xeloboyo.airshipsloader.gameprovider.diagnostics;
+
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.LockInfo;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Notices when the game thread stops looping, e.g. because a mod waits for I/O or a lock in a tick,
+ * and writes a report of what the thread was doing to the diagnostics directory, {@code stalls/stall-<time>.txt}.
+ * <br>
+ * The game thread calls {@link #beat()} once per loop iteration, which only sets a volatile flag.
+ * The watchdog's thread clears it every quarter of the threshold. Once the flag stayed clear for the threshold,
+ * it samples the game thread's stack every {@value #SAMPLE_INTERVAL_MS} ms until the game thread loops again,
+ * for at most {@value #MAX_SAMPLES} samples, and attributes the frames to mods through {@link ModOrigins}.
+ * Nothing is watched before the first beat, so whatever the game does between the hook and its loop isn't a stall.
+ * <br>
+ * Enabled by default, {@code -Dairships.disableStallWatchdog=true} disables it and {@code -Dairships.stallThreshold=<ms>}
+ * changes the threshold, {@value #DEFAULT_THRESHOLD_MS} ms by default.
+ */
+public final class StallWatchdog {
+    public static final long DEFAULT_THRESHOLD_MS = 3000;
+    private static final long SAMPLE_INTERVAL_MS = 10;
+    /** A minute of samples, a thread stuck for longer is reported once they are taken */
+    private static final int MAX_SAMPLES = 6000;
+    /** Frames per stack that are kept, from the top */
+    private static final int MAX_DEPTH = 48;
+    private static final int REPORTED_STACKS = 10;
+
+    private final Path dir;
+    private final long thresholdMs;
+    /** Set by the game thread, cleared by the watchdog */
+    private volatile boolean beat;
+    private Thread gameThread;
+
+    /**
+     * @param dir where the reports are written to
+     */
+    public StallWatchdog(Path dir, long thresholdMs) {
+        this.dir = dir;
+        this.thresholdMs = Math.max(thresholdMs, SAMPLE_INTERVAL_MS);
+    }
+
+    /**
+     * Called by the game thread once per loop iteration.
+     */
+    public void beat() {
+        beat = true;
+    }
+
+    /**
+     * Starts watching the thread, which has to call {@link #beat()} from now on.
+     */
+    public synchronized void start(Thread gameThread) {
+        if (this.gameThread != null) return;
+        this.gameThread = gameThread;
+
+        Thread thread = new Thread(this::watch, "Stall Watchdog");
+        thread.setDaemon(true);
+        thread.start();
+        Log.debug(LogCategory.GAME_PROVIDER, "Watching %s for stalls longer than %d ms", gameThread.getName(), thresholdMs);
+    }
+
+    private void watch() {
+        long check = Math.max(thresholdMs / 4, SAMPLE_INTERVAL_MS);
+        boolean armed = false;
+        long lastBeat = System.nanoTime();
+        try {
+            while (gameThread.isAlive()) {
+                Thread.sleep(check);
+                if (beat) {
+                    beat = false;
+                    armed = true;
+                    lastBeat = System.nanoTime();
+                } else if (armed && System.nanoTime() - lastBeat >= TimeUnit.MILLISECONDS.toNanos(thresholdMs)) {
+                    stalled(lastBeat);
+                    lastBeat = System.nanoTime();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Samples until the game thread beats again, reports and, if the samples ran out first, waits for it to beat.
+     */
+    private void stalled(long lastBeat) throws InterruptedException {
+        Log.warn(LogCategory.GAME_PROVIDER, "The game thread hasn't looped for %d ms, sampling its stack",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastBeat));
+        Date start = new Date();
+        ThreadInfo info = threadInfo(gameThread);
+        // The holder of the lock the game thread waits for, it may be gone by the time the report is written
+        ThreadInfo owner = info != null && info.getLockOwnerId() >= 0 ? threadInfo(info.getLockOwnerId()) : null;
+
+        Map<List<StackTraceElement>, Integer> stacks = new HashMap<>();
+        int samples = 0;
+        while (!beat && samples < MAX_SAMPLES && gameThread.isAlive()) {
+            StackTraceElement[] stack = gameThread.getStackTrace();
+            stacks.merge(Arrays.asList(stack).subList(0, Math.min(stack.length, MAX_DEPTH)), 1, Integer::sum);
+            samples++;
+            Thread.sleep(SAMPLE_INTERVAL_MS);
+        }
+        boolean ended = beat;
+        long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastBeat);
+        write(start, duration, ended, info, owner, stacks, samples);
+
+        if (!ended) {
+            while (!beat && gameThread.isAlive()) {
+                Thread.sleep(SAMPLE_INTERVAL_MS);
+            }
+            Log.warn(LogCategory.GAME_PROVIDER, "The game thread looped again after %d ms",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastBeat));
+        }
+        beat = false;
+    }
+
+    private static ThreadInfo threadInfo(Thread thread) {
+        try {
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            ThreadInfo[] infos = threads.getThreadInfo(new long[]{thread.getId()},
+                    threads.isObjectMonitorUsageSupported(), threads.isSynchronizerUsageSupported());
+            return infos.length > 0 ? infos[0] : null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private void write(Date start, long duration, boolean ended, ThreadInfo info, ThreadInfo owner,
+                       Map<List<StackTraceElement>, Integer> stacks, int samples) {
+        Path file = dir.resolve("stall-" + new SimpleDateFormat("yyyy-MM-dd_HH.mm.ss", Locale.ROOT).format(start) + ".txt");
+        try {
+            Files.createDirectories(dir);
+            try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                writeReport(out, duration, ended, info, owner, stacks, samples);
+            }
+            Log.warn(LogCategory.GAME_PROVIDER, "Wrote the stall report to %s", file);
+        } catch (IOException e) {
+            Log.warn(LogCategory.GAME_PROVIDER, "Failed to write the stall report", e);
+        }
+    }
+
+    private void writeReport(Writer out, long duration, boolean ended, ThreadInfo info, ThreadInfo owner,
+                             Map<List<StackTraceElement>, Integer> stacks, int samples) throws IOException {
+        out.write(String.format(Locale.ROOT, "The game thread \"%s\" didn't loop for %d ms%s%n", gameThread.getName(), duration,
+                ended ? "" : ", it was still stuck when the report was written"));
+        out.write(String.format(Locale.ROOT, "Threshold %d ms, %d samples every %d ms%n", thresholdMs, samples, SAMPLE_INTERVAL_MS));
+
+        if (info != null) {
+            out.write(String.format(Locale.ROOT, "%nWhen the stall was noticed it was %s", info.getThreadState()));
+            LockInfo lock = info.getLockInfo();
+            if (lock != null) {
+                out.write(" on " + lock);
+                if (info.getLockOwnerName() != null) {
+                    out.write(String.format(Locale.ROOT, " held by \"%s\"", info.getLockOwnerName()));
+                }
+            }
+            out.write(String.format(Locale.ROOT, "%n"));
+            if (owner != null) {
+                out.write(String.format(Locale.ROOT, "The holder \"%s\" was %s at%n", owner.getThreadName(), owner.getThreadState()));
+                writeStack(out, Arrays.asList(owner.getStackTrace()).subList(0, Math.min(owner.getStackTrace().length, MAX_DEPTH)));
+            }
+        }
+
+        // Per mod: the samples it was the innermost mod in and the samples it was anywhere in
+        Map<String, int[]> mods = new HashMap<>();
+        for (Map.Entry<List<StackTraceElement>, Integer> entry : stacks.entrySet()) {
+            Set<String> seen = new HashSet<>();
+            for (StackTraceElement frame : entry.getKey()) {
+                String modId = ModOrigins.getModId(frame.getClassName());
+                if (modId.equals(ModOrigins.UNKNOWN)) continue;
+
+                int[] counts = mods.computeIfAbsent(modId, k -> new int[2]);
+                if (seen.isEmpty()) counts[0] += entry.getValue();
+                if (seen.add(modId)) counts[1] += entry.getValue();
+            }
+        }
+        List<Map.Entry<String, int[]>> byMod = new ArrayList<>(mods.entrySet());
+        byMod.sort((a, b) -> b.getValue()[0] != a.getValue()[0] ? b.getValue()[0] - a.getValue()[0] : b.getValue()[1] - a.getValue()[1]);
+        out.write(String.format(Locale.ROOT, "%nMods on the stack, share of the samples%n%-32s %10s %10s%n", "mod", "innermost", "anywhere"));
+        for (Map.Entry<String, int[]> entry : byMod) {
+            out.write(String.format(Locale.ROOT, "%-32s %9.1f%% %9.1f%%%n", entry.getKey(),
+                    100.0 * entry.getValue()[0] / Math.max(samples, 1), 100.0 * entry.getValue()[1] / Math.max(samples, 1)));
+        }
+
+        List<Map.Entry<List<StackTraceElement>, Integer>> byCount = new ArrayList<>(stacks.entrySet());
+        byCount.sort((a, b) -> b.getValue() - a.getValue());
+        out.write(String.format(Locale.ROOT, "%nStacks by samples, the top %d frames%n", MAX_DEPTH));
+        for (Map.Entry<List<StackTraceElement>, Integer> entry : byCount.subList(0, Math.min(byCount.size(), REPORTED_STACKS))) {
+            out.write(String.format(Locale.ROOT, "%n%d samples (%.1f%%)%n", entry.getValue(), 100.0 * entry.getValue() / Math.max(samples, 1)));
+            writeStack(out, entry.getKey());
+        }
+    }
+
+    private static ThreadInfo threadInfo(long id) {
+        try {
+            return ManagementFactory.getThreadMXBean().getThreadInfo(id, MAX_DEPTH);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static void writeStack(Writer out, List<StackTraceElement> stack) throws IOException {
+        for (StackTraceElement frame : stack) {
+            String modId = ModOrigins.getModId(frame.getClassName());
+            out.write(String.format(Locale.ROOT, "    at %s%s%n", frame, modId.equals(ModOrigins.UNKNOWN) ? "" : " [" + modId + "]"));
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package art.xeloboyo.airshipsloader.gameprovider.diagnostics;
+
+import art.xeloboyo.airshipsloader.gameprovider.AirshipsSystemProperties;
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Records how long each phase of the startup takes, enabled with {@code -Dairships.startupTrace=true}.
+ * <br>
+ * A span is started with {@link #begin(String, String)} and ended with {@link Span#close()}, ideally in a try-with-resources.
+ * When tracing is disabled a shared no-op span is returned, so spans can be left in the code for free.
+ * <br>
+ * {@link #write(Path)} writes
+ * <ul>
+ *     <li>{@code startup-trace.json} in the Chrome trace event format, open it in {@code chrome://tracing} or <a href="https://ui.perfetto.dev">Perfetto</a></li>
+ *     <li>{@code startup-report.txt} every span sorted by duration</li>
+ * </ul>
+ */
+public final class StartupTrace {
+    public static final boolean ENABLED = Boolean.getBoolean(AirshipsSystemProperties.STARTUP_TRACE);
+
+    private static final long ORIGIN = System.nanoTime();
+    private static final Queue<Span> FINISHED = new ConcurrentLinkedQueue<>();
+    private static final Span NOOP = new Span(null, null);
+    private static final com.sun.management.ThreadMXBean THREADS = allocationTracking();
+
+    private StartupTrace() {
+    }
+
+    /**
+     * @param category what kind of phase this is, e.g. {@code provider}, {@code patch} or {@code mod}
+     * @param name the phase, e.g. the method or mod id
+     */
+    public static Span begin(String category, String name) {
+        return ENABLED ? new Span(category, name) : NOOP;
+    }
+
+    /**
+     * Writes the trace and the report into the directory. Does nothing if tracing is disabled.
+     */
+    public static void write(Path dir) {
+        if (!ENABLED) return;
+
+        List<Span> spans = new ArrayList<>(FINISHED);
+        try {
+            Files.createDirectories(dir);
+            writeTrace(dir.resolve("startup-trace.json"), spans);
+            writeReport(dir.resolve("startup-report.txt"), spans);
+            Log.info(LogCategory.GAME_PROVIDER, "Wrote the startup trace to %s", dir);
+        } catch (IOException e) {
+            Log.warn(LogCategory.GAME_PROVIDER, "Failed to write the startup trace", e);
+        }
+    }
+
+    private static void writeTrace(Path file, List<Span> spans) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+            for (int i = 0; i < spans.size(); i++) {
+                Span span = spans.get(i);
+                out.write(String.format(Locale.ROOT,
+                        "{\"name\":%s,\"cat\":%s,\"ph\":\"X\",\"ts\":%.3f,\"dur\":%.3f,\"pid\":1,\"tid\":%d,\"args\":{\"thread\":%s,\"allocatedBytes\":%d}}%s\n",
+                        quote(span.name), quote(span.category),
+                        (span.start - ORIGIN) / 1000.0, (span.end - span.start) / 1000.0,
+                        span.threadId, quote(span.threadName), span.allocated,
+                        i + 1 < spans.size() ? "," : ""));
+            }
+            out.write("]}\n");
+        }
+    }
+
+    private static void writeReport(Path file, List<Span> spans) throws IOException {
+        spans.sort(Comparator.comparingLong((Span span) -> span.end - span.start).reversed());
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write(String.format(Locale.ROOT, "%12s %14s  %-10s %s%n", "wall ms", "allocated KiB", "category", "name"));
+            for (Span span : spans) {
+                out.write(String.format(Locale.ROOT, "%12.3f %14s  %-10s %s [%s]%n",
+                        (span.end - span.start) / 1_000_000.0,
+                        span.allocated >= 0 ? String.valueOf(span.allocated / 1024) : "n/a",
+                        span.category, span.name, span.threadName));
+            }
+        }
+    }
+
+    private static String quote(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Allocated bytes per thread are a HotSpot extension, other JVMs just don't get them.
+     */
+    private static com.sun.management.ThreadMXBean allocationTracking() {
+        if (!ENABLED) return null;
+
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported()) {
+                sunBean.setThreadAllocatedMemoryEnabled(true);
+                return sunBean;
+            }
+        }
+        return null;
+    }
+
+    private static long allocatedBytes(long threadId) {
+        return THREADS != null ? THREADS.getThreadAllocatedBytes(threadId) : -1;
+    }
+
+    /**
+     * A phase of the startup. It has to be closed on the thread that began it.
+     */
+    public static final class Span implements AutoCloseable {
+        private final String category;
+        private final String name;
+        private final long threadId;
+        private final String threadName;
+        private final long start;
+        private final long startAllocated;
+        private long end;
+        private long allocated;
+
+        private Span(String category, String name) {
+            this.category = category;
+            this.name = name;
+            Thread thread = Thread.currentThread();
+            this.threadId = thread.getId();
+            this.threadName = thread.getName();
+            this.startAllocated = category != null ? allocatedBytes(threadId) : -1;
+            this.start = System.nanoTime();
+        }
+
+        @Override
+        public void close() {
+            if (this == NOOP || end != 0) return;
+
+            end = System.nanoTime();
+            allocated = startAllocated >= 0 ? allocatedBytes(threadId) - startAllocated : -1;
+            FINISHED.add(this);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package art.xeloboyo.airshipsloader.gameprovider.patch;
+
+import art.xeloboyo.airshipsloader.gameprovider.cache.ClassCache;
+import art.xeloboyo.airshipsloader.gameprovider.cache.GameJarIndex;
+import art.xeloboyo.airshipsloader.gameprovider.diagnostics.HeapAccounting;
+import art.xeloboyo.airshipsloader.gameprovider.diagnostics.LoaderMetrics;
+import art.xeloboyo.airshipsloader.gameprovider.diagnostics.StartupTrace;
+import art.xeloboyo.airshipsloader.gameprovider.services.ClassPrefetcher;
+import net.fabricmc.loader.impl.game.patch.GamePatch;
+import net.fabricmc.loader.impl.game.patch.GameTransformer;
+import net.fabricmc.loader.impl.launch.FabricLauncher;
+import net.fabricmc.loader.impl.util.ExceptionUtil;
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Does the same as fabric's {@link GameTransformer} but can skip the patching by using a {@link ClassCache}.
+ * <br>
+ * Knot asks {@link #transform(String)} for every class it loads, if it returns bytes those are used instead of the
+ * class in the game jar. Access wideners and mixins are applied by Knot afterwards, the {@code MixinCache} keeps their output,
+ * so on a warm start the patches come from the class cache and Mixin's work from the Mixin cache.
+ * <br>
+ * Knot also asks it for {@code getClassByteArray}, which Mixin, the baker and host mode use to read classes without defining them.
+ * Those calls run between {@link #beginRead()} and {@link #endRead()} and aren't counted, recorded or handed to the heap accounting.
+ */
+public class AirshipGameTransformer extends GameTransformer {
+    private static final LoaderMetrics.Timer TIMER = LoaderMetrics.transformer("game");
+    private static final LongAdder KNOT_CLASSES = LoaderMetrics.classLoader("knot");
+    /** How many reads without a define this thread is in */
+    private static final ThreadLocal<int[]> READS = ThreadLocal.withInitial(() -> new int[1]);
+
+    private final List<GamePatch> patches;
+    private ClassCache cache;
+    private GameJarIndex baked;
+    private ClassPrefetcher prefetcher;
+    private HeapAccounting heapAccounting;
+    private Map<String, byte[]> patchedClasses = Collections.emptyMap();
+    private boolean entrypointsLocated = false;
+
+    public AirshipGameTransformer(GamePatch... patches) {
+        this.patches = Arrays.asList(patches);
+    }
+
+    /**
+     * Sets the cache used by {@link #locateEntrypoints(FabricLauncher, List)}, {@code null} disables caching.
+     */
+    public void setCache(ClassCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Serves the classes of a baked jar instead of the patched ones, see bake mode in {@code AirshipGameProvider}.
+     * The baked classes already went through every transformer.
+     */
+    public void setBaked(GameJarIndex baked) {
+        this.baked = baked;
+    }
+
+    /**
+     * Records the classes Knot defines and hands it the classes that were read ahead, {@code null} disables both.
+     */
+    public void setPrefetcher(ClassPrefetcher prefetcher) {
+        this.prefetcher = prefetcher;
+    }
+
+    /**
+     * Tells the heap accounting about the classes Knot loads, {@code null} disables it.
+     */
+    public void setHeapAccounting(HeapAccounting heapAccounting) {
+        this.heapAccounting = heapAccounting;
+    }
+
+    @Override
+    public void locateEntrypoints(FabricLauncher launcher, List<Path> gameJars) {
+        if (entrypointsLocated) {
+            return;
+        }
+
+        Map<String, byte[]> cached = cache != null ? cache.load() : null;
+        if (cached != null) {
+            Log.debug(LogCategory.GAME_PATCH, "Loaded %d patched classes from the class cache %s", cached.size(), cache.getKey());
+            patchedClasses = cached;
+        } else {
+            patchedClasses = patch(launcher, gameJars);
+            if (cache != null) {
+                cache.store(patchedClasses);
+            }
+        }
+
+        Log.debug(LogCategory.GAME_PATCH, "Patched %d class%s", patchedClasses.size(), patchedClasses.size() != 1 ? "es" : "");
+        for (byte[] bytes : patchedClasses.values()) {
+            LoaderMetrics.retained(bytes.length);
+        }
+        entrypointsLocated = true;
+    }
+
+    /**
+     * Runs all patches against the game jars and writes the emitted classes.
+     * The {@link MethodPatch}es go through the {@link PatchEngine} first, any other patch sees their output.
+     */
+    private Map<String, byte[]> patch(FabricLauncher launcher, List<Path> gameJars) {
+        List<GameJarIndex> indices = new ArrayList<>(gameJars.size());
+
+        try {
+            for (Path jar : gameJars) {
+                indices.add(GameJarIndex.get(jar));
+            }
+        } catch (IOException e) {
+            throw ExceptionUtil.wrap(e);
+        }
+
+        List<MethodPatch> methodPatches = new ArrayList<>();
+        List<GamePatch> gamePatches = new ArrayList<>();
+        for (GamePatch patch : patches) {
+            if (patch instanceof MethodPatch) {
+                methodPatches.add((MethodPatch) patch);
+            } else {
+                gamePatches.add(patch);
+            }
+        }
+
+        long start = System.nanoTime();
+        Map<String, byte[]> classes = new HashMap<>(PatchEngine.run(launcher, methodPatches, name -> readClass(indices, name)));
+        LoaderMetrics.transformer("patch engine").record(System.nanoTime() - start, classes.size());
+        if (gamePatches.isEmpty()) {
+            return classes;
+        }
+
+        Map<String, ClassNode> patchedClassNodes = new LinkedHashMap<>();
+        // Later patches have to see the changes made by earlier ones
+        Function<String, ClassReader> classSource = name -> {
+            ClassNode patched = patchedClassNodes.get(name);
+            if (patched != null) {
+                return new ClassReader(write(patched));
+            }
+            byte[] data = classes.containsKey(name) ? classes.get(name) : readClass(indices, name);
+            return data != null ? new ClassReader(data) : null;
+        };
+
+        for (GamePatch patch : gamePatches) {
+            int patched = patchedClassNodes.size();
+            start = System.nanoTime();
+            try (StartupTrace.Span ignored = StartupTrace.begin("patch", patch.getClass().getSimpleName())) {
+                patch.process(launcher, classSource, node -> patchedClassNodes.put(node.name.replace('/', '.'), node));
+            }
+            LoaderMetrics.transformer(patch.getClass().getSimpleName()).record(System.nanoTime() - start, patchedClassNodes.size() - patched);
+        }
+
+        for (Map.Entry<String, ClassNode> entry : patchedClassNodes.entrySet()) {
+            classes.put(entry.getKey(), write(entry.getValue()));
+        }
+        return classes;
+    }
+
+    private static byte[] readClass(List<GameJarIndex> indices, String name) {
+        for (GameJarIndex index : indices) {
+            try {
+                byte[] data = index.getClassBytes(name);
+                if (data != null) {
+                    return data;
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(String.format("error reading %s in %s: %s", name, index.getJar(), e), e);
+            }
+        }
+        return null;
+    }
+
+    private static byte[] write(ClassNode node) {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        node.accept(writer);
+        return writer.toByteArray();
+    }
+
+    /**
+     * Marks the classes this thread transforms until {@link #endRead()} as read, not defined.
+     * Reads nest, so this has to be paired with {@link #endRead()} in a {@code finally}.
+     */
+    public static void beginRead() {
+        READS.get()[0]++;
+    }
+
+    public static void endRead() {
+        READS.get()[0]--;
+    }
+
+    @Override
+    public byte[] transform(String className) {
+        long start = System.nanoTime();
+        if (READS.get()[0] == 0) {
+            LoaderMetrics.classLoaded();
+            KNOT_CLASSES.increment();
+            if (prefetcher != null) {
+                prefetcher.record(className);
+            }
+            if (heapAccounting != null) {
+                heapAccounting.classDefined(className);
+            }
+        }
+
+        byte[] transformed = getTransformed(className);
+        TIMER.record(System.nanoTime() - start, transformed != null ? 1 : 0);
+        if (transformed != null || prefetcher == null) {
+            return transformed;
+        }
+        // Unpatched classes are returned as they are, which saves Knot from reading them
+        return prefetcher.take(className);
+    }
+
+    /**
+     * @return the baked or patched class or {@code null} if the game's class is used as it is
+     */
+    private byte[] getTransformed(String className) {
+        if (baked != null) {
+            try {
+                byte[] bytes = baked.getClassBytes(className);
+                if (bytes != null) {
+                    return bytes;
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(String.format("error reading %s in %s: %s", className, baked.getJar(), e), e);
+            }
+        }
+        return patchedClasses.get(className);
+    }
+}
@@ -0,0 +1,228 @@
+package art.xeloboyo.airshipsloader.gameprovider.patch;
+
+import art.xeloboyo.airshipsloader.api.AssetPreloader;
+import art.xeloboyo.airshipsloader.gameprovider.services.AirshipGameHooks;
+import art.xeloboyo.airshipsloader.gameprovider.services.AirshipGameProvider;
+import art.xeloboyo.airshipsloader.gameprovider.services.AssetInputStream;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.loader.impl.game.patch.GamePatch;
+import net.fabricmc.loader.impl.launch.FabricLauncher;
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.*;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Lets the game's asset loading take the files the {@link AssetPreloader} read ahead.
+ * <br>
+ * In the game's methods that read files, each {@code new FileInputStream(...)} becomes an {@link AssetInputStream},
+ * and {@code ImageIO.read(File)} and {@code Files.readAllBytes(Path)} call the hooks of the same name,
+ * which take the file from the preloader or read it as usual.
+ * <br>
+ * Once a launch recorded which methods read the files the game needs to start (see {@link #setReaders(Set)}),
+ * only those are patched. Before that nothing is preloaded and the patch only has to find them:
+ * the game loads its images, sounds and data files while {@link AirshipGameProvider#CLIENT_ENTRYPOINT} is constructed,
+ * mostly in the game's own loaders its constructors call. So the patch starts at the constructors and follows every call
+ * into a game class from there, breadth first and up to {@value #MAX_METHODS} methods.
+ * A call is followed to the method it names, or the one it inherits from a game class. Overrides of it in subclasses
+ * are not, the walk doesn't know which class the object has.
+ * <br>
+ * The patched methods may run later in the game too, which is fine: once the game has started nothing is preloaded
+ * and the redirected reads go to the disk.
+ */
+public class AirshipsAssetPatch extends GamePatch {
+    private static final String FILE_INPUT_STREAM = "java.io.FileInputStream";
+    private static final String ASSET_INPUT_STREAM = Type.getInternalName(AssetInputStream.class);
+    private static final String READ_IMAGE = "(Ljava/io/File;)Ljava/awt/image/BufferedImage;";
+    private static final String READ_ALL_BYTES = "(Ljava/nio/file/Path;)[B";
+    /** Bounds the walk, patching in more methods than the startup could reach would only cost time */
+    private static final int MAX_METHODS = 4096;
+
+    private Set<String> readers = Collections.emptySet();
+
+    /**
+     * @param readers the game's methods that read the files the last startup read, as {@code <class>#<method>}.
+     * All overloads of a method are patched. Empty to find them by following the calls of the game's constructor.
+     */
+    public void setReaders(Set<String> readers) {
+        this.readers = readers;
+    }
+
+    @Override
+    public void process(FabricLauncher launcher, Function<String, ClassReader> classSource, Consumer<ClassNode> classEmitter) {
+        // A dedicated server has no assets
+        if (launcher.getEnvironmentType() == EnvType.SERVER) {
+            Log.debug(LogCategory.GAME_PATCH, "Not preloading assets on a dedicated server");
+            return;
+        }
+
+        List<PatchDefinition> definitions = define();
+        InsnAutomaton automaton = InsnAutomaton.compile(definitions);
+        int[] applied = new int[definitions.size()];
+
+        Walk walk = new Walk(classSource);
+        Set<String> changed = new LinkedHashSet<>();
+        int methods = 0;
+        if (!readers.isEmpty()) {
+            for (String reader : readers) {
+                int separator = reader.indexOf('#');
+                if (separator > 0) {
+                    walk.enqueue(reader.substring(0, separator).replace('.', '/'), reader.substring(separator + 1), null);
+                }
+            }
+            for (MethodNode method; (method = walk.next()) != null; methods++) {
+                if (automaton.apply(method, applied)) {
+                    changed.add(walk.owner(method));
+                }
+            }
+            Log.debug(LogCategory.GAME_PATCH, "Patched %d of the %d methods that read the game's files at the last startup",
+                    changed.size(), methods);
+        } else {
+            walk.enqueue(AirshipGameProvider.CLIENT_ENTRYPOINT.replace('.', '/'), "<init>", null);
+            for (MethodNode method; methods < MAX_METHODS && (method = walk.next()) != null; methods++) {
+                // Before patching, the replaced calls lead out of the game anyway
+                walk.enqueueCalls(method);
+                if (automaton.apply(method, applied)) {
+                    changed.add(walk.owner(method));
+                }
+            }
+            if (methods == MAX_METHODS) {
+                Log.warn(LogCategory.GAME_PATCH, "Stopped following the calls of the game's constructor after %d methods, "
+                        + "the files read in the methods it didn't reach aren't preloaded. The next launch only patches the methods that read files",
+                        MAX_METHODS);
+            }
+
+            for (int i = 0; i < definitions.size(); i++) {
+                if (applied[i] > 0) {
+                    Log.debug(LogCategory.GAME_PATCH, "Applied %s %d time%s", definitions.get(i), applied[i], applied[i] != 1 ? "s" : "");
+                } else {
+                    Log.warn(LogCategory.GAME_PATCH, "Failed to apply %s. Instruction not found in the %d methods the game's constructor reaches.",
+                            definitions.get(i), methods);
+                }
+            }
+        }
+        for (String name : changed) {
+            classEmitter.accept(walk.classes.get(name));
+        }
+    }
+
+    private static List<PatchDefinition> define() {
+        // NEW java/io/FileInputStream, DUP, <arguments>, INVOKESPECIAL java/io/FileInputStream.<init>
+        // becomes the same with AssetInputStream, which has the same constructors
+        return Arrays.asList(
+                new PatchDefinition.Builder("asset stream")
+                        .setTarget(AirshipGameProvider.CLIENT_ENTRYPOINT)
+                        .setMethod(PatchDefinition.ANY_METHOD, null)
+                        .at(InsnMatcher.type(Opcodes.NEW, FILE_INPUT_STREAM))
+                        .replace(insn -> PatchDefinition.insns(new TypeInsnNode(Opcodes.NEW, ASSET_INPUT_STREAM)))
+                        .build(),
+                new PatchDefinition.Builder("asset stream constructor")
+                        .setTarget(AirshipGameProvider.CLIENT_ENTRYPOINT)
+                        .setMethod(PatchDefinition.ANY_METHOD, null)
+                        .at(InsnMatcher.invoke(FILE_INPUT_STREAM, "<init>", null))
+                        .replace(insn -> PatchDefinition.insns(new MethodInsnNode(Opcodes.INVOKESPECIAL, ASSET_INPUT_STREAM, "<init>",
+                                ((MethodInsnNode) insn).desc, false)))
+                        .build(),
+                new PatchDefinition.Builder("asset image")
+                        .setTarget(AirshipGameProvider.CLIENT_ENTRYPOINT)
+                        .setMethod(PatchDefinition.ANY_METHOD, null)
+                        .at(InsnMatcher.invoke("javax.imageio.ImageIO", "read", READ_IMAGE))
+                        .replace(insn -> PatchDefinition.insns(callHook("readImage", READ_IMAGE)))
+                        .build(),
+                new PatchDefinition.Builder("asset bytes")
+                        .setTarget(AirshipGameProvider.CLIENT_ENTRYPOINT)
+                        .setMethod(PatchDefinition.ANY_METHOD, null)
+                        .at(InsnMatcher.invoke("java.nio.file.Files", "readAllBytes", READ_ALL_BYTES))
+                        .replace(insn -> PatchDefinition.insns(callHook("readAllBytes", READ_ALL_BYTES)))
+                        .build());
+    }
+
+    private static MethodInsnNode callHook(String hook, String descriptor) {
+        return new MethodInsnNode(Opcodes.INVOKESTATIC, AirshipGameHooks.INTERNAL_NAME, hook, descriptor, false);
+    }
+
+    /**
+     * The methods of game classes reachable from the constructor, each one handed out once.
+     */
+    private static final class Walk {
+        private final Function<String, ClassReader> classSource;
+        /** By fully-qualified name, {@code null} for classes that aren't the game's */
+        private final Map<String, ClassNode> classes = new HashMap<>();
+        private final Map<MethodNode, String> owners = new IdentityHashMap<>();
+        private final Set<MethodNode> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final Deque<MethodNode> queue = new ArrayDeque<>();
+
+        Walk(Function<String, ClassReader> classSource) {
+            this.classSource = classSource;
+        }
+
+        MethodNode next() {
+            return queue.poll();
+        }
+
+        String owner(MethodNode method) {
+            return owners.get(method);
+        }
+
+        void enqueueCalls(MethodNode method) {
+            for (AbstractInsnNode insn : method.instructions) {
+                if (insn instanceof MethodInsnNode) {
+                    MethodInsnNode call = (MethodInsnNode) insn;
+                    enqueue(call.owner, call.name, call.desc);
+                } else if (insn instanceof InvokeDynamicInsnNode) {
+                    // Lambdas and method references
+                    for (Object argument : ((InvokeDynamicInsnNode) insn).bsmArgs) {
+                        if (argument instanceof Handle) {
+                            Handle handle = (Handle) argument;
+                            enqueue(handle.getOwner(), handle.getName(), handle.getDesc());
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * @param descriptor {@code null} for every method of that name
+         */
+        void enqueue(String owner, String name, String descriptor) {
+            for (String type = owner; type != null; ) {
+                ClassNode node = read(type);
+                if (node == null) return;
+
+                boolean found = false;
+                for (MethodNode method : node.methods) {
+                    if (method.name.equals(name) && (descriptor == null || method.desc.equals(descriptor))) {
+                        found = true;
+                        if (method.instructions.size() > 0 && seen.add(method)) {
+                            owners.put(method, node.name.replace('/', '.'));
+                            queue.add(method);
+                        }
+                    }
+                }
+                // Constructors aren't inherited
+                if (found || name.equals("<init>")) return;
+                type = node.superName;
+            }
+        }
+
+        private ClassNode read(String internalName) {
+            if (internalName.startsWith("[") || internalName.startsWith("java/") || internalName.equals(AirshipGameHooks.INTERNAL_NAME)) {
+                return null;
+            }
+            String name = internalName.replace('/', '.');
+            if (classes.containsKey(name)) return classes.get(name);
+
+            ClassReader reader = classSource.apply(name);
+            ClassNode node = reader != null ? readClass(reader) : null;
+            classes.put(name, node);
+            return node;
+        }
+    }
+}
@@ -2,85 +2,55 @@ package art.xeloboyo.airshipsloader.gameprovider.patch;
 
 import art.xeloboyo.airshipsloader.gameprovider.*;
 import art.xeloboyo.airshipsloader.gameprovider.services.*;
+import net.fabricmc.api.EnvType;
 import net.fabricmc.loader.impl.game.minecraft.patch.*;
-import net.fabricmc.loader.impl.game.patch.GamePatch;
 import net.fabricmc.loader.impl.launch.FabricLauncher;
 import net.fabricmc.loader.impl.util.log.Log;
 import net.fabricmc.loader.impl.util.log.LogCategory;
-import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.*;
 
-import java.util.ListIterator;
-import java.util.function.Consumer;
-import java.util.function.Function;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
 
-public class AirshipsBrandingPatch extends GamePatch {
+public class AirshipsBrandingPatch extends DeclarativePatch {
 
-    private static final int VAR_INDEX = 7;
-
-    @Override
-    public void process(FabricLauncher launcher, Function<String, ClassReader> classSource, Consumer<ClassNode> classEmitter) {
-        ClassNode menuClass = readClass(classSource.apply("com.zarkonnen.airships.MainMenu"));
-
-        // This is a more complicated example of bytecode maioulation
-        //
-
-        boolean applied = false;
-        // Search all methods
-        for (MethodNode node : menuClass.methods) {
-            // for one with the signature "build(Larc/scene/Group;)V" aka. "void build(arc.scene.Group param1)"
-            // arc.scene.Group is a class of the Arc engine from the game Mindustry
-            if (node.name.equals("render")) {
-                Log.debug(LogCategory.GAME_PATCH, "Applying brand name hook to %s::%s", menuClass.name, node.name);
-
-                // Search all instructions
-                ListIterator<AbstractInsnNode> it = node.instructions.iterator();
-                while (it.hasNext()) {
-                    AbstractInsnNode insn = it.next();
-                    // make sure your ide supports viewing bytecode.
-                    // here we are searching for 'LDC "1.1.1"'
-                    // and replacing it with our version
-                    //
-                    boolean is_ldc = false;
-                    if (insn instanceof LdcInsnNode) {
-                      is_ldc = true;
-                    }
-                    if(insn.getOpcode() == Opcodes.LDC && is_ldc && ((LdcInsnNode)insn).cst.equals("1.2.2")){
-                        it.set(new LdcInsnNode("1.2.2 " + AirshipGameHooks.getBrand()));
-                        //it.next();
-                        //it.add(new VarInsnNode(Opcodes.ALOAD, 1));
-                        //it.add(Utils.getASMStaticMethodCall(AirshipGameHooks.class,"insertBranding",StringBuilder.class));
-                        applied = true;
-                        break;
-                    }
-                    /*
-                    // For a variable write (store) instruction
-                    // That writes to the VAR_INDEX-th variable in the function
-                    if (insn.getOpcode() == Opcodes.ASTORE && insn instanceof VarInsnNode varInsn && varInsn.var == VAR_INDEX) {
-                        // Insert the instructions generated by injectedDummyCode()
+    /** The detected game version, its raw string is what the main menu renders */
+    private final Supplier<GameVersion> gameVersion;
 
+    public AirshipsBrandingPatch(Supplier<GameVersion> gameVersion) {
+        this.gameVersion = gameVersion;
+    }
 
-                        it.add(new VarInsnNode(Opcodes.ALOAD, VAR_INDEX));
-                        it.add(new MethodInsnNode(
-                                Opcodes.INVOKESTATIC,
-                                AirshipGameHooks.INTERNAL_NAME,
-                                "insertBranding",
-                                "(Ljava/lang/String;)Ljava/lang/String;",
-                                false));
-                        it.add(new VarInsnNode(Opcodes.ASTORE, VAR_INDEX));
-                        applied = true;
-                        break;
-                    }*/
-                }
-            }
+    @Override
+    protected List<PatchDefinition> define(FabricLauncher launcher) {
+        // A dedicated server never shows the main menu, not even reading it saves some time
+        if (launcher.getEnvironmentType() == EnvType.SERVER) {
+            Log.debug(LogCategory.GAME_PATCH, "Not applying the brand name on a dedicated server");
+            return Collections.emptyList();
         }
 
-        if (applied) {
-            classEmitter.accept(menuClass);
-        } else {
-            Log.warn(LogCategory.GAME_PATCH, "Failed to apply brand name. Instruction not found.");
+        String version = gameVersion.get() != null ? gameVersion.get().raw : null;
+        if (version == null) {
+            Log.warn(LogCategory.GAME_PATCH, "Failed to apply brand name. The game version is unknown.");
+            return Collections.emptyList();
         }
+
+        // make sure your ide supports viewing bytecode.
+        // here we are searching for 'LDC "1.2.2"' (the detected version) in MainMenu#render
+        // and replacing it with our version
+        //
+        // To call AirshipGameHooks#insertBranding on a local variable instead, the instructions
+        // generated by injectedDummyCode() would be inserted after its store:
+        //   .at(InsnMatcher.opcodes(Opcodes.ASTORE))
+        //   .insertAfter(() -> PatchDefinition.insns(new VarInsnNode(Opcodes.ALOAD, 7), new MethodInsnNode(...), new VarInsnNode(Opcodes.ASTORE, 7)))
+        return Collections.singletonList(new PatchDefinition.Builder("brand name")
+                .setTarget(AirshipGameProvider.MAIN_MENU)
+                .setMethod("render", null)
+                .at(InsnMatcher.ldc(version))
+                .setOrdinal(0)
+                .replace(insn -> PatchDefinition.insns(new LdcInsnNode(version + " " + AirshipGameHooks.getBrand())))
+                .build());
     }
 
     // This is dummy code used to see what a piece of bytecode would look like
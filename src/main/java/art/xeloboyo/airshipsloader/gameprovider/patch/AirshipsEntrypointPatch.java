@@ -1,100 +1,131 @@
 package art.xeloboyo.airshipsloader.gameprovider.patch;
 
-import java.util.function.Consumer;
-import java.util.function.Function;
-import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.AbstractInsnNode;
-import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.InsnNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.MethodNode;
+import art.xeloboyo.airshipsloader.gameprovider.AirshipsSystemProperties;
 import art.xeloboyo.airshipsloader.gameprovider.services.AirshipGameHooks;
 import art.xeloboyo.airshipsloader.gameprovider.services.AirshipGameProvider;
 import net.fabricmc.api.ModInitializer;
-import net.fabricmc.loader.impl.game.patch.GamePatch;
 import net.fabricmc.loader.impl.launch.FabricLauncher;
 import net.fabricmc.loader.impl.util.log.Log;
 import net.fabricmc.loader.impl.util.log.LogCategory;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * This class injects the {@link ModInitializer#onInitialize()} hooks.
  * Where you inject depends on your game.
  * <br>
  * It should, imo, be after the game has loaded the essential systems and assets and before the main loop.
  */
-public class AirshipsEntrypointPatch extends GamePatch {
+public class AirshipsEntrypointPatch extends DeclarativePatch {
+    /**
+     * The client's entrypoint implements catengine's {@code Game}, whose {@code input(Input)} and {@code render(Frame)}
+     * the engine calls once per frame. Only those overloads are patched, a hook in a second {@code render} would run twice a frame.
+     */
+    private static final String INPUT_DESCRIPTOR = "(Lcom/zarkonnen/catengine/Input;)V";
+    private static final String RENDER_DESCRIPTOR = "(Lcom/zarkonnen/catengine/Frame;)V";
+
     @Override
-    public void process(FabricLauncher launcher, Function<String, ClassReader> classSource,
-                        Consumer<ClassNode> classEmitter) {
+    protected List<PatchDefinition> define(FabricLauncher launcher) {
         // Same as GameProvider#getEntrypoint()
         String entrypoint = launcher.getEntrypoint();
         Log.info(LogCategory.GAME_PATCH, "Entrypoint is " + entrypoint);
-        // 'Read'/'Parse' the class
-        ClassNode entrypointClazz = readClass(classSource.apply(entrypoint));
-        if (entrypointClazz == null) {
-            throw new LinkageError("Could not load entrypoint class " + entrypoint + "!");
-        }
-        Log.info(LogCategory.GAME_PATCH, "Entrypoint class is " + entrypointClazz);
 
-        // Modify it
+        // Injects a call to AirshipGameHooks#initClient() or AirshipGameHooks#initServer() at the end of init()V
+        String hook;
         if (entrypoint.equals(AirshipGameProvider.CLIENT_ENTRYPOINT)) {
-            injectClientHook(entrypointClazz);
+            hook = "initClient";
         } else if (entrypoint.equals(AirshipGameProvider.SERVER_ENTRYPOINT)) {
-            injectServerHook(entrypointClazz);
+            hook = "initServer";
         } else {
             // Should not be possible
             throw new IllegalArgumentException("Unknown entrypoint " + entrypoint + ".");
         }
 
-        // 'Write' it again
-        classEmitter.accept(entrypointClazz);
-    }
+        List<PatchDefinition> definitions = new ArrayList<>();
+        definitions.add(new PatchDefinition.Builder("entrypoint hook")
+                .setTarget(entrypoint)
+                .setMethod("<init>", "()V")
+                .atTail()
+                .insertBefore(() -> PatchDefinition.insns(callHook(hook)))
+                // Without the hooks no mod is ever initialized
+                .setRequired(true)
+                .build());
 
-    /**
-     * Injects a call to {@link AirshipGameHooks#initClient()} in {@code init()V}
-     */
-    private void injectClientHook(ClassNode entrypoint) {
-        // find the method "init()V"
-        MethodNode initMethod = findMethod(entrypoint, (method) -> {
-            Log.info(LogCategory.GAME_PATCH,method.name);
-            return method.name.equals("<init>") && method.desc.equals("()V");
-        });
-        if (initMethod == null) {
-            throw new NoSuchMethodError("Could not find init method in " + entrypoint + ".");
+        // The methods the game loop calls once per tick, the first one to start it and the second one to end it
+        String tickStart;
+        String tickEnd;
+        String tickStartDescriptor;
+        String tickEndDescriptor;
+        boolean tickRequired;
+        if (entrypoint.equals(AirshipGameProvider.CLIENT_ENTRYPOINT)) {
+            // Injects a call to AirshipGameHooks#onFrame() at the start of render(), which the game calls every frame
+            definitions.add(new PatchDefinition.Builder("frame hook")
+                    .setTarget(entrypoint)
+                    .setMethod("render", RENDER_DESCRIPTOR)
+                    .atHead()
+                    .insertBefore(() -> PatchDefinition.insns(callHook("onFrame")))
+                    .build());
+            // Every frame the engine calls input() first and render() last
+            tickStart = "input";
+            tickStartDescriptor = INPUT_DESCRIPTOR;
+            tickEnd = "render";
+            tickEndDescriptor = RENDER_DESCRIPTOR;
+            tickRequired = false;
+        } else {
+            // Which method of the server runs once per tick isn't known for every release, so it has to be named
+            String tick = System.getProperty(AirshipsSystemProperties.SERVER_TICK);
+            if (tick == null) {
+                Log.warn(LogCategory.GAME_PATCH, "The server has no tick hooks, TickListeners and the stall watchdog are never called. "
+                        + "-D%s=<method><descriptor> names the server's tick method, e.g. tick()V", AirshipsSystemProperties.SERVER_TICK);
+                return definitions;
+            }
+            int descriptor = tick.indexOf('(');
+            if (descriptor <= 0 || tick.indexOf(')', descriptor) < 0) {
+                throw new IllegalArgumentException("-D" + AirshipsSystemProperties.SERVER_TICK + " has to be <method><descriptor>, not " + tick);
+            }
+            tickStart = tickEnd = tick.substring(0, descriptor);
+            tickStartDescriptor = tickEndDescriptor = tick.substring(descriptor);
+            // Named on purpose, a server that doesn't have it should fail instead of running without the hooks
+            tickRequired = true;
         }
 
-        injectTailInsn(initMethod, new MethodInsnNode(
-                Opcodes.INVOKESTATIC,
-                AirshipGameHooks.INTERNAL_NAME,
-                "initClient",
-                "()V",
-                false));
+        // Injects calls to AirshipGameHooks#preTick() and #postTick(), which run the TickListeners of all mods
+        definitions.add(new PatchDefinition.Builder("pre-tick hook")
+                .setTarget(entrypoint)
+                .setMethod(tickStart, tickStartDescriptor)
+                .atHead()
+                .insertBefore(() -> PatchDefinition.insns(callHook("preTick")))
+                .setRequired(tickRequired)
+                .build());
+        definitions.add(new PatchDefinition.Builder("post-tick hook")
+                .setTarget(entrypoint)
+                .setMethod(tickEnd, tickEndDescriptor)
+                // Every return, not just the last one like TAIL
+                .at(InsnMatcher.returns())
+                .setOrdinal(PatchDefinition.ALL)
+                .insertBefore(() -> PatchDefinition.insns(callHook("postTick")))
+                .setRequired(tickRequired)
+                .build());
+        return definitions;
     }
 
-    /**
-     * Injects a call to {@link AirshipGameHooks#initServer()} in {@code init()V}
-     */
-    private void injectServerHook(ClassNode entrypoint) {
-        MethodNode initMethod = findMethod(entrypoint, (method) -> method.name.equals("<init>") && method.desc.equals("()V"));
-        if (initMethod == null) {
-            throw new NoSuchMethodError("Could not find init method in " + entrypoint + ".");
-        }
-
-        injectTailInsn(initMethod, new MethodInsnNode(
-                Opcodes.INVOKESTATIC,
-                AirshipGameHooks.INTERNAL_NAME,
-                "initServer",
-                "()V",
-                false));
+    private static MethodInsnNode callHook(String hook) {
+        return new MethodInsnNode(Opcodes.INVOKESTATIC, AirshipGameHooks.INTERNAL_NAME, hook, "()V", false);
     }
 
     /**
-     * Comparable to @Inject(at = @At("TAIL")) in a mixin class
+     * Comparable to @Inject(at = @At("TAIL")) in a mixin class.
+     * This is the hand-written version of {@link PatchDefinition.Builder#atTail()}.
      * @see org.spongepowered.asm.mixin.injection.points.BeforeFinalReturn#find
      */
-    private static void injectTailInsn(MethodNode method, AbstractInsnNode injectedInsn) {
+    public static void injectTailInsn(MethodNode method, AbstractInsnNode injectedInsn) {
         AbstractInsnNode ret = null;
 
         // RETURN opcode varies based on return type, thus we calculate what opcode we're actually looking for by inspecting the target method
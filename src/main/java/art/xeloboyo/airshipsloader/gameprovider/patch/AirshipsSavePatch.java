@@ -0,0 +1,79 @@
+package art.xeloboyo.airshipsloader.gameprovider.patch;
+
+import art.xeloboyo.airshipsloader.gameprovider.AirshipsSystemProperties;
+import art.xeloboyo.airshipsloader.gameprovider.services.AirshipGameHooks;
+import art.xeloboyo.airshipsloader.gameprovider.services.SaveOutputStream;
+import net.fabricmc.loader.impl.launch.FabricLauncher;
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Moves writing save games to disk off the main thread, on the client and the server,
+ * enabled with {@code -Dairships.asyncSaves=<class>#<save method>#<load method>}.
+ * <br>
+ * Every {@code new FileOutputStream(...)} in the game's save method becomes a {@link SaveOutputStream},
+ * which keeps the save in memory until the game closes it. The game still serializes its state on the main thread,
+ * so the save is consistent, but it no longer waits for the disk.
+ * Before the game loads a save it waits for the saves that aren't written yet.
+ * <br>
+ * Which class writes the saves isn't known for every release of the game, so nothing is patched unless it is named.
+ * Once it is every definition is required, a save routine that doesn't look as expected fails the launch
+ * instead of saving on the main thread without a word.
+ */
+public class AirshipsSavePatch extends DeclarativePatch {
+    private static final String FILE_OUTPUT_STREAM = "java.io.FileOutputStream";
+    private static final String SAVE_OUTPUT_STREAM = Type.getInternalName(SaveOutputStream.class);
+
+    @Override
+    protected List<PatchDefinition> define(FabricLauncher launcher) {
+        String routine = System.getProperty(AirshipsSystemProperties.ASYNC_SAVES);
+        if (routine == null) {
+            Log.debug(LogCategory.GAME_PATCH, "Saving on the main thread, -D%s names the game's save routine", AirshipsSystemProperties.ASYNC_SAVES);
+            return Collections.emptyList();
+        }
+
+        String[] parts = routine.split("#");
+        if (parts.length != 3 || parts[0].isEmpty() || parts[1].isEmpty() || parts[2].isEmpty()) {
+            throw new IllegalArgumentException("-D" + AirshipsSystemProperties.ASYNC_SAVES + " has to be <class>#<save method>#<load method>, not " + routine);
+        }
+        String target = parts[0];
+        String save = parts[1];
+        String load = parts[2];
+
+        // NEW java/io/FileOutputStream, DUP, <arguments>, INVOKESPECIAL java/io/FileOutputStream.<init>
+        // becomes the same with SaveOutputStream, which has the same constructors
+        return Arrays.asList(
+                new PatchDefinition.Builder("save stream")
+                        .setTarget(target)
+                        .setMethod(save, null)
+                        .at(InsnMatcher.type(Opcodes.NEW, FILE_OUTPUT_STREAM))
+                        .replace(insn -> PatchDefinition.insns(new TypeInsnNode(Opcodes.NEW, SAVE_OUTPUT_STREAM)))
+                        .setRequired(true)
+                        .build(),
+                new PatchDefinition.Builder("save stream constructor")
+                        .setTarget(target)
+                        .setMethod(save, null)
+                        .at(InsnMatcher.invoke(FILE_OUTPUT_STREAM, "<init>", null))
+                        .replace(insn -> PatchDefinition.insns(new MethodInsnNode(Opcodes.INVOKESPECIAL, SAVE_OUTPUT_STREAM, "<init>",
+                                ((MethodInsnNode) insn).desc, false)))
+                        .setRequired(true)
+                        .build(),
+                // Injects a call to AirshipGameHooks#flushSaves() at the start of the load method
+                new PatchDefinition.Builder("save flush")
+                        .setTarget(target)
+                        .setMethod(load, null)
+                        .atHead()
+                        .insertBefore(() -> PatchDefinition.insns(
+                                new MethodInsnNode(Opcodes.INVOKESTATIC, AirshipGameHooks.INTERNAL_NAME, "flushSaves", "()V", false)))
+                        .setRequired(true)
+                        .build());
+    }
+}
@@ -0,0 +1,87 @@
+package art.xeloboyo.airshipsloader.gameprovider.patch;
+
+import net.fabricmc.loader.impl.launch.FabricLauncher;
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.List;
+
+/**
+ * A {@link MethodPatch} made of {@link PatchDefinition}s, all for the same class.
+ * <br>
+ * The definitions are created and compiled once per launch, every matched method is then walked once for all of them.
+ */
+public abstract class DeclarativePatch extends MethodPatch {
+    private List<PatchDefinition> definitions;
+    private InsnAutomaton automaton;
+    private int[] applied;
+    /** The methods every definition was applied in */
+    private int[] methods;
+
+    /**
+     * @return the definitions for this launch, empty if the patch doesn't apply
+     */
+    protected abstract List<PatchDefinition> define(FabricLauncher launcher);
+
+    @Override
+    public String getTargetClass(FabricLauncher launcher) {
+        definitions = define(launcher);
+        if (definitions.isEmpty()) {
+            return null;
+        }
+
+        String target = definitions.get(0).target;
+        for (PatchDefinition definition : definitions) {
+            if (!definition.target.equals(target)) {
+                throw new IllegalStateException(getClass().getSimpleName() + " targets both " + target + " and " + definition.target);
+            }
+        }
+
+        automaton = InsnAutomaton.compile(definitions);
+        applied = new int[definitions.size()];
+        methods = new int[definitions.size()];
+        return target;
+    }
+
+    @Override
+    public boolean matches(String className, String name, String descriptor) {
+        for (PatchDefinition definition : definitions) {
+            if (definition.matchesMethod(name, descriptor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean apply(String className, MethodNode method) {
+        int[] before = applied.clone();
+        boolean changed = automaton.apply(method, applied);
+        for (int i = 0; i < applied.length; i++) {
+            if (applied[i] != before[i]) methods[i]++;
+        }
+        return changed;
+    }
+
+    @Override
+    public void finish(String className, boolean applied) {
+        for (int i = 0; i < definitions.size(); i++) {
+            PatchDefinition definition = definitions.get(i);
+            if (methods[i] > 1) {
+                // Most likely overloads, which a definition without a descriptor matches all of
+                Log.warn(LogCategory.GAME_PATCH, "Applied %s to %d methods named %s::%s, give it a descriptor if it should only be one",
+                        definition, methods[i], className, definition.methodName);
+            }
+            if (this.applied[i] > 0) {
+                Log.debug(LogCategory.GAME_PATCH, "Applied %s to %s::%s %d time%s", definition, className, definition.methodName,
+                        this.applied[i], this.applied[i] != 1 ? "s" : "");
+            } else if (definition.required) {
+                throw new NoSuchMethodError(String.format("Could not apply %s, no match in %s::%s%s.", definition,
+                        className, definition.methodName, definition.methodDescriptor != null ? definition.methodDescriptor : ""));
+            } else {
+                Log.warn(LogCategory.GAME_PATCH, "Failed to apply %s. Instruction not found in %s::%s.", definition, className, definition.methodName);
+            }
+        }
+    }
+}
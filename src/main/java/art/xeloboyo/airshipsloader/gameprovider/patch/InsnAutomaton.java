@@ -0,0 +1,193 @@
+package art.xeloboyo.airshipsloader.gameprovider.patch;
+
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.*;
+
+/**
+ * The matchers of a set of {@link PatchDefinition}s compiled into a table of first steps by opcode.
+ * <br>
+ * A method is walked once: every instruction advances the partial matches that are waiting for it
+ * and starts new ones only for the definitions whose first step can match its opcode.
+ * The actions are applied after the walk, so every definition sees the original code.
+ */
+final class InsnAutomaton {
+    private static final int[] NONE = new int[0];
+
+    private final PatchDefinition[] definitions;
+    /** opcode -> indices of the definitions that can start there */
+    private final int[][] starts = new int[256][];
+
+    private InsnAutomaton(List<PatchDefinition> definitions) {
+        this.definitions = definitions.toArray(new PatchDefinition[0]);
+
+        List<List<Integer>> byOpcode = new ArrayList<>(256);
+        for (int i = 0; i < 256; i++) {
+            byOpcode.add(new ArrayList<>(0));
+        }
+        for (int i = 0; i < this.definitions.length; i++) {
+            InsnMatcher matcher = this.definitions[i].matcher;
+            if (matcher == null) continue;
+
+            for (int opcode : matcher.steps[0].opcodes) {
+                byOpcode.get(opcode).add(i);
+            }
+        }
+        for (int opcode = 0; opcode < 256; opcode++) {
+            List<Integer> indices = byOpcode.get(opcode);
+            if (indices.isEmpty()) {
+                starts[opcode] = NONE;
+            } else {
+                starts[opcode] = new int[indices.size()];
+                for (int i = 0; i < indices.size(); i++) {
+                    starts[opcode][i] = indices.get(i);
+                }
+            }
+        }
+    }
+
+    static InsnAutomaton compile(List<PatchDefinition> definitions) {
+        return new InsnAutomaton(definitions);
+    }
+
+    /**
+     * @param applied incremented for every match a definition was applied at
+     * @return whether the method was changed
+     */
+    boolean apply(MethodNode method, int[] applied) {
+        boolean[] active = new boolean[definitions.length];
+        boolean any = false;
+        for (int i = 0; i < definitions.length; i++) {
+            active[i] = definitions[i].matchesMethod(method.name, method.desc);
+            any |= active[i];
+        }
+        if (!any) return false;
+
+        List<AbstractInsnNode[]>[] matches = find(method.instructions, active);
+
+        boolean changed = false;
+        Set<AbstractInsnNode> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = 0; i < definitions.length; i++) {
+            if (!active[i]) continue;
+            PatchDefinition definition = definitions[i];
+
+            if (definition.isHead()) {
+                method.instructions.insert(definition.code.apply(method.instructions.getFirst()));
+                applied[i]++;
+                changed = true;
+                continue;
+            }
+
+            for (AbstractInsnNode[] match : select(matches[i], definition.ordinal)) {
+                if (removed.contains(match[0]) || removed.contains(match[1])) {
+                    Log.debug(LogCategory.GAME_PATCH, "Skipping a match of %s in %s, it was replaced by an earlier definition", definition, method.name);
+                    continue;
+                }
+                apply(method.instructions, definition, match[0], match[1], removed);
+                applied[i]++;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @return the first and last instruction of every match, by definition
+     */
+    @SuppressWarnings("unchecked")
+    private List<AbstractInsnNode[]>[] find(InsnList instructions, boolean[] active) {
+        List<AbstractInsnNode[]>[] matches = new List[definitions.length];
+
+        // The partial matches, as parallel arrays: definition, next step and first instruction
+        int[] partialDefinition = new int[8];
+        int[] partialStep = new int[8];
+        AbstractInsnNode[] partialFirst = new AbstractInsnNode[8];
+        int partials = 0;
+
+        for (AbstractInsnNode insn = instructions.getFirst(); insn != null; insn = insn.getNext()) {
+            int opcode = insn.getOpcode();
+            // labels, line numbers and frames
+            if (opcode < 0) continue;
+
+            int kept = 0;
+            for (int p = 0; p < partials; p++) {
+                int d = partialDefinition[p];
+                InsnMatcher.Step[] steps = definitions[d].matcher.steps;
+                if (!steps[partialStep[p]].accepts(insn)) continue;
+
+                if (partialStep[p] + 1 == steps.length) {
+                    add(matches, d, partialFirst[p], insn);
+                } else {
+                    partialDefinition[kept] = d;
+                    partialStep[kept] = partialStep[p] + 1;
+                    partialFirst[kept] = partialFirst[p];
+                    kept++;
+                }
+            }
+            partials = kept;
+
+            for (int d : starts[opcode]) {
+                if (!active[d]) continue;
+                InsnMatcher.Step[] steps = definitions[d].matcher.steps;
+                if (!steps[0].accepts(insn)) continue;
+
+                if (steps.length == 1) {
+                    add(matches, d, insn, insn);
+                } else {
+                    if (partials == partialDefinition.length) {
+                        partialDefinition = Arrays.copyOf(partialDefinition, partials * 2);
+                        partialStep = Arrays.copyOf(partialStep, partials * 2);
+                        partialFirst = Arrays.copyOf(partialFirst, partials * 2);
+                    }
+                    partialDefinition[partials] = d;
+                    partialStep[partials] = 1;
+                    partialFirst[partials] = insn;
+                    partials++;
+                }
+            }
+        }
+        return matches;
+    }
+
+    private static void add(List<AbstractInsnNode[]>[] matches, int definition, AbstractInsnNode first, AbstractInsnNode last) {
+        if (matches[definition] == null) {
+            matches[definition] = new ArrayList<>(1);
+        }
+        matches[definition].add(new AbstractInsnNode[]{first, last});
+    }
+
+    private static List<AbstractInsnNode[]> select(List<AbstractInsnNode[]> matches, int ordinal) {
+        if (matches == null) return Collections.emptyList();
+
+        if (ordinal == PatchDefinition.ALL) return matches;
+        if (ordinal == PatchDefinition.LAST) return Collections.singletonList(matches.get(matches.size() - 1));
+        return ordinal < matches.size() ? Collections.singletonList(matches.get(ordinal)) : Collections.emptyList();
+    }
+
+    private static void apply(InsnList instructions, PatchDefinition definition, AbstractInsnNode first, AbstractInsnNode last,
+                              Set<AbstractInsnNode> removed) {
+        switch (definition.action) {
+            case INSERT_BEFORE:
+                instructions.insertBefore(first, definition.code.apply(first));
+                break;
+            case INSERT_AFTER:
+                instructions.insert(last, definition.code.apply(first));
+                break;
+            case REPLACE:
+                instructions.insertBefore(first, definition.code.apply(first));
+                AbstractInsnNode insn = first;
+                while (true) {
+                    AbstractInsnNode next = insn.getNext();
+                    instructions.remove(insn);
+                    removed.add(insn);
+                    if (insn == last) break;
+                    insn = next;
+                }
+                break;
+        }
+    }
+}
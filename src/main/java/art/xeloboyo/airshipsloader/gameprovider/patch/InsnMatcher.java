@@ -0,0 +1,126 @@
+package art.xeloboyo.airshipsloader.gameprovider.patch;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.*;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/**
+ * Matches a sequence of consecutive instructions, labels, line numbers and frames are skipped.
+ * <br>
+ * Every step knows the opcodes it can match, which lets the {@link InsnAutomaton} index all matchers of a method by opcode
+ * instead of trying each one on every instruction. Owner and type names can be given as {@code a.b.C} or {@code a/b/C},
+ * {@code null} matches anything.
+ */
+public final class InsnMatcher {
+    final Step[] steps;
+
+    private InsnMatcher(Step... steps) {
+        this.steps = steps;
+    }
+
+    /**
+     * {@code LDC value}, e.g. a string or an integer constant
+     */
+    public static InsnMatcher ldc(Object value) {
+        return new InsnMatcher(new Step(new int[]{Opcodes.LDC}, insn -> value.equals(((LdcInsnNode) insn).cst)));
+    }
+
+    /**
+     * Any {@code INVOKE*} of the method
+     */
+    public static InsnMatcher invoke(String owner, String name, String descriptor) {
+        String internalOwner = toInternalName(owner);
+        return new InsnMatcher(new Step(new int[]{Opcodes.INVOKEVIRTUAL, Opcodes.INVOKESPECIAL, Opcodes.INVOKESTATIC, Opcodes.INVOKEINTERFACE},
+                insn -> {
+                    MethodInsnNode call = (MethodInsnNode) insn;
+                    return matches(internalOwner, call.owner) && matches(name, call.name) && matches(descriptor, call.desc);
+                }));
+    }
+
+    /**
+     * Any read or write of the field
+     */
+    public static InsnMatcher field(String owner, String name, String descriptor) {
+        return field(new int[]{Opcodes.GETSTATIC, Opcodes.PUTSTATIC, Opcodes.GETFIELD, Opcodes.PUTFIELD}, owner, name, descriptor);
+    }
+
+    /**
+     * @param opcode one of {@code GETSTATIC}, {@code PUTSTATIC}, {@code GETFIELD} or {@code PUTFIELD}
+     */
+    public static InsnMatcher field(int opcode, String owner, String name, String descriptor) {
+        return field(new int[]{opcode}, owner, name, descriptor);
+    }
+
+    private static InsnMatcher field(int[] opcodes, String owner, String name, String descriptor) {
+        String internalOwner = toInternalName(owner);
+        return new InsnMatcher(new Step(opcodes, insn -> {
+            FieldInsnNode field = (FieldInsnNode) insn;
+            return matches(internalOwner, field.owner) && matches(name, field.name) && matches(descriptor, field.desc);
+        }));
+    }
+
+    /**
+     * @param opcode one of {@code NEW}, {@code ANEWARRAY}, {@code CHECKCAST} or {@code INSTANCEOF}
+     */
+    public static InsnMatcher type(int opcode, String type) {
+        String internalName = toInternalName(type);
+        return new InsnMatcher(new Step(new int[]{opcode}, insn -> matches(internalName, ((TypeInsnNode) insn).desc)));
+    }
+
+    /**
+     * The opcodes one after another, e.g. {@code opcodes(ALOAD, ICONST_1, PUTFIELD)}
+     */
+    public static InsnMatcher opcodes(int... opcodes) {
+        Step[] steps = new Step[opcodes.length];
+        for (int i = 0; i < opcodes.length; i++) {
+            steps[i] = new Step(new int[]{opcodes[i]}, null);
+        }
+        return new InsnMatcher(steps);
+    }
+
+    /**
+     * Any return instruction, a method only ever uses the one of its return type
+     */
+    public static InsnMatcher returns() {
+        return new InsnMatcher(new Step(new int[]{Opcodes.IRETURN, Opcodes.LRETURN, Opcodes.FRETURN, Opcodes.DRETURN, Opcodes.ARETURN, Opcodes.RETURN}, null));
+    }
+
+    /**
+     * @return a matcher for this sequence directly followed by {@code next}
+     */
+    public InsnMatcher then(InsnMatcher next) {
+        Step[] steps = Arrays.copyOf(this.steps, this.steps.length + next.steps.length);
+        System.arraycopy(next.steps, 0, steps, this.steps.length, next.steps.length);
+        return new InsnMatcher(steps);
+    }
+
+    private static boolean matches(String expected, String actual) {
+        return expected == null || expected.equals(actual);
+    }
+
+    private static String toInternalName(String name) {
+        return name != null ? name.replace('.', '/') : null;
+    }
+
+    static final class Step {
+        final int[] opcodes;
+        private final Predicate<AbstractInsnNode> predicate;
+
+        Step(int[] opcodes, Predicate<AbstractInsnNode> predicate) {
+            this.opcodes = opcodes;
+            this.predicate = predicate;
+        }
+
+        boolean accepts(AbstractInsnNode insn) {
+            int opcode = insn.getOpcode();
+            for (int candidate : opcodes) {
+                if (candidate == opcode) {
+                    return predicate == null || predicate.test(insn);
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package art.xeloboyo.airshipsloader.gameprovider.patch;
+
+import net.fabricmc.loader.impl.game.patch.GamePatch;
+import net.fabricmc.loader.impl.launch.FabricLauncher;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A patch that changes some methods of one class.
+ * <br>
+ * Unlike a plain {@link GamePatch} it says up front which class and which methods it wants, so the {@link PatchEngine}
+ * can run all patches of a class in the same pass and only build a {@link MethodNode} for the matched methods.
+ * It is still a {@link GamePatch}, so it also works with fabric's own {@link net.fabricmc.loader.impl.game.patch.GameTransformer}.
+ */
+public abstract class MethodPatch extends GamePatch {
+    /**
+     * @return the fully-qualified name of the class to patch or {@code null} if the patch doesn't apply to this launch
+     */
+    public abstract String getTargetClass(FabricLauncher launcher);
+
+    /**
+     * Decides from the signature alone, the method's code hasn't been read yet.
+     */
+    public abstract boolean matches(String className, String name, String descriptor);
+
+    /**
+     * Patches a matched method.
+     * @return whether the method was changed
+     */
+    public abstract boolean apply(String className, MethodNode method);
+
+    /**
+     * Called once the target class was patched, by default a patch that changed nothing is only logged.
+     * Throw here if the patch is required.
+     */
+    public void finish(String className, boolean applied) {
+        if (!applied) {
+            PatchEngine.warnNotApplied(this, className);
+        }
+    }
+
+    /**
+     * The {@link GamePatch} way: reads the whole class and emits it if any method was changed.
+     */
+    @Override
+    public void process(FabricLauncher launcher, Function<String, ClassReader> classSource, Consumer<ClassNode> classEmitter) {
+        String target = getTargetClass(launcher);
+        if (target == null) {
+            return;
+        }
+
+        ClassReader reader = classSource.apply(target);
+        if (reader == null) {
+            throw new LinkageError("Could not load target class " + target + " of " + getClass().getSimpleName() + "!");
+        }
+        ClassNode node = readClass(reader);
+
+        boolean applied = false;
+        for (MethodNode method : node.methods) {
+            if (matches(target, method.name, method.desc)) {
+                applied |= apply(target, method);
+            }
+        }
+        finish(target, applied);
+
+        if (applied) {
+            classEmitter.accept(node);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package art.xeloboyo.airshipsloader.gameprovider.patch;
+
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnList;
+
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Describes a patch instead of writing the instruction loop by hand: the method to patch, where, and what to do there.
+ * <pre>
+ * new PatchDefinition.Builder("init hook")
+ *         .setTarget("com.zarkonnen.airships.AirshipGame")
+ *         .setMethod("&lt;init&gt;", "()V")
+ *         .atTail()
+ *         .insertBefore(() -&gt; PatchDefinition.insns(new MethodInsnNode(...)))
+ *         .setRequired(true)
+ *         .build();
+ * </pre>
+ * Definitions are applied by a {@link DeclarativePatch}.
+ */
+public final class PatchDefinition {
+    /** Every match of the matcher */
+    public static final int ALL = -1;
+    /** Only the last match of the matcher */
+    public static final int LAST = -2;
+    /** The method name of a definition that applies to any method its patch walks, like the {@link AirshipsAssetPatch}'s */
+    public static final String ANY_METHOD = "*";
+
+    public enum Action {
+        INSERT_BEFORE, INSERT_AFTER, REPLACE
+    }
+
+    public final String name;
+    /** The fully-qualified class name */
+    public final String target;
+    public final String methodName;
+    /** {@code null} matches any descriptor */
+    public final String methodDescriptor;
+    /** {@code null} for the head of the method */
+    public final InsnMatcher matcher;
+    /** Which match to patch, the n-th (from 0), {@link #ALL} or {@link #LAST} */
+    public final int ordinal;
+    public final Action action;
+    /** Creates the replacement from the first matched instruction, called once per match */
+    public final Function<AbstractInsnNode, InsnList> code;
+    /** A required definition that doesn't match fails the launch, others are only logged */
+    public final boolean required;
+
+    private PatchDefinition(Builder builder) {
+        this.name = builder.name;
+        this.target = builder.target;
+        this.methodName = builder.methodName;
+        this.methodDescriptor = builder.methodDescriptor;
+        this.matcher = builder.matcher;
+        this.ordinal = builder.ordinal;
+        this.action = builder.action;
+        this.code = builder.code;
+        this.required = builder.required;
+    }
+
+    public boolean matchesMethod(String name, String descriptor) {
+        return (methodName.equals(ANY_METHOD) || methodName.equals(name)) && (methodDescriptor == null || methodDescriptor.equals(descriptor));
+    }
+
+    public boolean isHead() {
+        return matcher == null;
+    }
+
+    /**
+     * @return a new list of the instructions, use it in the code supplier so every match gets its own nodes
+     */
+    public static InsnList insns(AbstractInsnNode... insns) {
+        InsnList list = new InsnList();
+        for (AbstractInsnNode insn : insns) {
+            list.add(insn);
+        }
+        return list;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    public static final class Builder {
+        private final String name;
+        private String target;
+        private String methodName;
+        private String methodDescriptor;
+        private InsnMatcher matcher;
+        private boolean head;
+        private int ordinal = ALL;
+        private Action action;
+        private Function<AbstractInsnNode, InsnList> code;
+        private boolean required;
+
+        public Builder(String name) {
+            this.name = name;
+        }
+
+        public Builder setTarget(String target) {
+            this.target = target;
+            return this;
+        }
+
+        /**
+         * @param descriptor {@code null} for any descriptor
+         */
+        public Builder setMethod(String name, String descriptor) {
+            this.methodName = name;
+            this.methodDescriptor = descriptor;
+            return this;
+        }
+
+        public Builder at(InsnMatcher matcher) {
+            this.matcher = matcher;
+            this.head = false;
+            return this;
+        }
+
+        /**
+         * Before the first instruction, comparable to @At("HEAD") in a mixin. Only works with {@link #insertBefore}.
+         */
+        public Builder atHead() {
+            this.matcher = null;
+            this.head = true;
+            return this;
+        }
+
+        /**
+         * The last return of the method, comparable to @At("TAIL") in a mixin
+         */
+        public Builder atTail() {
+            return at(InsnMatcher.returns()).setOrdinal(LAST);
+        }
+
+        public Builder setOrdinal(int ordinal) {
+            this.ordinal = ordinal;
+            return this;
+        }
+
+        public Builder insertBefore(Supplier<InsnList> code) {
+            return setAction(Action.INSERT_BEFORE, insn -> code.get());
+        }
+
+        public Builder insertAfter(Supplier<InsnList> code) {
+            return setAction(Action.INSERT_AFTER, insn -> code.get());
+        }
+
+        /**
+         * Replaces all matched instructions
+         * @param code gets the first matched instruction
+         */
+        public Builder replace(Function<AbstractInsnNode, InsnList> code) {
+            return setAction(Action.REPLACE, code);
+        }
+
+        public Builder setRequired(boolean required) {
+            this.required = required;
+            return this;
+        }
+
+        private Builder setAction(Action action, Function<AbstractInsnNode, InsnList> code) {
+            this.action = action;
+            this.code = code;
+            return this;
+        }
+
+        public PatchDefinition build() {
+            if (target == null || methodName == null) {
+                throw new IllegalStateException("Patch definition " + name + " needs a target class and method");
+            }
+            if ((matcher == null && !head) || action == null) {
+                throw new IllegalStateException("Patch definition " + name + " needs a position and an action");
+            }
+            if (head && action != Action.INSERT_BEFORE) {
+                throw new IllegalStateException("Patch definition " + name + " can only insert before the head of the method");
+            }
+            return new PatchDefinition(this);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package art.xeloboyo.airshipsloader.gameprovider.patch;
+
+import art.xeloboyo.airshipsloader.gameprovider.diagnostics.StartupTrace;
+import net.fabricmc.loader.impl.launch.FabricLauncher;
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Applies {@link MethodPatch}es with one read and one write per class, no matter how many patches target it.
+ * <br>
+ * The class is streamed from a {@link ClassReader} into a {@link ClassWriter}. Only the methods some patch
+ * {@link MethodPatch#matches matches} are collected into a {@link MethodNode}, every other method is copied as-is.
+ * Different classes don't depend on each other, so they are patched on a small thread pool.
+ */
+public final class PatchEngine {
+    private static final int MAX_THREADS = 4;
+
+    private PatchEngine() {
+    }
+
+    /**
+     * @param classBytes the unpatched class by its fully-qualified name, {@code null} if it doesn't exist
+     * @return the patched classes by fully-qualified name, classes no patch changed are left out
+     */
+    public static Map<String, byte[]> run(FabricLauncher launcher, List<MethodPatch> patches, Function<String, byte[]> classBytes) {
+        // Registration order is kept within a class, so patches of the same method see each other's changes
+        Map<String, List<MethodPatch>> targets = new LinkedHashMap<>();
+        for (MethodPatch patch : patches) {
+            String target = patch.getTargetClass(launcher);
+            if (target != null) {
+                targets.computeIfAbsent(target, k -> new ArrayList<>()).add(patch);
+            }
+        }
+
+        Map<String, byte[]> patched = new ConcurrentHashMap<>();
+        if (targets.size() <= 1) {
+            for (Map.Entry<String, List<MethodPatch>> entry : targets.entrySet()) {
+                patchClass(entry.getKey(), entry.getValue(), classBytes, patched);
+            }
+            return patched;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(targets.size(), Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors())),
+                threadFactory());
+        try {
+            List<Future<?>> futures = new ArrayList<>(targets.size());
+            for (Map.Entry<String, List<MethodPatch>> entry : targets.entrySet()) {
+                futures.add(executor.submit(() -> patchClass(entry.getKey(), entry.getValue(), classBytes, patched)));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // The patches throw LinkageErrors and RuntimeExceptions, keep them as they are
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Error) throw (Error) cause;
+                    if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                    throw new RuntimeException(cause);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while patching", e);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return patched;
+    }
+
+    private static void patchClass(String className, List<MethodPatch> patches, Function<String, byte[]> classBytes,
+                                   Map<String, byte[]> patched) {
+        try (StartupTrace.Span ignored = StartupTrace.begin("patch", className)) {
+            byte[] bytes = classBytes.apply(className);
+            if (bytes == null) {
+                throw new LinkageError("Could not load target class " + className + " of " + patches.get(0).getClass().getSimpleName() + "!");
+            }
+
+            ClassReader reader = new ClassReader(bytes);
+            // Passing the reader lets the writer copy untouched methods without parsing their code
+            ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+            boolean[] applied = new boolean[patches.size()];
+            reader.accept(new PatchingClassVisitor(writer, className, patches, applied), 0);
+
+            boolean any = false;
+            for (int i = 0; i < patches.size(); i++) {
+                patches.get(i).finish(className, applied[i]);
+                any |= applied[i];
+            }
+
+            if (any) {
+                patched.put(className, writer.toByteArray());
+            }
+        }
+    }
+
+    static void warnNotApplied(MethodPatch patch, String className) {
+        Log.warn(LogCategory.GAME_PATCH, "%s did not change anything in %s", patch.getClass().getSimpleName(), className);
+    }
+
+    private static ThreadFactory threadFactory() {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "Patch Worker-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static final class PatchingClassVisitor extends ClassVisitor {
+        private final String className;
+        private final List<MethodPatch> patches;
+        private final boolean[] applied;
+
+        PatchingClassVisitor(ClassVisitor next, String className, List<MethodPatch> patches, boolean[] applied) {
+            super(Opcodes.ASM9, next);
+            this.className = className;
+            this.patches = patches;
+            this.applied = applied;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            MethodVisitor next = super.visitMethod(access, name, descriptor, signature, exceptions);
+
+            int[] matched = null;
+            int count = 0;
+            for (int i = 0; i < patches.size(); i++) {
+                if (patches.get(i).matches(className, name, descriptor)) {
+                    if (matched == null) matched = new int[patches.size()];
+                    matched[count++] = i;
+                }
+            }
+            if (matched == null) {
+                return next;
+            }
+
+            int[] indices = Arrays.copyOf(matched, count);
+            return new MethodNode(Opcodes.ASM9, access, name, descriptor, signature, exceptions) {
+                @Override
+                public void visitEnd() {
+                    for (int i : indices) {
+                        applied[i] |= patches.get(i).apply(className, this);
+                    }
+                    accept(next);
+                }
+            };
+        }
+    }
+}
@@ -1,15 +1,27 @@
 package art.xeloboyo.airshipsloader.gameprovider.services;
 
+import art.xeloboyo.airshipsloader.api.AssetPreloader;
+import art.xeloboyo.airshipsloader.api.AsyncModInitializer;
+import art.xeloboyo.airshipsloader.api.TickBus;
+import art.xeloboyo.airshipsloader.api.TickListener;
+import art.xeloboyo.airshipsloader.gameprovider.cache.MixinCache;
+import art.xeloboyo.airshipsloader.gameprovider.diagnostics.FrameProfiler;
+import art.xeloboyo.airshipsloader.gameprovider.diagnostics.StallWatchdog;
+import art.xeloboyo.airshipsloader.gameprovider.diagnostics.StartupTrace;
 import art.xeloboyo.airshipsloader.gameprovider.patch.*;
 import net.fabricmc.api.ClientModInitializer;
 import net.fabricmc.api.DedicatedServerModInitializer;
 import net.fabricmc.api.ModInitializer;
 import net.fabricmc.loader.impl.FabricLoaderImpl;
-import net.fabricmc.loader.impl.entrypoint.EntrypointUtils;
 import net.fabricmc.loader.impl.util.log.Log;
 import net.fabricmc.loader.impl.util.log.LogCategory;
 import org.objectweb.asm.tree.ClassNode;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
@@ -21,26 +33,169 @@ import java.nio.file.Paths;
 public final class AirshipGameHooks{
     public static final String INTERNAL_NAME = AirshipGameHooks.class.getName().replace('.', '/');
 
+    /** Started by {@link AirshipGameProvider#launch(ClassLoader)}, ended once the game calls a hook */
+    static StartupTrace.Span launchSpan;
+    /** The {@link AsyncModInitializer}s that weren't handed over to the main thread yet, only used from the main thread */
+    private static ModInitializers.AsyncStage<AsyncModInitializer> asyncInit;
+    /** Set by {@link AirshipGameProvider#launch(ClassLoader)} with {@code --profileFrames true}, before the game starts */
+    static FrameProfiler frameProfiler;
+    /** Set by {@link AirshipGameProvider#launch(ClassLoader)} unless disabled or in host mode, started by the init hooks */
+    static StallWatchdog stallWatchdog;
+    /** Set by {@link AirshipGameProvider#launch(ClassLoader)} on the client, unless asset preloading is disabled */
+    static GameAssets gameAssets;
+    /** Set by {@link AirshipGameProvider#launch(ClassLoader)} unless the caches are disabled, written by the init hooks */
+    static MixinCache mixinCache;
+    /** Set by {@link ServerHost}, whose servers tick on their own threads, so only one of them calls the {@link TickBus} at a time */
+    static volatile Object tickLock;
+    /** Guarded by the class lock, see {@link #initServer()} */
+    private static boolean serverInitialized;
+
     /**
      * This method is called by code injected in {@link AirshipsEntrypointPatch} #injectClientHook(ClassNode)
      */
     public static void initClient() {
-        Path runDir = Paths.get(".");
-        FabricLoaderImpl.INSTANCE.prepareModInit(runDir, FabricLoaderImpl.INSTANCE.getGameInstance());
-        // Call the entrypoints of all mods specified in fabric.mods.json > entrypoints > main
-        EntrypointUtils.invoke("main", ModInitializer.class, ModInitializer::onInitialize);
-        // Call the entrypoints of all mods specified in fabric.mods.json > entrypoints > client
-        EntrypointUtils.invoke("client", ClientModInitializer.class, ClientModInitializer::onInitializeClient);
+        if (launchSpan != null) launchSpan.close();
+
+        try (StartupTrace.Span ignored = StartupTrace.begin("hook", "initClient")) {
+            Path runDir = Paths.get(".");
+            FabricLoaderImpl.INSTANCE.prepareModInit(runDir, FabricLoaderImpl.INSTANCE.getGameInstance());
+            // Call the entrypoints of all mods specified in fabric.mods.json > entrypoints > main
+            ModInitializers.invoke("main", ModInitializer.class, ModInitializer::onInitialize);
+            // Call the entrypoints of all mods specified in fabric.mods.json > entrypoints > client
+            ModInitializers.invoke("client", ClientModInitializer.class, ClientModInitializer::onInitializeClient);
+            ModInitializers.invoke(TickListener.ENTRYPOINT, TickListener.class, TickBus::register);
+            // Finished by onFrame(), the game can go on without them
+            asyncInit = ModInitializers.invokeAsync(AsyncModInitializer.ENTRYPOINT, AsyncModInitializer.class, AsyncModInitializer::onInitializeAsync);
+        }
+        // The game and the mods had their chance to take the preloaded assets
+        if (gameAssets != null) {
+            gameAssets.finish();
+        } else {
+            AssetPreloader.finish();
+        }
+        startStallWatchdog();
+        storeMixinCache();
+        StartupTrace.write(getProvider().getDiagnosticsDirectory());
     }
 
     /**
      * This method is called by code injected in {@link AirshipsEntrypointPatch} #injectServerHook(ClassNode)
      */
-    public static void initServer() {
-        Path runDir = Paths.get(".");
-        FabricLoaderImpl.INSTANCE.prepareModInit(runDir, FabricLoaderImpl.INSTANCE.getGameInstance());
-        EntrypointUtils.invoke("main", ModInitializer.class, ModInitializer::onInitialize);
-        EntrypointUtils.invoke("server", DedicatedServerModInitializer.class, DedicatedServerModInitializer::onInitializeServer);
+    public static synchronized void initServer() {
+        // In host mode every server gets here, the mods are shared and only initialized by the first one
+        if (serverInitialized) return;
+        serverInitialized = true;
+        if (launchSpan != null) launchSpan.close();
+
+        try (StartupTrace.Span ignored = StartupTrace.begin("hook", "initServer")) {
+            Path runDir = Paths.get(".");
+            FabricLoaderImpl.INSTANCE.prepareModInit(runDir, FabricLoaderImpl.INSTANCE.getGameInstance());
+            ModInitializers.invoke("main", ModInitializer.class, ModInitializer::onInitialize);
+            ModInitializers.invoke("server", DedicatedServerModInitializer.class, DedicatedServerModInitializer::onInitializeServer);
+            ModInitializers.invoke(TickListener.ENTRYPOINT, TickListener.class, TickBus::register);
+            // There is no frame on a server to finish them in, but the mods still initialize in parallel
+            ModInitializers.invokeAsync(AsyncModInitializer.ENTRYPOINT, AsyncModInitializer.class, AsyncModInitializer::onInitializeAsync)
+                    .join(AsyncModInitializer::onInitializeComplete);
+        }
+        AssetPreloader.finish();
+        startStallWatchdog();
+        storeMixinCache();
+        StartupTrace.write(getProvider().getDiagnosticsDirectory());
+    }
+
+    /**
+     * Writes what Mixin did during the startup on a background thread, not only at shutdown: a server that is killed never gets there.
+     */
+    private static void storeMixinCache() {
+        if (mixinCache == null) return;
+        Thread thread = new Thread(mixinCache::store, "Mixin Cache Writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * The thread that ran the initializers is the one that runs the game loop
+     */
+    private static void startStallWatchdog() {
+        if (stallWatchdog != null) stallWatchdog.start(Thread.currentThread());
+    }
+
+    /**
+     * This method is called by code injected in {@link AirshipsEntrypointPatch} at the start of every frame of the client.
+     * <br>
+     * It hands the {@link AsyncModInitializer}s that are done over to the main thread, without waiting for the others.
+     */
+    public static void onFrame() {
+        if (asyncInit != null && asyncInit.poll(AsyncModInitializer::onInitializeComplete)) {
+            asyncInit = null;
+            // Now with the async initializers
+            StartupTrace.write(getProvider().getDiagnosticsDirectory());
+        }
+    }
+
+    /**
+     * This method is called by code injected in {@link AirshipsEntrypointPatch} at the start of every tick, see {@link TickBus}.
+     */
+    public static void preTick() {
+        StallWatchdog watchdog = stallWatchdog;
+        if (watchdog != null) watchdog.beat();
+        FrameProfiler profiler = frameProfiler;
+        if (profiler != null) profiler.startTick();
+        Object lock = tickLock;
+        if (lock == null) {
+            TickBus.preTick();
+        } else {
+            synchronized (lock) {
+                TickBus.preTick();
+            }
+        }
+    }
+
+    /**
+     * This method is called by code injected in {@link AirshipsEntrypointPatch} at the end of every tick, see {@link TickBus}.
+     */
+    public static void postTick() {
+        Object lock = tickLock;
+        if (lock == null) {
+            TickBus.postTick();
+        } else {
+            synchronized (lock) {
+                TickBus.postTick();
+            }
+        }
+        FrameProfiler profiler = frameProfiler;
+        if (profiler != null) profiler.endTick();
+    }
+
+    /**
+     * This method is called by code injected in {@link AirshipsAssetPatch} instead of {@link ImageIO#read(File)}.
+     */
+    public static BufferedImage readImage(File file) throws IOException {
+        GameAssets assets = gameAssets;
+        BufferedImage image = assets != null ? assets.takeImage(file.toPath()) : null;
+        return image != null ? image : ImageIO.read(file);
+    }
+
+    /**
+     * This method is called by code injected in {@link AirshipsAssetPatch} instead of {@link Files#readAllBytes(Path)}.
+     */
+    public static byte[] readAllBytes(Path file) throws IOException {
+        GameAssets assets = gameAssets;
+        byte[] bytes = assets != null ? assets.takeBytes(file) : null;
+        return bytes != null ? bytes : Files.readAllBytes(file);
+    }
+
+    /**
+     * This method is called by code injected in {@link AirshipsSavePatch} before the game loads a save,
+     * so it never reads one that is still being written.
+     * @throws IOException if saves failed to be written since the last call, so the game shows it instead of loading an old save
+     */
+    public static void flushSaves() throws IOException {
+        SaveWriter.flush();
+    }
+
+    static AirshipGameProvider getProvider() {
+        return (AirshipGameProvider) FabricLoaderImpl.INSTANCE.getGameProvider();
     }
 
     public static String getBrand(){
@@ -1,11 +1,27 @@
 package art.xeloboyo.airshipsloader.gameprovider.services;
 
 import art.xeloboyo.airshipsloader.gameprovider.*;
-import art.xeloboyo.airshipsloader.gameprovider.GameVersion.*;
+import art.xeloboyo.airshipsloader.gameprovider.cache.ClassCache;
+import art.xeloboyo.airshipsloader.gameprovider.cache.Fingerprint;
+import art.xeloboyo.airshipsloader.gameprovider.cache.GameJarIndex;
+import art.xeloboyo.airshipsloader.gameprovider.cache.LibraryCache;
+import art.xeloboyo.airshipsloader.gameprovider.cache.LoadOrder;
+import art.xeloboyo.airshipsloader.gameprovider.cache.MixinCache;
+import art.xeloboyo.airshipsloader.gameprovider.cache.PackageIndex;
+import art.xeloboyo.airshipsloader.gameprovider.diagnostics.CpuProfiler;
+import art.xeloboyo.airshipsloader.gameprovider.diagnostics.FrameProfiler;
+import art.xeloboyo.airshipsloader.gameprovider.diagnostics.HeapAccounting;
+import art.xeloboyo.airshipsloader.gameprovider.diagnostics.LoaderMetrics;
+import art.xeloboyo.airshipsloader.gameprovider.diagnostics.StallWatchdog;
+import art.xeloboyo.airshipsloader.gameprovider.diagnostics.StartupTrace;
+import art.xeloboyo.airshipsloader.gameprovider.patch.AirshipGameTransformer;
+import art.xeloboyo.airshipsloader.gameprovider.patch.AirshipsAssetPatch;
 import art.xeloboyo.airshipsloader.gameprovider.patch.AirshipsBrandingPatch;
 import art.xeloboyo.airshipsloader.gameprovider.patch.AirshipsEntrypointPatch;
+import art.xeloboyo.airshipsloader.gameprovider.patch.AirshipsSavePatch;
 import net.fabricmc.api.EnvType;
 import net.fabricmc.loader.api.FabricLoader;
+import net.fabricmc.loader.api.ModContainer;
 import net.fabricmc.loader.impl.FormattedException;
 import net.fabricmc.loader.impl.game.*;
 import net.fabricmc.loader.impl.game.patch.GameTransformer;
@@ -13,9 +29,12 @@ import net.fabricmc.loader.impl.launch.FabricLauncher;
 import net.fabricmc.loader.impl.metadata.BuiltinModMetadata;
 import net.fabricmc.loader.impl.metadata.ContactInformationImpl;
 import net.fabricmc.loader.impl.util.Arguments;
+import net.fabricmc.loader.impl.util.SystemProperties;
+import net.fabricmc.loader.impl.util.UrlUtil;
 import net.fabricmc.loader.impl.util.log.Log;
 import net.fabricmc.loader.impl.util.log.LogCategory;
 
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.nio.file.Files;
@@ -48,10 +67,16 @@ public class AirshipGameProvider implements GameProvider {
     public static final String SERVER_ENTRYPOINT =  "com.zarkonnen.airships.Server";
     /** The fully-qualified class name of the main server class */
     public static final String SERVER_MAIN =  "com.zarkonnen.airships.Server";
+    /** The fully-qualified class name of the main menu, which shows the game version */
+    public static final String MAIN_MENU = "com.zarkonnen.airships.MainMenu";
     /** All possible entrypoints */
     private static final String[] ENTRYPOINTS = new String[]{
             CLIENT_ENTRYPOINT, SERVER_ENTRYPOINT
     };
+    /** The launch argument that enables the {@link FrameProfiler}, {@code --profileFrames true} */
+    public static final String PROFILE_FRAMES_ARG = "profileFrames";
+    /** The launch argument that enables the {@link CpuProfiler}, {@code --profileCpu <samples per second>} or {@code true} */
+    public static final String PROFILE_CPU_ARG = "profileCpu";
     /**
      * If your game has arguments with sensitive data you should add them here,
      * but I am not sure why.
@@ -60,12 +85,16 @@ public class AirshipGameProvider implements GameProvider {
             // all lowercase without --
             "savedir",
             "secrets"));
+    /** Told which methods read the game's files at the last startup */
+    private final AirshipsAssetPatch assetPatch = new AirshipsAssetPatch();
     /**
      * The transformer will orchestrate the game patching.
      */
-    private static final GameTransformer TRANSFORMER = new GameTransformer(
+    private final AirshipGameTransformer transformer = new AirshipGameTransformer(
             new AirshipsEntrypointPatch(),
-            new AirshipsBrandingPatch());
+            new AirshipsBrandingPatch(this::getGameVersion),
+            new AirshipsSavePatch(),
+            assetPatch);
 
     /** The parsed command line arguments */
     private Arguments arguments;
@@ -76,8 +105,26 @@ public class AirshipGameProvider implements GameProvider {
     private String entrypoint;
     /** The path of the game jar that is currently used */
     private Path gameJar;
+    /** The index of {@link #gameJar} */
+    private GameJarIndex gameIndex;
     private GameVersion gameVersion;
     private Collection<Path> validParentClassPath;
+    /** The launcher given to {@link #initialize(FabricLauncher)} */
+    private FabricLauncher launcher;
+    /** The {@link AirshipsLibraries} in the game jar and every jar on the class path */
+    private Map<Path, Set<AirshipsLibraries>> libraries = Collections.emptyMap();
+    /** Whether {@link #PROFILE_FRAMES_ARG} was given */
+    private boolean profileFrames;
+    /** The samples per second {@link #PROFILE_CPU_ARG} asked for, 0 if it wasn't given */
+    private int profileCpuRate;
+    /** Walks the heap when triggered, {@code null} if disabled */
+    private HeapAccounting heapAccounting;
+    /** Loads the classes of the previous session ahead, {@code null} if disabled */
+    private ClassPrefetcher prefetcher;
+    /** {@code null} on the server or if asset preloading is disabled */
+    private GameAssets gameAssets;
+    /** The index of the class path, {@code null} if disabled or the class path can't be indexed */
+    private PackageIndex packageIndex;
 
     /** Just a simple getter to allow mods to access the detailed version info */
     public GameVersion getGameVersion() {
@@ -225,6 +272,12 @@ public class AirshipGameProvider implements GameProvider {
      */
     @Override
     public boolean locateGame(FabricLauncher launcher, String[] args) {
+        try (StartupTrace.Span ignored = StartupTrace.begin("provider", "locateGame")) {
+            return locateGame0(launcher, args);
+        }
+    }
+
+    private boolean locateGame0(FabricLauncher launcher, String[] args) {
         // I'm not very sure about the implementation of this method
         // Minecraft's is quite complicated and all other examples aren't very good
         EnvType envType = launcher.getEnvironmentType();
@@ -241,35 +294,92 @@ public class AirshipGameProvider implements GameProvider {
         List<Path> jarPaths = gameLocations.stream()
         .map(path -> Paths.get(path).toAbsolutePath().normalize())
         .filter(Files::exists).collect(Collectors.toList());
-        // Finds the first jar that contains any class specified by the last parameter
-        GameProviderHelper.FindResult result = GameProviderHelper.findFirst(jarPaths, new HashMap<>(), true, ENTRYPOINTS);
+        // Finds the first jar that contains any class specified by ENTRYPOINTS.
+        // The index of the jar is shared with the version lookup and the patches, so it only has to be read once
+        StartupTrace.Span findSpan = StartupTrace.begin("provider", "find game jar");
+        for (Path jarPath : jarPaths) {
+            try {
+                GameJarIndex index = GameJarIndex.get(jarPath);
+                for (String name : ENTRYPOINTS) {
+                    if (index.containsClass(name)) {
+                        entrypoint = name;
+                        gameIndex = index;
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                Log.warn(LogCategory.GAME_PROVIDER, "Failed to read " + jarPath, e);
+            }
+            if (gameIndex != null) break;
+        }
+        findSpan.close();
 
-        if(result == null || result.path == null){
+        if(gameIndex == null){
             Log.error(LogCategory.GAME_PROVIDER, "Could not locate game. Looked at: \n" + gameLocations.stream()
             .map(path -> " - " + Paths.get(path).toAbsolutePath().normalize())
             .collect(Collectors.joining("\n")));
             return false;
         }
 
-        entrypoint = result.name;
-        gameJar = result.path;
-        gameVersion = new Builder().setNumber(1).setBuild(2).setRevision(2).build();
+        gameJar = gameIndex.getJar();
+        try (StartupTrace.Span ignored = StartupTrace.begin("provider", "version lookup")) {
+            gameVersion = AirshipsVersionLookup.getVersion(gameIndex, getCacheDirectory().resolve("versions.properties"));
+        }
 
-        try{
-            LibClassifier classifier = new LibClassifier<>(AirshipsLibraries.class, envType, this);
+        try {
+            // The constructor only collects fabric's own libraries, it doesn't open any jar
+            LibClassifier<AirshipsLibraries> classifier = new LibClassifier<>(AirshipsLibraries.class, envType, this);
+            validParentClassPath = classifier.getSystemLibraries();
+        } catch (IOException e) {
+            Log.warn(LogCategory.GAME_PROVIDER, "Failed to determine the system libraries", e);
+        }
 
-            classifier.process(gameJar);
-            classifier.process(launcher.getClassPath());
+        try (StartupTrace.Span ignored = StartupTrace.begin("provider", "classify libraries")) {
+            List<Path> classPath = new ArrayList<>();
+            classPath.add(gameJar);
+            classPath.addAll(launcher.getClassPath());
+            LibraryCache cache = new LibraryCache(getCacheDirectory().resolve("libraries.properties"));
+            libraries = cache.classify(AirshipsLibraries.class, envType, classPath);
+            if (envType == EnvType.SERVER) {
+                // Everything was just classified, so this is answered by the cache
+                warnClientLibraries(cache.classify(AirshipsLibraries.class, EnvType.CLIENT, classPath));
+            }
+        }
 
+        if (!Boolean.getBoolean(AirshipsSystemProperties.DISABLE_PACKAGE_INDEX)) {
+            try (StartupTrace.Span ignored = StartupTrace.begin("provider", "index class path")) {
+                // What Knot's parent class loader searches, the game jar is added to Knot itself
+                packageIndex = PackageIndex.build(getCacheDirectory().resolve("package-index.properties"), launcher.getClassPath());
+            }
+        }
 
-            validParentClassPath = classifier.getSystemLibraries();
-        }catch(Exception e){
-            Log.info(LogCategory.GAME_PROVIDER,"Something died when locating game:" + e.toString());
+        AirshipsLibraries gameLibrary = envType == EnvType.SERVER ? AirshipsLibraries.AIRSHIPS_SERVER : AirshipsLibraries.AIRSHIPS_CLIENT;
+        if (!libraries.getOrDefault(gameJar, Collections.emptySet()).contains(gameLibrary)) {
+            Log.warn(LogCategory.GAME_PROVIDER, "The game jar %s doesn't contain %s, this might not be a supported version of Airships",
+                    gameJar, Arrays.toString(gameLibrary.getPaths()));
         }
+
         processArgumentMap(arguments);
         return true;
     }
 
+    /**
+     * The server never renders or plays sound, jars that only do that cost memory and class path lookups.
+     */
+    private void warnClientLibraries(Map<Path, Set<AirshipsLibraries>> clientLibraries) {
+        for (Map.Entry<Path, Set<AirshipsLibraries>> entry : clientLibraries.entrySet()) {
+            // The game has to be there either way
+            if (entry.getKey().equals(gameJar)) continue;
+            for (AirshipsLibraries library : entry.getValue()) {
+                if (library.isClientOnly()) {
+                    Log.warn(LogCategory.GAME_PROVIDER, "%s contains the client library %s which the server doesn't need, "
+                            + "start it with the launcher's --server to leave it off the class path", entry.getKey(), library);
+                    break;
+                }
+            }
+        }
+    }
+
     /**
      * Command line argument parsing
      */
@@ -280,6 +390,14 @@ public class AirshipGameProvider implements GameProvider {
 
         Path launchDir = Paths.get(arguments.get("gameDir"));
         Log.debug(LogCategory.GAME_PROVIDER, "Launch directory is " + launchDir);
+
+        // Ours, the game doesn't need to see it
+        if (arguments.containsKey(PROFILE_FRAMES_ARG)) {
+            profileFrames = !"false".equalsIgnoreCase(arguments.remove(PROFILE_FRAMES_ARG));
+        }
+        if (arguments.containsKey(PROFILE_CPU_ARG)) {
+            profileCpuRate = CpuProfiler.parseRate(arguments.remove(PROFILE_CPU_ARG));
+        }
     }
 
     /**
@@ -292,10 +410,120 @@ public class AirshipGameProvider implements GameProvider {
      */
     @Override
     public void initialize(FabricLauncher launcher) {
-        // This will run your patches against the gameJar
-        // I don't fully understand it
-        launcher.setValidParentClassPath(validParentClassPath);
-        TRANSFORMER.locateEntrypoints(launcher, Collections.singletonList(gameJar));
+        this.launcher = launcher;
+        LoaderMetrics.register(getDiagnosticsDirectory(), Boolean.getBoolean(AirshipsSystemProperties.METRICS_DUMP));
+        if (Boolean.getBoolean(AirshipsSystemProperties.HEAP_ACCOUNTING)) {
+            heapAccounting = new HeapAccounting(getDiagnosticsDirectory().resolve("heap"),
+                    Integer.getInteger(AirshipsSystemProperties.HEAP_ACCOUNTING_BUDGET, HeapAccounting.DEFAULT_BUDGET));
+            transformer.setHeapAccounting(heapAccounting);
+        }
+        try (StartupTrace.Span ignored = StartupTrace.begin("provider", "initialize")) {
+            // This will run your patches against the gameJar
+            // I don't fully understand it
+            launcher.setValidParentClassPath(validParentClassPath);
+            // Knot creates its class loader right before it initializes the provider
+            if (packageIndex != null && !KnotClassPath.install(launcher.getTargetClassLoader(), packageIndex)) {
+                Log.debug(LogCategory.GAME_PROVIDER, "Knot searches the class path without the index");
+            }
+            String fingerprint = getLaunchFingerprint();
+            String patchKey = fingerprint;
+            if (entrypoint.equals(CLIENT_ENTRYPOINT) && !Boolean.getBoolean(AirshipsSystemProperties.DISABLE_ASSET_PRELOAD)) {
+                gameAssets = new GameAssets(getLaunchDirectory(), new LoadOrder(getCacheDirectory().resolve("asset-order"), fingerprint));
+                Set<String> readers = gameAssets.getReaders();
+                assetPatch.setReaders(readers);
+                // The asset patch changes different methods once it knows them
+                Fingerprint key = new Fingerprint().add(fingerprint);
+                for (String reader : readers) {
+                    key.add(reader);
+                }
+                patchKey = key.build();
+            }
+            if (!Boolean.getBoolean(AirshipsSystemProperties.DISABLE_CLASS_CACHE)) {
+                transformer.setCache(new ClassCache(getCacheDirectory().resolve("class-cache"), patchKey));
+            }
+            try (StartupTrace.Span ignored2 = StartupTrace.begin("provider", "locateEntrypoints")) {
+                transformer.locateEntrypoints(launcher, Collections.singletonList(gameJar));
+            }
+            // Baking loads every class anyway
+            if (!Boolean.getBoolean(AirshipsSystemProperties.DISABLE_PREFETCH) && !Boolean.getBoolean(AirshipsSystemProperties.BAKE)) {
+                prefetcher = new ClassPrefetcher(new LoadOrder(getCacheDirectory().resolve("load-order"), fingerprint));
+                transformer.setPrefetcher(prefetcher);
+                // The baked jar replaces the game jar, reading the latter would be wasted
+                if (!Boolean.getBoolean(AirshipsSystemProperties.USE_BAKED)) {
+                    prefetcher.read(gameIndex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reports like the {@link StartupTrace} are written here.
+     */
+    public Path getDiagnosticsDirectory() {
+        return getLaunchDirectory().resolve("diagnostics");
+    }
+
+    /**
+     * The directory for everything this provider caches between launches.
+     * Fabric keeps its own caches in {@code .fabric} as well.
+     */
+    public Path getCacheDirectory() {
+        return getLaunchDirectory().resolve(".fabric").resolve("airships");
+    }
+
+    /**
+     * A hash over everything that affects how the game classes end up being transformed,
+     * see {@link #getLaunchInputs()}.
+     */
+    public String getLaunchFingerprint() {
+        Fingerprint fingerprint = new Fingerprint();
+        for (Map.Entry<String, String> input : getLaunchInputs().entrySet()) {
+            fingerprint.add(input.getKey()).add(input.getValue());
+        }
+        return fingerprint.build();
+    }
+
+    /**
+     * What the {@link MixinCache} is keyed by: the launch fingerprint, the mixin configs Mixin loaded and the version of every mod.
+     */
+    private String getMixinCacheKey() {
+        Fingerprint fingerprint = new Fingerprint().add(getLaunchFingerprint());
+        for (String config : KnotMixins.describeConfigs()) {
+            fingerprint.add(config);
+        }
+        List<String> mods = new ArrayList<>();
+        for (ModContainer mod : FabricLoader.getInstance().getAllMods()) {
+            mods.add(mod.getMetadata().getId() + " " + mod.getMetadata().getVersion().getFriendlyString());
+        }
+        Collections.sort(mods);
+        for (String mod : mods) {
+            fingerprint.add(mod);
+        }
+        return fingerprint.build();
+    }
+
+    /**
+     * The hash of each input of the transformation: the entrypoint, the game jar, fabric-loader, this provider, the mods
+     * and the methods named for the {@link AirshipsSavePatch} and the server's tick hooks.
+     * <br>
+     * Mods are only resolved after {@link #initialize(FabricLauncher)}, so the jars in the mods folder
+     * and those given by {@code fabric.addMods} are used instead.
+     */
+    public Map<String, String> getLaunchInputs() {
+        Map<String, String> inputs = new LinkedHashMap<>();
+        inputs.put("entrypoint", new Fingerprint().add(entrypoint).build());
+        inputs.put("game", new Fingerprint().add(gameJar).build());
+        inputs.put("fabric-loader", new Fingerprint().add(UrlUtil.getCodeSource(GameTransformer.class)).build());
+        inputs.put("provider", new Fingerprint().add(UrlUtil.getCodeSource(AirshipGameProvider.class)).build());
+        inputs.put("mods", new Fingerprint()
+                .addJars(getLaunchDirectory().resolve("mods"))
+                .add(System.getProperty(SystemProperties.ADD_MODS))
+                .build());
+        // Changes what the AirshipsSavePatch does
+        inputs.put("save routine", new Fingerprint().add(System.getProperty(AirshipsSystemProperties.ASYNC_SAVES)).build());
+        // Changes where the AirshipsEntrypointPatch puts the server's tick hooks
+        inputs.put("server tick", new Fingerprint().add(System.getProperty(AirshipsSystemProperties.SERVER_TICK)).build());
+        return inputs;
     }
 
     /**
@@ -303,7 +531,7 @@ public class AirshipGameProvider implements GameProvider {
      */
     @Override
     public GameTransformer getEntrypointTransformer() {
-        return TRANSFORMER;
+        return transformer;
     }
 
     /**
@@ -314,6 +542,10 @@ public class AirshipGameProvider implements GameProvider {
     @Override
     public void unlockClassPath(FabricLauncher launcher) {
         launcher.addToClassPath(gameJar);
+        // Knot created its Mixin transformer right before, the classes Knot defines from now on are told apart from Mixin's reads
+        if (!KnotMixins.markReads(launcher.getTargetClassLoader())) {
+            Log.debug(LogCategory.GAME_PROVIDER, "Can't tell Mixin's reads from defines, every transformed class counts as loaded");
+        }
     }
 
     /**
@@ -333,6 +565,83 @@ public class AirshipGameProvider implements GameProvider {
             throw new RuntimeException("Unknown entrypoint " + entrypoint + ".");
         }
 
+        GameBaker baker = new GameBaker(getCacheDirectory().resolve("baked"), getLaunchInputs());
+        if (Boolean.getBoolean(AirshipsSystemProperties.BAKE)) {
+            try (StartupTrace.Span ignored = StartupTrace.begin("provider", "bake")) {
+                baker.bake(launcher, loader, gameIndex);
+            } catch (IOException e) {
+                throw new FormattedException("Failed to bake the game", e);
+            }
+            // Baking replaces the launch
+            return;
+        }
+        boolean useBaked = false;
+        if (Boolean.getBoolean(AirshipsSystemProperties.USE_BAKED)) {
+            GameJarIndex baked = baker.open();
+            // Mixin must not apply the mods' mixins a second time
+            if (baked != null && KnotMixins.skip(loader, baked::containsClass)) {
+                Log.info(LogCategory.GAME_PROVIDER, "Starting from the baked game %s", baked.getJar());
+                transformer.setBaked(baked);
+                useBaked = true;
+            } else {
+                Log.warn(LogCategory.GAME_PROVIDER, "Can't use the baked game, transforming the game classes as usual");
+            }
+        }
+        // The baked game already went through Mixin
+        if (!useBaked && !Boolean.getBoolean(AirshipsSystemProperties.DISABLE_CLASS_CACHE)) {
+            MixinCache mixinCache = new MixinCache(getCacheDirectory().resolve("mixin-cache"), getMixinCacheKey(), KnotMixins.getPluginTargets());
+            mixinCache.load();
+            if (KnotMixins.cache(loader, mixinCache)) {
+                // Also written once the mods are initialized
+                AirshipGameHooks.mixinCache = mixinCache;
+                Runtime.getRuntime().addShutdownHook(new Thread(mixinCache::store, "Mixin Cache Writer"));
+            } else {
+                Log.debug(LogCategory.GAME_PROVIDER, "Can't cache what Knot's Mixin transformer does");
+            }
+        }
+
+        // Knot creates its Mixin transformer after initialize, so the classes loaded before the launch aren't timed
+        if (!KnotMixins.time(loader, LoaderMetrics.transformer("mixin"))) {
+            Log.debug(LogCategory.GAME_PROVIDER, "Can't time Knot's Mixin transformer");
+        }
+
+        if (heapAccounting != null) {
+            heapAccounting.register(loader);
+        }
+        // Before host mode, servers are profiled as well
+        if (profileCpuRate > 0) {
+            new CpuProfiler(getDiagnosticsDirectory(), profileCpuRate).start();
+        }
+
+        String hostFile = System.getProperty(AirshipsSystemProperties.HOST);
+        if (hostFile != null) {
+            if (prefetcher != null) {
+                prefetcher.skipDefine();
+            }
+            host(loader, targetClass, Paths.get(hostFile));
+            return;
+        }
+
+        if (prefetcher != null) {
+            prefetcher.define(loader);
+        }
+        if (gameAssets != null) {
+            // Mods had their preLaunch entrypoints to preload their own
+            AirshipGameHooks.gameAssets = gameAssets;
+            gameAssets.preload();
+        }
+        if (!Boolean.getBoolean(AirshipsSystemProperties.DISABLE_STALL_WATCHDOG)) {
+            AirshipGameHooks.stallWatchdog = new StallWatchdog(getDiagnosticsDirectory().resolve("stalls"),
+                    Long.getLong(AirshipsSystemProperties.STALL_THRESHOLD, StallWatchdog.DEFAULT_THRESHOLD_MS));
+        }
+        if (profileFrames) {
+            AirshipGameHooks.frameProfiler = new FrameProfiler(getDiagnosticsDirectory());
+            AirshipGameHooks.frameProfiler.start();
+        }
+
+        // Ended by the hooks, once the game reached them
+        AirshipGameHooks.launchSpan = StartupTrace.begin("provider", "launch -> hook");
+
         try {
             Class<?> c = loader.loadClass(targetClass);
             Method m = c.getMethod("main", String[].class);
@@ -344,6 +653,28 @@ public class AirshipGameProvider implements GameProvider {
         }
     }
 
+    /**
+     * Host mode, every server defines its own game classes so loading them into Knot ahead would be wasted.
+     * @see ServerHost
+     */
+    private void host(ClassLoader loader, String targetClass, Path hostFile) {
+        if (!entrypoint.equals(SERVER_ENTRYPOINT)) {
+            throw new FormattedException("Host mode only works for the dedicated server", "Remove -D" + AirshipsSystemProperties.HOST + " or start the server");
+        }
+
+        try {
+            ServerHost host = ServerHost.load(hostFile, arguments);
+            for (ServerHost.Instance instance : host.getInstances()) {
+                processArgumentMap(instance.arguments);
+            }
+            try (StartupTrace.Span ignored = StartupTrace.begin("provider", "host")) {
+                host.run(launcher, loader, gameIndex, targetClass);
+            }
+        } catch (IOException e) {
+            throw new FormattedException("Failed to host the servers", e);
+        }
+    }
+
     /**
      * Just a simple getter.
      */
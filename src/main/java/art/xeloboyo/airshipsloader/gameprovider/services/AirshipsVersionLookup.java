@@ -0,0 +1,182 @@
+package art.xeloboyo.airshipsloader.gameprovider.services;
+
+import art.xeloboyo.airshipsloader.gameprovider.GameVersion;
+import art.xeloboyo.airshipsloader.gameprovider.cache.Fingerprint;
+import art.xeloboyo.airshipsloader.gameprovider.cache.GameJarIndex;
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Airships doesn't ship any version file, the version is only shown on the main menu.
+ * So the version is determined in this order:
+ * <ol>
+ *     <li>the result of an earlier launch with the same game jar (same path, size and mtime)</li>
+ *     <li>the CRC32 of the game jar looked up in {@code airships-versions.properties}, skipped while the table is empty</li>
+ *     <li>the version string among the string constants of {@link AirshipGameProvider#MAIN_MENU}</li>
+ *     <li>{@link #FALLBACK_VERSION}, the version the loader used to assume, with a warning</li>
+ * </ol>
+ * The third one only looks at the constant pool, no class is parsed.
+ * Every result is cached, the fallback too, by the jar and the table, so a jar that is added to the table later is recognized
+ * on the first launch with the new table and other launches don't read the jar at all.
+ * <br>
+ * This is based on the hash approach of <a href="https://github.dev/MiniFabric/MinicraftGameProvider/blob/dba19b59041cde075df93d158034e0707e1a97b8/src/main/java/io/github/pseudodistant/provider/services/GetVersionFromHash.java#L6">MinicraftGameProvider</a>
+ * and on <a href="https://github.dev/FabricMC/fabric-loader/blob/6adfe08efeb04c8dde829053e3cc546c01ef8415/minecraft/src/main/java/net/fabricmc/loader/impl/game/minecraft/McVersionLookup.java#L72">McVersionLookup.java#L72</a>
+ */
+public final class AirshipsVersionLookup {
+    /** The bundled table of known game jars, {@code <crc32 as hex>=<version>} */
+    private static final String KNOWN_VERSIONS = "/airships-versions.properties";
+    /** Assumed when the game jar is unknown and its main menu has no version, mods depending on {@code airships} still resolve */
+    static final String FALLBACK_VERSION = "1.2.2";
+    /** Marks a cached version as the fallback, so the warning is repeated on every launch */
+    private static final String ASSUMED_SUFFIX = ".assumed";
+    /** e.g. '1.2.2', '1.1.38.4' or '1.2 beta 3' */
+    private static final Pattern VERSION_PATTERN = Pattern.compile("(\\d+)\\.(\\d+)(?:\\.(\\d+))?((?:\\.\\d+)*)(?:[ -]?([A-Za-z][A-Za-z0-9 ._-]*))?");
+
+    private AirshipsVersionLookup() {
+    }
+
+    /**
+     * @param cacheFile where the results of earlier lookups are stored, see {@link AirshipGameProvider#getCacheDirectory()}
+     */
+    public static GameVersion getVersion(GameJarIndex index, Path cacheFile) {
+        Properties known = new Properties();
+        try (InputStream is = AirshipsVersionLookup.class.getResourceAsStream(KNOWN_VERSIONS)) {
+            if (is != null) known.load(is);
+        } catch (IOException e) {
+            Log.warn(LogCategory.GAME_PROVIDER, "Failed to read " + KNOWN_VERSIONS, e);
+        }
+        Fingerprint jarAndTable = new Fingerprint().add(index.getJar());
+        for (String crc : new TreeSet<>(known.stringPropertyNames())) {
+            jarAndTable.add(crc).add(known.getProperty(crc));
+        }
+        String fingerprint = jarAndTable.build();
+
+        Properties cache = new Properties();
+        if (Files.isRegularFile(cacheFile)) {
+            try (InputStream is = Files.newInputStream(cacheFile)) {
+                cache.load(is);
+            } catch (IOException e) {
+                Log.debug(LogCategory.GAME_PROVIDER, "Can't read the version cache %s: %s", cacheFile, e);
+            }
+        }
+
+        String version = cache.getProperty(fingerprint);
+        if (version == null) {
+            version = lookup(index, known);
+            if (version == null) {
+                version = FALLBACK_VERSION;
+                cache.setProperty(fingerprint + ASSUMED_SUFFIX, "true");
+            }
+
+            cache.setProperty(fingerprint, version);
+            try {
+                Files.createDirectories(cacheFile.getParent());
+                try (OutputStream os = Files.newOutputStream(cacheFile)) {
+                    cache.store(os, "Game versions by game jar fingerprint");
+                }
+            } catch (IOException e) {
+                Log.debug(LogCategory.GAME_PROVIDER, "Can't write the version cache %s: %s", cacheFile, e);
+            }
+        } else if (cache.containsKey(fingerprint + ASSUMED_SUFFIX)) {
+            Log.warn(LogCategory.GAME_PROVIDER, "The version of the game jar %s is unknown, assuming %s. Mods made for other versions may not work",
+                    index.getJar(), version);
+        }
+
+        return parse(version);
+    }
+
+    private static String lookup(GameJarIndex index, Properties known) {
+        String crc = null;
+        // Streaming the whole jar can't find anything in an empty table
+        if (!known.isEmpty()) {
+            try {
+                crc = Long.toHexString(crc32(index.getJar()));
+            } catch (IOException e) {
+                Log.warn(LogCategory.GAME_PROVIDER, "Failed to hash " + index.getJar(), e);
+            }
+        }
+
+        if (crc != null) {
+            String version = known.getProperty(crc);
+            if (version != null) {
+                Log.debug(LogCategory.GAME_PROVIDER, "Game jar %s is version %s", crc, version);
+                return version;
+            }
+        }
+
+        // Knowing the hash makes it easy to add the version to the table
+        String version = fromConstants(index);
+        if (version != null) {
+            Log.info(LogCategory.GAME_PROVIDER, "Unknown game jar %s, found version %s in %s", crc, version, AirshipGameProvider.MAIN_MENU);
+        } else {
+            Log.warn(LogCategory.GAME_PROVIDER, "Could not determine the version of the game jar %s (CRC32 %s), assuming %s. "
+                    + "Mods made for other versions may not work, add the jar to %s", index.getJar(), crc != null ? crc : "not computed",
+                    FALLBACK_VERSION, KNOWN_VERSIONS);
+        }
+        return version;
+    }
+
+    /**
+     * Streams the whole file once, CRC32 is hardware accelerated on most JVMs and plenty for telling versions apart.
+     */
+    private static long crc32(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * The main menu draws the version with a string constant, the first constant that looks like a version is used.
+     * Something like '0.5' is more likely to be anything else, so constants with a revision are preferred.
+     */
+    private static String fromConstants(GameJarIndex index) {
+        String candidate = null;
+        for (String constant : index.getStringConstants(AirshipGameProvider.MAIN_MENU)) {
+            Matcher matcher = VERSION_PATTERN.matcher(constant);
+            if (!matcher.matches()) continue;
+
+            if (matcher.group(3) != null) return constant;
+            if (candidate == null) candidate = constant;
+        }
+        return candidate;
+    }
+
+    static GameVersion parse(String version) {
+        GameVersion.Builder builder = new GameVersion.Builder().setRaw(version);
+        Matcher matcher = VERSION_PATTERN.matcher(version);
+        if (!matcher.matches()) {
+            return builder.build();
+        }
+
+        builder.setNumber(Integer.parseInt(matcher.group(1)))
+                .setBuild(Integer.parseInt(matcher.group(2)));
+        if (matcher.group(3) != null) {
+            builder.setRevision(Integer.parseInt(matcher.group(3)));
+        }
+        if (matcher.group(5) != null) {
+            builder.setModifier(matcher.group(5).trim().replace(' ', '.'));
+        }
+        return builder.build();
+    }
+}
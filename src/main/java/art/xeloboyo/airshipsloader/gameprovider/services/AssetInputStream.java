@@ -0,0 +1,107 @@
+package art.xeloboyo.airshipsloader.gameprovider.services;
+
+import art.xeloboyo.airshipsloader.gameprovider.patch.AirshipsAssetPatch;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * What the game's asset loading gets instead of a {@link FileInputStream}, see {@link AirshipsAssetPatch}.
+ * <br>
+ * It reads a preloaded file from memory and any other file from disk, like a {@link FileInputStream} would.
+ * It extends {@link FileInputStream} so it fits wherever the game keeps the stream.
+ * If the game asks for the {@link #getChannel() channel} of a preloaded file, the stream switches to the file on disk
+ * at the same position, the channel and the stream have to share it.
+ */
+public final class AssetInputStream extends FileInputStream {
+    /** {@code null} if the stream was created from a descriptor */
+    private final File file;
+    private InputStream in;
+    /** The size of the preloaded file, -1 once the stream reads from disk */
+    private long preloaded = -1;
+
+    public AssetInputStream(String name) throws FileNotFoundException {
+        this(name != null ? new File(name) : null);
+    }
+
+    public AssetInputStream(File file) throws FileNotFoundException {
+        // An invalid descriptor, closing it is a no-op
+        super(new FileDescriptor());
+        if (file == null) {
+            throw new NullPointerException();
+        }
+
+        this.file = file;
+        GameAssets assets = AirshipGameHooks.gameAssets;
+        byte[] bytes = assets != null ? assets.takeBytes(file.toPath()) : null;
+        if (bytes != null) {
+            this.in = new ByteArrayInputStream(bytes);
+            this.preloaded = bytes.length;
+        } else {
+            this.in = new FileInputStream(file);
+        }
+    }
+
+    public AssetInputStream(FileDescriptor fd) {
+        super(new FileDescriptor());
+        this.file = null;
+        this.in = new FileInputStream(fd);
+    }
+
+    @Override
+    public int read() throws IOException {
+        return in.read();
+    }
+
+    @Override
+    public int read(byte[] b) throws IOException {
+        return in.read(b, 0, b.length);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        return in.read(b, off, len);
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        return in.skip(n);
+    }
+
+    @Override
+    public int available() throws IOException {
+        return in.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Not opened again by getChannel()
+        preloaded = -1;
+        in.close();
+    }
+
+    @Override
+    public FileChannel getChannel() {
+        if (preloaded >= 0) {
+            try {
+                // Whatever the game read so far came from memory
+                long position = preloaded - in.available();
+                FileInputStream disk = new FileInputStream(file);
+                disk.getChannel().position(position);
+                in = disk;
+                preloaded = -1;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to open the asset " + file, e);
+            }
+        }
+        // A closed preloaded file gets a channel that is just as closed
+        return in instanceof FileInputStream ? ((FileInputStream) in).getChannel() : super.getChannel();
+    }
+}
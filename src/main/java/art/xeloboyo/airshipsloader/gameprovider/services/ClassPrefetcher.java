@@ -0,0 +1,163 @@
+package art.xeloboyo.airshipsloader.gameprovider.services;
+
+import art.xeloboyo.airshipsloader.gameprovider.cache.GameJarIndex;
+import art.xeloboyo.airshipsloader.gameprovider.cache.LoadOrder;
+import art.xeloboyo.airshipsloader.gameprovider.diagnostics.StartupTrace;
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Loads the classes of the previous session's {@link LoadOrder} on background threads,
+ * so the main thread finds them already transformed and defined once the game gets to them.
+ * <br>
+ * It happens in two phases:
+ * <ol>
+ *     <li>{@link #read(GameJarIndex)}, right after {@code initialize}, reads the game classes from the jar.
+ *     {@link #take(String)} hands them to Knot, so it doesn't have to read them itself.</li>
+ *     <li>{@link #define(ClassLoader)}, once the game is launched, loads every class through Knot without initializing it.
+ *     Mixin isn't ready before and mods may still add mixin configs in their {@code preLaunch} entrypoints.</li>
+ * </ol>
+ * Knot's class loader is parallel capable, so the main thread simply waits for a class a worker is loading.
+ */
+public final class ClassPrefetcher {
+    private static final int MAX_THREADS = 4;
+
+    private final LoadOrder loadOrder;
+    private final List<String> classes;
+    private final Map<String, byte[]> read = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+    private final int threads;
+    /** Counted down by the workers of the read phase, {@code null} if it didn't run */
+    private volatile CountDownLatch reading;
+
+    public ClassPrefetcher(LoadOrder loadOrder) {
+        this.loadOrder = loadOrder;
+        this.classes = loadOrder.load();
+        this.threads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors() - 1));
+        this.executor = Executors.newFixedThreadPool(threads, threadFactory());
+
+        // Servers are rarely closed cleanly, but the classes that matter are the ones loaded early anyway
+        Runtime.getRuntime().addShutdownHook(new Thread(loadOrder::store, "Load Order Writer"));
+    }
+
+    /**
+     * Called by the transformer for every class Knot defines.
+     */
+    public void record(String className) {
+        loadOrder.record(className);
+    }
+
+    /**
+     * @return the unmodified bytes of the class if it was read ahead, the caller owns them
+     */
+    public byte[] take(String className) {
+        return read.remove(className);
+    }
+
+    public void read(GameJarIndex gameIndex) {
+        if (classes.isEmpty()) return;
+
+        Log.debug(LogCategory.GAME_PROVIDER, "Reading %d classes ahead", classes.size());
+        reading = run("read ahead", className -> {
+            if (gameIndex.containsClass(className)) {
+                try {
+                    byte[] bytes = gameIndex.getClassBytes(className);
+                    if (bytes != null) read.put(className, bytes);
+                } catch (IOException e) {
+                    Log.debug(LogCategory.GAME_PROVIDER, "Failed to read %s ahead: %s", className, e);
+                }
+            }
+        }, null, null);
+    }
+
+    public void define(ClassLoader loader) {
+        if (classes.isEmpty()) {
+            executor.shutdown();
+            return;
+        }
+
+        run("define ahead", className -> {
+            try {
+                Class.forName(className, false, loader);
+            } catch (ClassNotFoundException | LinkageError e) {
+                // The main thread gets the same error once the game really needs the class
+                Log.debug(LogCategory.GAME_PROVIDER, "Failed to load %s ahead: %s", className, e);
+            }
+        }, loader, () -> {
+            // A worker may still be reading when the others already ran out of classes to define
+            CountDownLatch reading = this.reading;
+            if (reading != null) {
+                try {
+                    reading.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            // Whatever wasn't taken by now is never going to be
+            read.clear();
+            Log.debug(LogCategory.GAME_PROVIDER, "Loaded %d classes ahead", classes.size());
+        });
+        executor.shutdown();
+    }
+
+    /**
+     * Called instead of {@link #define(ClassLoader)} when the classes aren't loaded into Knot, in host mode.
+     * The read phase still finishes, what it read is handed out by {@link #take(String)} as before.
+     */
+    public void skipDefine() {
+        executor.shutdown();
+    }
+
+    /**
+     * Every worker takes the next class in load order until there are none left.
+     * The executor runs its tasks in order, so a worker starts on the second phase once the first ran out of classes.
+     * Anything the task throws stops the phase, the classes that are left are loaded by whoever needs them, as without prefetching.
+     * @param done run by the last worker to finish, may be {@code null}
+     * @return counted down by every worker when it finished
+     */
+    private CountDownLatch run(String phase, Consumer<String> task, ClassLoader contextClassLoader, Runnable done) {
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger running = new AtomicInteger(threads);
+        CountDownLatch finished = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            executor.submit(() -> {
+                if (contextClassLoader != null) {
+                    Thread.currentThread().setContextClassLoader(contextClassLoader);
+                }
+                try (StartupTrace.Span ignored = StartupTrace.begin("prefetch", phase)) {
+                    int index;
+                    while ((index = next.getAndIncrement()) < classes.size()) {
+                        task.accept(classes.get(index));
+                    }
+                } catch (Throwable t) {
+                    // Nobody looks at the futures, so this is the only place it can be reported
+                    next.set(classes.size());
+                    Log.warn(LogCategory.GAME_PROVIDER, "Stopped the prefetch phase '" + phase + "', the remaining classes are loaded when needed", t);
+                } finally {
+                    finished.countDown();
+                    if (running.decrementAndGet() == 0 && done != null) {
+                        done.run();
+                    }
+                }
+            });
+        }
+        return finished;
+    }
+
+    private static ThreadFactory threadFactory() {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "Class Prefetch-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
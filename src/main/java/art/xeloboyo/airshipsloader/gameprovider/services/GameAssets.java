@@ -0,0 +1,128 @@
+package art.xeloboyo.airshipsloader.gameprovider.services;
+
+import art.xeloboyo.airshipsloader.api.AssetPreloader;
+import art.xeloboyo.airshipsloader.gameprovider.cache.LoadOrder;
+import art.xeloboyo.airshipsloader.gameprovider.patch.AirshipsAssetPatch;
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Preloads the files the game read from the game directory while it started, recorded the last time with the same mods.
+ * <br>
+ * The reads {@link AirshipsAssetPatch} redirects record what they read, as {@code <kind> <path>} in a {@link LoadOrder},
+ * and take it from the {@link AssetPreloader} if it was preloaded. Images the game decoded with {@code ImageIO}
+ * are decoded ahead as well, everything else is only read.
+ * The game's methods that read them are recorded as {@code reader <class>#<method>}, the next launch only patches those.
+ */
+final class GameAssets {
+    private static final String BYTES = "bytes";
+    private static final String IMAGE = "image";
+    private static final String READER = "reader";
+    /** The classes of the hooks between the game's method and {@link #record} */
+    private static final String HOOKS_PACKAGE = GameAssets.class.getPackage().getName() + ".";
+
+    private final Path gameDir;
+    private final LoadOrder order;
+    /** What the previous launch recorded */
+    private final List<String> entries;
+    /** Stops recording once the game has started, volatile as the game may load assets on its own threads */
+    private volatile boolean recording = true;
+
+    GameAssets(Path gameDir, LoadOrder order) {
+        this.gameDir = gameDir.toAbsolutePath().normalize();
+        this.order = order;
+        this.entries = order.load();
+    }
+
+    /**
+     * @return the game's methods that read the files the previous launch recorded, as {@code <class>#<method>},
+     * empty if nothing was recorded
+     */
+    Set<String> getReaders() {
+        Set<String> readers = new TreeSet<>();
+        for (String entry : entries) {
+            if (entry.startsWith(READER + " ")) {
+                readers.add(entry.substring(READER.length() + 1));
+            }
+        }
+        return readers;
+    }
+
+    void preload() {
+        int files = 0;
+        for (String entry : entries) {
+            int space = entry.indexOf(' ');
+            if (space < 0) continue;
+
+            Path file = gameDir.resolve(entry.substring(space + 1));
+            if (entry.startsWith(IMAGE + " ")) {
+                AssetPreloader.preload(file, AssetPreloader.IMAGE);
+            } else if (entry.startsWith(BYTES + " ")) {
+                AssetPreloader.preload(file);
+            } else {
+                continue;
+            }
+            files++;
+        }
+        Log.debug(LogCategory.GAME_PROVIDER, "Preloading %d assets", files);
+    }
+
+    /**
+     * @return the bytes of the file, or {@code null} to read it as usual
+     */
+    byte[] takeBytes(Path file) {
+        record(BYTES, file);
+        return AssetPreloader.take(file);
+    }
+
+    /**
+     * @return the decoded image, or {@code null} to read it as usual
+     */
+    BufferedImage takeImage(Path file) {
+        record(IMAGE, file);
+        return AssetPreloader.take(file, AssetPreloader.IMAGE);
+    }
+
+    private void record(String kind, Path file) {
+        if (!recording) return;
+
+        Path path = file.toAbsolutePath().normalize();
+        // Only the game's own files, a path elsewhere may not exist on the next launch
+        if (path.startsWith(gameDir)) {
+            order.record(kind + " " + gameDir.relativize(path).toString().replace('\\', '/'));
+            String reader = reader();
+            if (reader != null) {
+                order.record(READER + " " + reader);
+            }
+        }
+    }
+
+    /**
+     * Only called while the game starts, for the files it reads from the game directory.
+     * @return the game's method that called the hook, {@code null} if there is none
+     */
+    private static String reader() {
+        for (StackTraceElement frame : new Throwable().getStackTrace()) {
+            if (!frame.getClassName().startsWith(HOOKS_PACKAGE)) {
+                return frame.getClassName() + "#" + frame.getMethodName();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Called once the game has started and the mods are initialized.
+     */
+    void finish() {
+        recording = false;
+        int taken = AssetPreloader.finish();
+        Log.debug(LogCategory.GAME_PROVIDER, "The game took %d preloaded assets", taken);
+        order.store();
+    }
+}
@@ -0,0 +1,134 @@
+package art.xeloboyo.airshipsloader.gameprovider.services;
+
+import art.xeloboyo.airshipsloader.gameprovider.cache.GameJarIndex;
+import art.xeloboyo.airshipsloader.gameprovider.patch.AirshipGameTransformer;
+import net.fabricmc.loader.impl.launch.FabricLauncher;
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+import org.spongepowered.asm.mixin.transformer.IMixinTransformer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Bake mode, for servers that start the same game and mods over and over.
+ * <br>
+ * Baking ({@code -Dairships.bake=true}) runs every class of the game jar through the whole pipeline Knot would run it
+ * through at class load: the provider's patches, the access wideners and the mods' mixins. The result is written to
+ * {@code .fabric/airships/baked/game-baked.jar}, along with {@code baked.properties} holding the hash of every launch input.
+ * <br>
+ * A baked launch ({@code -Dairships.useBaked=true}) serves the game classes from the baked jar and has Knot's Mixin
+ * transformer skip them. If any input changed, or Knot's transformer can't be reached, the launch falls back to normal transformation.
+ * <br>
+ * Mods that need Mixin to generate classes at runtime, e.g. for {@code @ModifyArgs}, only work with a normal launch.
+ */
+final class GameBaker {
+    private static final String BAKED_JAR = "game-baked.jar";
+    private static final String MANIFEST = "baked.properties";
+    private static final String INPUT_PREFIX = "input.";
+
+    private final Path dir;
+    private final Map<String, String> inputs;
+
+    /**
+     * @param inputs the hashes of everything that affects the transformation, see {@link AirshipGameProvider#getLaunchInputs()}
+     */
+    GameBaker(Path dir, Map<String, String> inputs) {
+        this.dir = dir;
+        this.inputs = inputs;
+    }
+
+    void bake(FabricLauncher launcher, ClassLoader knot, GameJarIndex game) throws IOException {
+        IMixinTransformer mixins = KnotMixins.get(knot);
+        if (mixins == null) {
+            throw new IOException("Can't bake without access to Knot's Mixin transformer");
+        }
+
+        Files.createDirectories(dir);
+        Path jar = dir.resolve(BAKED_JAR);
+        Path manifest = dir.resolve(MANIFEST);
+        // An old manifest must never vouch for a half written jar
+        Files.deleteIfExists(manifest);
+
+        Path tmp = Files.createTempFile(dir, BAKED_JAR, ".tmp");
+        int count = 0;
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(tmp))) {
+            for (String name : game.getClassNames()) {
+                // The provider's patches and the access wideners
+                byte[] bytes;
+                AirshipGameTransformer.beginRead();
+                try {
+                    bytes = launcher.getClassByteArray(name, true);
+                } finally {
+                    AirshipGameTransformer.endRead();
+                }
+                if (bytes == null) continue;
+                bytes = mixins.transformClassBytes(name, name, bytes);
+
+                out.putNextEntry(new JarEntry(name.replace('.', '/') + ".class"));
+                out.write(bytes);
+                out.closeEntry();
+                count++;
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, jar, StandardCopyOption.REPLACE_EXISTING);
+
+        Properties properties = new Properties();
+        for (Map.Entry<String, String> input : inputs.entrySet()) {
+            properties.setProperty(INPUT_PREFIX + input.getKey(), input.getValue());
+        }
+        properties.setProperty("classes", String.valueOf(count));
+        try (OutputStream os = Files.newOutputStream(manifest)) {
+            properties.store(os, "Inputs of " + BAKED_JAR);
+        }
+        Log.info(LogCategory.GAME_PROVIDER, "Baked %d game classes into %s", count, jar);
+    }
+
+    /**
+     * @return the baked jar or {@code null} if there is none or it was baked from different inputs
+     */
+    GameJarIndex open() {
+        Path jar = dir.resolve(BAKED_JAR);
+        Path manifest = dir.resolve(MANIFEST);
+        if (!Files.isRegularFile(jar) || !Files.isRegularFile(manifest)) {
+            Log.warn(LogCategory.GAME_PROVIDER, "There is no baked game in %s, bake it with -Dairships.bake=true", dir);
+            return null;
+        }
+
+        Properties properties = new Properties();
+        try (InputStream is = Files.newInputStream(manifest)) {
+            properties.load(is);
+        } catch (IOException e) {
+            Log.warn(LogCategory.GAME_PROVIDER, "Failed to read " + manifest, e);
+            return null;
+        }
+
+        List<String> changed = new ArrayList<>();
+        for (Map.Entry<String, String> input : inputs.entrySet()) {
+            if (!input.getValue().equals(properties.getProperty(INPUT_PREFIX + input.getKey()))) {
+                changed.add(input.getKey());
+            }
+        }
+        if (!changed.isEmpty()) {
+            Log.warn(LogCategory.GAME_PROVIDER, "The baked game is outdated, changed since baking: %s", String.join(", ", changed));
+            return null;
+        }
+
+        try {
+            return GameJarIndex.get(jar);
+        } catch (IOException e) {
+            Log.warn(LogCategory.GAME_PROVIDER, "Failed to read " + jar, e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package art.xeloboyo.airshipsloader.gameprovider.services;
+
+import art.xeloboyo.airshipsloader.gameprovider.cache.PackageIndex;
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.jar.JarFile;
+
+/**
+ * Answers Knot's lookups on the class path from a {@link PackageIndex}.
+ * <br>
+ * Knot looks up everything it doesn't find in the game and the mods in the class loader that loaded it,
+ * which searches every jar of the class path one after another. Knot keeps that class loader in fields of its own class loader
+ * and of its delegate. They are found by value, no field names are relied on, and replaced with an {@link IndexedClassLoader}:
+ * a resource goes straight to the first jar that has its directory and has the entry,
+ * a name in a directory that no jar has is only looked up in the JDK.
+ * Classes are still loaded by the original class loader, once Knot found them.
+ */
+final class KnotClassPath {
+    private KnotClassPath() {
+    }
+
+    /**
+     * @return whether any of Knot's references to its parent class loader was replaced
+     */
+    static boolean install(ClassLoader knot, PackageIndex index) {
+        ClassLoader original = knot.getClass().getClassLoader();
+        IndexedClassLoader indexed = new IndexedClassLoader(original, index);
+
+        int replaced = 0;
+        try {
+            replaced += replace(knot, original, indexed);
+            for (Class<?> c = knot.getClass(); c != null && c != ClassLoader.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers()) || field.getType().isPrimitive()) continue;
+                    field.setAccessible(true);
+                    Object value = field.get(knot);
+                    // The delegate, not the class loaders Knot keeps its own class path in
+                    if (value != null && !(value instanceof ClassLoader)) {
+                        replaced += replace(value, original, indexed);
+                    }
+                }
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            Log.warn(LogCategory.GAME_PROVIDER, "Failed to index Knot's class path lookups", e);
+        }
+        return replaced > 0;
+    }
+
+    /**
+     * Replaces every {@link ClassLoader} field of {@code owner} that holds {@code original}
+     */
+    private static int replace(Object owner, ClassLoader original, ClassLoader replacement) throws IllegalAccessException {
+        int replaced = 0;
+        for (Class<?> c = owner.getClass(); c != null && c != ClassLoader.class && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || field.getType() != ClassLoader.class) continue;
+                field.setAccessible(true);
+                if (field.get(owner) == original) {
+                    field.set(owner, replacement);
+                    replaced++;
+                }
+            }
+        }
+        return replaced;
+    }
+
+    private static final class IndexedClassLoader extends ClassLoader {
+        static {
+            registerAsParallelCapable();
+        }
+
+        private final ClassLoader original;
+        private final PackageIndex index;
+        /** The JDK's classes and resources, which the original class loader looks at before the class path */
+        private final ClassLoader jdk;
+        private final AtomicReferenceArray<JarFile> jars;
+        /** {@code jar:file:...!/} of every jar, created when it is opened */
+        private final URL[] bases;
+
+        IndexedClassLoader(ClassLoader original, PackageIndex index) {
+            super(original);
+            this.original = original;
+            this.index = index;
+            this.jdk = original.getParent() != null ? original.getParent() : new ClassLoader(null) { };
+            this.jars = new AtomicReferenceArray<>(index.size());
+            this.bases = new URL[index.size()];
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            return original.loadClass(name);
+        }
+
+        @Override
+        public URL getResource(String name) {
+            URL url = jdk.getResource(name);
+            if (url != null) return url;
+
+            for (int jar : index.find(name)) {
+                // The JDK may pick a versioned entry instead
+                if (index.isMultiRelease(jar)) return original.getResource(name);
+
+                url = getResource(jar, name);
+                if (url != null) return url;
+            }
+            return null;
+        }
+
+        @Override
+        public Enumeration<URL> getResources(String name) throws IOException {
+            // Rare enough, e.g. for service files, to leave it to the original if the class path has anything
+            return index.find(name).length > 0 ? original.getResources(name) : jdk.getResources(name);
+        }
+
+        private URL getResource(int index, String name) {
+            try {
+                JarFile jar = getJar(index);
+                if (jar.getEntry(name) == null) return null;
+                // The same URL the JDK would return
+                return new URL(bases[index], encode(name));
+            } catch (IOException | URISyntaxException e) {
+                Log.debug(LogCategory.GAME_PROVIDER, "Failed to look up %s in %s, searching the whole class path: %s", name, this.index.getJar(index), e);
+                return original.getResource(name);
+            }
+        }
+
+        /**
+         * Class names practically never need escaping, the others go through {@link URI}
+         */
+        private static String encode(String name) throws URISyntaxException {
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '/' || c == '.' || c == '_' || c == '$' || c == '-')) {
+                    return new URI(null, null, name, null).getRawPath();
+                }
+            }
+            return name;
+        }
+
+        private JarFile getJar(int index) throws IOException {
+            JarFile jar = jars.get(index);
+            if (jar != null) return jar;
+
+            jar = new JarFile(this.index.getJar(index).toFile(), false);
+            // Written before the jar is published, read only after it was
+            bases[index] = new URL("jar:" + this.index.getJar(index).toFile().toURI() + "!/");
+            if (!jars.compareAndSet(index, null, jar)) {
+                // Opened by another thread in the meantime
+                jar.close();
+                jar = jars.get(index);
+            }
+            return jar;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package art.xeloboyo.airshipsloader.gameprovider.services;
+
+import art.xeloboyo.airshipsloader.gameprovider.cache.MixinCache;
+import art.xeloboyo.airshipsloader.gameprovider.diagnostics.LoaderMetrics;
+import art.xeloboyo.airshipsloader.gameprovider.patch.AirshipGameTransformer;
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+import org.spongepowered.asm.mixin.Mixins;
+import org.spongepowered.asm.mixin.transformer.Config;
+import org.spongepowered.asm.mixin.transformer.IMixinTransformer;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Access to the Mixin transformer Knot runs every class through.
+ * <br>
+ * Fabric doesn't expose it to game providers, so it is found by type: Knot's class loader holds a delegate,
+ * which holds the {@link IMixinTransformer}. No field names are relied on.
+ */
+final class KnotMixins {
+    private KnotMixins() {
+    }
+
+    /**
+     * @return Knot's Mixin transformer or {@code null} if it couldn't be found
+     */
+    static IMixinTransformer get(ClassLoader knot) {
+        try {
+            Field field = find(knot);
+            return field != null ? (IMixinTransformer) field.get(owner(knot, field)) : null;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            Log.warn(LogCategory.GAME_PROVIDER, "Failed to access Knot's Mixin transformer", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the names of the mixin configs Mixin loaded and whether they have a plugin, sorted
+     */
+    static List<String> describeConfigs() {
+        List<String> configs = new ArrayList<>();
+        for (Config config : Mixins.getConfigs()) {
+            configs.add(config.getName() + (config.getConfig().getPlugin() != null ? " with plugin" : ""));
+        }
+        Collections.sort(configs);
+        return configs;
+    }
+
+    /**
+     * @return the fully-qualified names of the classes targeted by a mixin config with a plugin,
+     * which is told about every class its mixins are applied to
+     */
+    static Set<String> getPluginTargets() {
+        Set<String> targets = new HashSet<>();
+        for (Config config : Mixins.getConfigs()) {
+            if (config.getConfig().getPlugin() == null) continue;
+            for (String target : config.getConfig().getTargets()) {
+                targets.add(target.replace('/', '.'));
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * Wraps Knot's Mixin transformer so classes matching {@code skip} are passed through unchanged.
+     * @return whether the transformer was replaced
+     */
+    static boolean skip(ClassLoader knot, Predicate<String> skip) {
+        return wrap(knot, transformer -> (proxy, method, args) -> {
+            if (isTransformClassBytes(method, args) && skip.test((String) args[0])) {
+                return args[2];
+            }
+            return invoke(transformer, method, args);
+        });
+    }
+
+    /**
+     * Wraps Knot's Mixin transformer so the classes the cache knows are taken from it and every other class is recorded in it.
+     * @return whether the transformer was replaced
+     */
+    static boolean cache(ClassLoader knot, MixinCache cache) {
+        return wrap(knot, transformer -> (proxy, method, args) -> {
+            if (!isTransformClassBytes(method, args)) {
+                return invoke(transformer, method, args);
+            }
+            String name = (String) args[0];
+            byte[] input = (byte[]) args[2];
+            byte[] cached = cache.get(name, input);
+            if (cached != null) {
+                return cached;
+            }
+            byte[] transformed = (byte[]) invoke(transformer, method, args);
+            cache.record(name, input, transformed);
+            return transformed;
+        });
+    }
+
+    /**
+     * Wraps Knot's Mixin transformer so the classes Mixin reads while it transforms a class, its mixins and targets,
+     * count as read and not as defined by the {@link AirshipGameTransformer}.
+     * @return whether the transformer was replaced
+     */
+    static boolean markReads(ClassLoader knot) {
+        return wrap(knot, transformer -> (proxy, method, args) -> {
+            if (!isTransformClassBytes(method, args)) {
+                return invoke(transformer, method, args);
+            }
+            AirshipGameTransformer.beginRead();
+            try {
+                return invoke(transformer, method, args);
+            } finally {
+                AirshipGameTransformer.endRead();
+            }
+        });
+    }
+
+    /**
+     * Wraps Knot's Mixin transformer so the time it takes for every class is recorded, including whatever wrapped it before.
+     * @return whether the transformer was replaced
+     */
+    static boolean time(ClassLoader knot, LoaderMetrics.Timer timer) {
+        return wrap(knot, transformer -> (proxy, method, args) -> {
+            if (!isTransformClassBytes(method, args)) {
+                return invoke(transformer, method, args);
+            }
+            long start = System.nanoTime();
+            Object transformed = invoke(transformer, method, args);
+            // Mixin hands back the same array if no mixin targets the class
+            timer.record(System.nanoTime() - start, transformed != args[2] ? 1 : 0);
+            return transformed;
+        });
+    }
+
+    private static boolean wrap(ClassLoader knot, Function<IMixinTransformer, InvocationHandler> wrapper) {
+        try {
+            Field field = find(knot);
+            if (field == null) return false;
+
+            Object owner = owner(knot, field);
+            IMixinTransformer transformer = (IMixinTransformer) field.get(owner);
+            if (transformer == null) return false;
+
+            field.set(owner, Proxy.newProxyInstance(IMixinTransformer.class.getClassLoader(), new Class<?>[]{IMixinTransformer.class},
+                    wrapper.apply(transformer)));
+            return true;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            Log.warn(LogCategory.GAME_PROVIDER, "Failed to replace Knot's Mixin transformer", e);
+            return false;
+        }
+    }
+
+    private static boolean isTransformClassBytes(Method method, Object[] args) {
+        return method.getName().equals("transformClassBytes") && args.length == 3;
+    }
+
+    private static Object invoke(IMixinTransformer transformer, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(transformer, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * @return the field holding the transformer, either in the class loader itself or in one of its fields
+     */
+    private static Field find(ClassLoader knot) throws IllegalAccessException {
+        Field field = transformerField(knot.getClass());
+        if (field != null) return field;
+
+        for (Class<?> c = knot.getClass(); c != null && c != ClassLoader.class; c = c.getSuperclass()) {
+            for (Field candidate : c.getDeclaredFields()) {
+                if (candidate.getType().isPrimitive()) continue;
+                candidate.setAccessible(true);
+                Object value = candidate.get(knot);
+                if (value == null) continue;
+
+                field = transformerField(value.getClass());
+                if (field != null) return field;
+            }
+        }
+        return null;
+    }
+
+    private static Object owner(ClassLoader knot, Field field) throws IllegalAccessException {
+        if (field.getDeclaringClass().isInstance(knot)) return knot;
+
+        for (Class<?> c = knot.getClass(); c != null && c != ClassLoader.class; c = c.getSuperclass()) {
+            for (Field candidate : c.getDeclaredFields()) {
+                if (candidate.getType().isPrimitive()) continue;
+                candidate.setAccessible(true);
+                Object value = candidate.get(knot);
+                if (field.getDeclaringClass().isInstance(value)) return value;
+            }
+        }
+        throw new IllegalStateException("Lost the owner of " + field);
+    }
+
+    private static Field transformerField(Class<?> type) {
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (IMixinTransformer.class.isAssignableFrom(field.getType())) {
+                    field.setAccessible(true);
+                    return field;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,341 @@
+package art.xeloboyo.airshipsloader.gameprovider.services;
+
+import art.xeloboyo.airshipsloader.gameprovider.AirshipsSystemProperties;
+import art.xeloboyo.airshipsloader.gameprovider.diagnostics.LoaderMetrics;
+import art.xeloboyo.airshipsloader.gameprovider.diagnostics.StartupTrace;
+import net.fabricmc.loader.api.ModContainer;
+import net.fabricmc.loader.api.entrypoint.EntrypointContainer;
+import net.fabricmc.loader.api.metadata.CustomValue;
+import net.fabricmc.loader.api.metadata.ModDependency;
+import net.fabricmc.loader.impl.FabricLoaderImpl;
+import net.fabricmc.loader.impl.entrypoint.EntrypointUtils;
+import net.fabricmc.loader.impl.util.ExceptionUtil;
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.function.Consumer;
+
+/**
+ * Runs the entrypoints of one stage, like {@link EntrypointUtils#invoke(String, Class, Consumer)}.
+ * Each mod gets its own span in the {@link StartupTrace}.
+ * <br>
+ * With {@code -Dairships.parallelModInit=true} the mods are run on a fork-join pool instead.
+ * Every mod waits only for the mods it depends on (depends, recommends and suggests in its fabric.mod.json)
+ * and stages still run one after another, so all {@code main} entrypoints are done before the first {@code client} one starts.
+ * <br>
+ * A mod that isn't safe to be initialized off the main thread can opt out with
+ * <pre>"custom": { "airships:thread_safe_init": false }</pre>
+ */
+public final class ModInitializers {
+    /** The custom value in fabric.mod.json a mod uses to stay on the main thread */
+    public static final String THREAD_SAFE_INIT = "airships:thread_safe_init";
+
+    private ModInitializers() {
+    }
+
+    public static <T> void invoke(String name, Class<T> type, Consumer<? super T> invoker) {
+        if (Boolean.getBoolean(AirshipsSystemProperties.PARALLEL_MOD_INIT)) {
+            invokeParallel(name, type, invoker);
+        } else {
+            invokeSequential(name, type, invoker);
+        }
+    }
+
+    /**
+     * The same as {@link EntrypointUtils#invoke(String, Class, Consumer)}, but every mod is traced.
+     */
+    private static <T> void invokeSequential(String name, Class<T> type, Consumer<? super T> invoker) {
+        Log.debug(LogCategory.ENTRYPOINT, "Iterating over entrypoint '%s'", name);
+        Map<String, List<EntrypointContainer<T>>> entrypoints = groupByMod(name, type);
+        Map<String, Throwable> failures = new HashMap<>();
+        for (Map.Entry<String, List<EntrypointContainer<T>>> entry : entrypoints.entrySet()) {
+            run(name, entry.getKey(), entry.getValue(), invoker, failures);
+        }
+        throwFailures(name, entrypoints.keySet(), failures);
+    }
+
+    private static <T> void invokeParallel(String name, Class<T> type, Consumer<? super T> invoker) {
+        Map<String, List<EntrypointContainer<T>>> entrypoints = groupByMod(name, type);
+        Map<String, ModContainer> mods = getMods(entrypoints);
+        Map<String, Set<String>> dependencies = getDependencies(entrypoints, mods);
+
+        List<String> order = sort(entrypoints.keySet(), dependencies);
+        if (order == null) {
+            Log.warn(LogCategory.ENTRYPOINT, "Mods of entrypoint stage '%s' depend on each other in a cycle, initializing them one after another", name);
+            invokeSequential(name, type, invoker);
+            return;
+        }
+
+        Log.debug(LogCategory.ENTRYPOINT, "Iterating over entrypoint '%s' in parallel", name);
+        Map<String, Throwable> failures = new ConcurrentHashMap<>();
+        Map<String, CompletableFuture<Void>> done = new HashMap<>();
+        List<String> mainThread = new ArrayList<>();
+        ForkJoinPool pool = createPool("Mod Init Worker-", Runtime.getRuntime().availableProcessors(),
+                Thread.currentThread().getContextClassLoader());
+
+        try {
+            for (String id : order) {
+                CompletableFuture<Void> after = allOf(dependencies.get(id), done);
+                if (isThreadSafe(mods.get(id))) {
+                    done.put(id, after.thenRunAsync(() -> run(name, id, entrypoints.get(id), invoker, failures), pool));
+                } else {
+                    // Completed below, once the main thread gets to the mod
+                    done.put(id, new CompletableFuture<>());
+                    mainThread.add(id);
+                }
+            }
+
+            // Topological order, so the main thread never waits for something that is waiting for it
+            for (String id : mainThread) {
+                allOf(dependencies.get(id), done).join();
+                run(name, id, entrypoints.get(id), invoker, failures);
+                done.get(id).complete(null);
+            }
+
+            CompletableFuture.allOf(done.values().toArray(new CompletableFuture[0])).join();
+        } finally {
+            pool.shutdown();
+        }
+
+        throwFailures(name, order, failures);
+    }
+
+    /**
+     * Starts the entrypoints of a stage on a background pool and returns right away.
+     * Like with {@code -Dairships.parallelModInit=true} every mod waits for the mods it depends on,
+     * but no mod is kept on the main thread since the stage is meant to run off it.
+     * If the mods depend on each other in a cycle they are run one after another on a single background thread.
+     * @see AsyncStage#poll(Consumer)
+     */
+    public static <T> AsyncStage<T> invokeAsync(String name, Class<T> type, Consumer<? super T> invoker) {
+        Map<String, List<EntrypointContainer<T>>> entrypoints = groupByMod(name, type);
+        Map<String, Set<String>> dependencies = getDependencies(entrypoints, getMods(entrypoints));
+        List<String> order = sort(entrypoints.keySet(), dependencies);
+        if (order == null) {
+            Log.warn(LogCategory.ENTRYPOINT, "Mods of entrypoint stage '%s' depend on each other in a cycle, initializing them one after another", name);
+            order = new ArrayList<>(entrypoints.keySet());
+            // Depending on the previous mod keeps them in order
+            for (int i = 0; i < order.size(); i++) {
+                dependencies.put(order.get(i), i > 0 ? Collections.singleton(order.get(i - 1)) : Collections.emptySet());
+            }
+        }
+
+        Log.debug(LogCategory.ENTRYPOINT, "Starting entrypoint '%s' in the background", name);
+        AsyncStage<T> stage = new AsyncStage<>(name, entrypoints, order);
+        if (order.isEmpty()) {
+            return stage;
+        }
+
+        ForkJoinPool pool = createPool("Async Init Worker-", Math.max(1, Runtime.getRuntime().availableProcessors() - 1),
+                Thread.currentThread().getContextClassLoader());
+        for (String id : order) {
+            CompletableFuture<Void> after = allOf(dependencies.get(id), stage.done);
+            stage.done.put(id, after.thenRunAsync(() -> run(name, id, entrypoints.get(id), invoker, stage.failures), pool));
+        }
+        // Mods are only submitted once their dependencies are done, so the pool can't be shut down any earlier
+        CompletableFuture.allOf(stage.done.values().toArray(new CompletableFuture[0])).whenComplete((r, t) -> pool.shutdown());
+        return stage;
+    }
+
+    /**
+     * The mods of a stage started by {@link #invokeAsync(String, Class, Consumer)}.
+     */
+    public static final class AsyncStage<T> {
+        private final String name;
+        private final Map<String, List<EntrypointContainer<T>>> entrypoints;
+        private final List<String> order;
+        private final Map<String, CompletableFuture<Void>> done = new ConcurrentHashMap<>();
+        private final Map<String, Throwable> failures = new ConcurrentHashMap<>();
+        private final Set<String> handedOver = new HashSet<>();
+
+        private AsyncStage(String name, Map<String, List<EntrypointContainer<T>>> entrypoints, List<String> order) {
+            this.name = name;
+            this.entrypoints = entrypoints;
+            this.order = order;
+        }
+
+        /**
+         * Calls {@code completion} for every entrypoint of the mods that are done, in the same order the stage ran them.
+         * Must be called from one thread only, usually the main thread.
+         * @return {@code true} once every mod is done and handed over
+         * @throws RuntimeException if a mod failed, like {@link EntrypointUtils#invoke(String, Class, Consumer)} would
+         */
+        public boolean poll(Consumer<? super T> completion) {
+            for (String id : order) {
+                if (handedOver.contains(id) || !done.get(id).isDone()) continue;
+                handedOver.add(id);
+                if (failures.containsKey(id)) continue;
+
+                try (StartupTrace.Span ignored = StartupTrace.begin("mod", id + " (" + name + " complete)")) {
+                    for (EntrypointContainer<T> container : entrypoints.get(id)) {
+                        try {
+                            completion.accept(container.getEntrypoint());
+                        } catch (Throwable t) {
+                            failures.merge(id, t, (prev, next) -> {
+                                prev.addSuppressed(next);
+                                return prev;
+                            });
+                        }
+                    }
+                }
+            }
+
+            if (handedOver.size() < order.size()) {
+                return false;
+            }
+            throwFailures(name, order, failures);
+            return true;
+        }
+
+        /**
+         * Waits for every mod and hands them over.
+         */
+        public void join(Consumer<? super T> completion) {
+            CompletableFuture.allOf(done.values().toArray(new CompletableFuture[0])).join();
+            poll(completion);
+        }
+    }
+
+    /**
+     * @return the entrypoints grouped by mod id, in the order fabric would have run them
+     */
+    private static <T> Map<String, List<EntrypointContainer<T>>> groupByMod(String name, Class<T> type) {
+        Map<String, List<EntrypointContainer<T>>> entrypoints = new LinkedHashMap<>();
+        for (EntrypointContainer<T> container : FabricLoaderImpl.INSTANCE.getEntrypointContainers(name, type)) {
+            String id = container.getProvider().getMetadata().getId();
+            entrypoints.computeIfAbsent(id, k -> new ArrayList<>()).add(container);
+        }
+        return entrypoints;
+    }
+
+    private static <T> Map<String, ModContainer> getMods(Map<String, List<EntrypointContainer<T>>> entrypoints) {
+        Map<String, ModContainer> mods = new HashMap<>();
+        for (Map.Entry<String, List<EntrypointContainer<T>>> entry : entrypoints.entrySet()) {
+            mods.put(entry.getKey(), entry.getValue().get(0).getProvider());
+        }
+        return mods;
+    }
+
+    /**
+     * @return the mods every mod has to wait for: depends, recommends and suggests that take part in the stage as well
+     */
+    private static <T> Map<String, Set<String>> getDependencies(Map<String, List<EntrypointContainer<T>>> entrypoints,
+                                                                 Map<String, ModContainer> mods) {
+        Map<String, Set<String>> dependencies = new HashMap<>();
+        for (String id : entrypoints.keySet()) {
+            Set<String> deps = new LinkedHashSet<>();
+            for (ModDependency dep : mods.get(id).getMetadata().getDependencies()) {
+                ModDependency.Kind kind = dep.getKind();
+                boolean ordering = kind == ModDependency.Kind.DEPENDS
+                        || kind == ModDependency.Kind.RECOMMENDS
+                        || kind == ModDependency.Kind.SUGGESTS;
+                // Only mods that take part in this stage matter
+                if (ordering && entrypoints.containsKey(dep.getModId()) && !dep.getModId().equals(id)) {
+                    deps.add(dep.getModId());
+                }
+            }
+            dependencies.put(id, deps);
+        }
+        return dependencies;
+    }
+
+    /**
+     * Same aggregation as EntrypointUtils, in the order the mods were run.
+     */
+    private static void throwFailures(String name, Collection<String> order, Map<String, Throwable> failures) {
+        RuntimeException exception = null;
+        for (String id : order) {
+            Throwable t = failures.get(id);
+            if (t == null) continue;
+
+            exception = ExceptionUtil.gatherExceptions(t,
+                    exception,
+                    exc -> new RuntimeException(String.format("Could not execute entrypoint stage '%s' due to errors, provided by '%s'!",
+                            name, id),
+                            exc));
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    private static <T> void run(String name, String id, List<EntrypointContainer<T>> containers, Consumer<? super T> invoker,
+                                Map<String, Throwable> failures) {
+        LoaderMetrics.Timer timer = LoaderMetrics.entrypoint(id, name);
+        try (StartupTrace.Span ignored = StartupTrace.begin("mod", id + " (" + name + ")")) {
+            for (EntrypointContainer<T> container : containers) {
+                long start = System.nanoTime();
+                try {
+                    invoker.accept(container.getEntrypoint());
+                } catch (Throwable t) {
+                    failures.merge(id, t, (prev, next) -> {
+                        prev.addSuppressed(next);
+                        return prev;
+                    });
+                }
+                timer.record(System.nanoTime() - start, 0);
+            }
+        }
+    }
+
+    private static CompletableFuture<Void> allOf(Set<String> ids, Map<String, CompletableFuture<Void>> done) {
+        CompletableFuture<?>[] futures = new CompletableFuture[ids.size()];
+        int i = 0;
+        for (String id : ids) {
+            futures[i++] = done.get(id);
+        }
+        return CompletableFuture.allOf(futures);
+    }
+
+    private static boolean isThreadSafe(ModContainer mod) {
+        CustomValue value = mod.getMetadata().getCustomValue(THREAD_SAFE_INIT);
+        return value == null || value.getType() != CustomValue.CvType.BOOLEAN || value.getAsBoolean();
+    }
+
+    /**
+     * Kahn's algorithm, mods without dependencies keep their original order.
+     * @return the mods ordered so every mod comes after its dependencies or {@code null} if there is a cycle
+     */
+    private static List<String> sort(Collection<String> ids, Map<String, Set<String>> dependencies) {
+        Map<String, Integer> missing = new HashMap<>();
+        Map<String, List<String>> dependents = new HashMap<>();
+        for (String id : ids) {
+            missing.put(id, dependencies.get(id).size());
+            for (String dep : dependencies.get(id)) {
+                dependents.computeIfAbsent(dep, k -> new ArrayList<>()).add(id);
+            }
+        }
+
+        Deque<String> ready = new ArrayDeque<>();
+        for (String id : ids) {
+            if (missing.get(id) == 0) ready.add(id);
+        }
+
+        List<String> order = new ArrayList<>(ids.size());
+        while (!ready.isEmpty()) {
+            String id = ready.poll();
+            order.add(id);
+            for (String dependent : dependents.getOrDefault(id, Collections.emptyList())) {
+                if (missing.merge(dependent, -1, Integer::sum) == 0) ready.add(dependent);
+            }
+        }
+        return order.size() == ids.size() ? order : null;
+    }
+
+    /**
+     * Mods expect the same context class loader they would have on the main thread, i.e. Knot's.
+     */
+    private static ForkJoinPool createPool(String threadName, int parallelism, ClassLoader contextClassLoader) {
+        return new ForkJoinPool(parallelism, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName(threadName + thread.getPoolIndex());
+            thread.setContextClassLoader(contextClassLoader);
+            return thread;
+        }, null, false);
+    }
+}
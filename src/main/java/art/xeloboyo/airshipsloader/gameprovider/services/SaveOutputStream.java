@@ -0,0 +1,153 @@
+package art.xeloboyo.airshipsloader.gameprovider.services;
+
+import art.xeloboyo.airshipsloader.gameprovider.patch.AirshipsSavePatch;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * What the game's save routine gets instead of a {@link FileOutputStream}, see {@link AirshipsSavePatch}.
+ * <br>
+ * Everything the game writes stays in memory, so serializing the game's state is all the main thread still does.
+ * {@link #close()} hands the save to the {@link SaveWriter}, which writes it to disk on a background thread.
+ * <br>
+ * It extends {@link FileOutputStream} so it fits wherever the game keeps the stream, but it doesn't open the file itself.
+ * Only if the game asks for the {@link #getChannel() channel} it opens the file, writes what it has, and from then on
+ * passes everything on to it like an ordinary {@link FileOutputStream}, on the main thread and without replacing the file atomically.
+ */
+public final class SaveOutputStream extends FileOutputStream {
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+
+    private final File file;
+    private final boolean append;
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int count;
+    private boolean closed;
+    /** The file, once the game asked for the channel */
+    private FileOutputStream direct;
+
+    public SaveOutputStream(String name) throws FileNotFoundException {
+        this(name != null ? new File(name) : null, false);
+    }
+
+    public SaveOutputStream(String name, boolean append) throws FileNotFoundException {
+        this(name != null ? new File(name) : null, append);
+    }
+
+    public SaveOutputStream(File file) throws FileNotFoundException {
+        this(file, false);
+    }
+
+    public SaveOutputStream(File file, boolean append) throws FileNotFoundException {
+        // An invalid descriptor, closing it is a no-op
+        super(new FileDescriptor());
+        if (file == null) {
+            throw new NullPointerException();
+        }
+
+        // The errors a FileOutputStream would throw right away, the game may handle them
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (file.isDirectory() || parent == null || !parent.isDirectory()) {
+            throw new FileNotFoundException(file.getPath() + " (No such file or directory)");
+        }
+        this.file = file;
+        this.append = append;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (direct != null) {
+            direct.write(b);
+            return;
+        }
+        ensureCapacity(count + 1);
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (off < 0 || len < 0 || off > b.length - len) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (direct != null) {
+            direct.write(b, off, len);
+            return;
+        }
+        ensureCapacity(count + len);
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+    }
+
+    /**
+     * Unlike a {@link FileOutputStream}, nothing is on disk before {@link #close()}.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        if (direct != null) direct.flush();
+    }
+
+    /**
+     * Opens the file, a channel can't be served from memory.
+     * Saves of it that are still queued are written first, so they can't overwrite this one later.
+     */
+    @Override
+    public FileChannel getChannel() {
+        if (direct == null && !closed) {
+            SaveWriter.await();
+            try {
+                direct = new FileOutputStream(file, append);
+                direct.write(buffer, 0, count);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to open the save " + file, e);
+            }
+            buffer = null;
+        }
+        return direct != null ? direct.getChannel() : super.getChannel();
+    }
+
+    /**
+     * @throws IOException if the previous save of the same file couldn't be written, this one is written regardless
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+
+        if (direct != null) {
+            direct.close();
+            return;
+        }
+        byte[] data = buffer;
+        buffer = null;
+        SaveWriter.get().submit(file.toPath(), data, count, append);
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream Closed");
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new OutOfMemoryError("Save game too large");
+        }
+        if (capacity > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+        }
+    }
+}
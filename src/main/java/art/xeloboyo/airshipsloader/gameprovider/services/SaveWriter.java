@@ -0,0 +1,250 @@
+package art.xeloboyo.airshipsloader.gameprovider.services;
+
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the save games the game wrote into {@link SaveOutputStream}s on a background thread.
+ * <br>
+ * A save replaces its file atomically: it is written to a temporary file next to it, forced to disk and renamed,
+ * so a crash in the middle of a save leaves the previous one intact. A save of a file whose previous save
+ * wasn't written yet replaces it, only the latest one is written.
+ * <br>
+ * Writes are done in the order the game closed its streams, on a single thread.
+ * {@link #flush()} waits for all of them, it runs before the game loads a save and once more at shutdown.
+ * <br>
+ * A write that fails can't be reported to the stream it came from, that was closed long ago. Instead the game's next
+ * save of the same file fails with it when its stream is closed, and the next {@link #flush()} fails with every
+ * failure no save reported yet, so the game shows an error instead of losing the save without a word.
+ */
+final class SaveWriter {
+    /** How long the JVM waits for the last saves at shutdown */
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 60;
+
+    /** Guarded by the class lock, only created once the game saves */
+    private static SaveWriter instance;
+
+    /** The saves that are queued but not written yet, by file */
+    private final Map<Path, Pending> pending = new HashMap<>();
+    /** The files whose last write failed and wasn't reported to the game yet, guarded by {@link #pending} */
+    private final Map<Path, IOException> failed = new LinkedHashMap<>();
+    private final ExecutorService executor;
+
+    private SaveWriter() {
+        this(Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Save Writer");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    /**
+     * @param executor writes the saves, on a single thread
+     */
+    SaveWriter(ExecutorService executor) {
+        this.executor = executor;
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "Save Writer Shutdown"));
+    }
+
+    static synchronized SaveWriter get() {
+        if (instance == null) {
+            instance = new SaveWriter();
+        }
+        return instance;
+    }
+
+    /**
+     * Waits until every save so far is written, does nothing if the game never saved.
+     * @throws IOException if saves failed to be written, the first one with the others suppressed.
+     * They are only reported once.
+     */
+    static void flush() throws IOException {
+        SaveWriter writer = await();
+        if (writer == null) return;
+
+        IOException failure = null;
+        synchronized (writer.pending) {
+            for (IOException e : writer.failed.values()) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+            writer.failed.clear();
+        }
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * Waits until every save so far is written, without reporting failures.
+     * @return the writer or {@code null} if the game never saved
+     */
+    static SaveWriter await() {
+        SaveWriter writer;
+        synchronized (SaveWriter.class) {
+            writer = instance;
+        }
+        if (writer == null) return null;
+
+        try {
+            writer.executor.submit(() -> { }).get();
+        } catch (RejectedExecutionException e) {
+            // Shutting down, the shutdown hook is already waiting for them
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+        return writer;
+    }
+
+    /**
+     * Queues the save, even if an earlier one of the file failed, it may well work this time.
+     * @param data the whole save, or what to append to the file, owned by the writer from now on
+     * @throws IOException if the last write of the file failed and wasn't reported yet
+     */
+    void submit(Path file, byte[] data, int length, boolean append) throws IOException {
+        IOException failure;
+        synchronized (pending) {
+            failure = failed.remove(file);
+            Pending save = pending.get(file);
+            if (save == null) {
+                save = new Pending(!append);
+                save.chunks.add(ByteBuffer.wrap(data, 0, length));
+                pending.put(file, save);
+                try {
+                    executor.execute(() -> write(file));
+                } catch (RejectedExecutionException e) {
+                    // The JVM is shutting down, write it right here
+                    pending.remove(file);
+                    write(file, save);
+                }
+            } else {
+                if (!append) {
+                    Log.debug(LogCategory.GAME_PROVIDER, "Replacing a save of %s that wasn't written yet", file);
+                    save.replace = true;
+                    save.chunks.clear();
+                }
+                save.chunks.add(ByteBuffer.wrap(data, 0, length));
+            }
+        }
+
+        if (failure != null) {
+            throw new IOException("The previous save could not be written, this one is written regardless", failure);
+        }
+    }
+
+    private void write(Path file) {
+        Pending save;
+        synchronized (pending) {
+            save = pending.remove(file);
+        }
+        // Taken by a submit during shutdown
+        if (save != null) {
+            write(file, save);
+        }
+    }
+
+    private void write(Path file, Pending save) {
+        long start = System.nanoTime();
+        long size = 0;
+        for (ByteBuffer chunk : save.chunks) {
+            size += chunk.remaining();
+        }
+
+        try {
+            if (save.replace) {
+                replace(file, save.chunks);
+            } else {
+                append(file, save.chunks);
+            }
+            Log.debug(LogCategory.GAME_PROVIDER, "Saved %d bytes to %s in %d ms", size, file, (System.nanoTime() - start) / 1_000_000);
+            synchronized (pending) {
+                // An older failure doesn't matter anymore
+                failed.remove(file);
+            }
+        } catch (IOException e) {
+            Log.error(LogCategory.GAME_PROVIDER, "Failed to save " + file, e);
+            synchronized (pending) {
+                failed.put(file, new IOException("Failed to save " + file, e));
+            }
+        }
+    }
+
+    private static void replace(Path file, List<ByteBuffer> chunks) throws IOException {
+        // Hidden and with another extension, so the game doesn't list it as a save
+        Path temp = file.resolveSibling("." + file.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                write(channel, chunks);
+                // Otherwise the rename may reach the disk before the data does
+                channel.force(false);
+            }
+
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void append(Path file, List<ByteBuffer> chunks) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE)) {
+            write(channel, chunks);
+        }
+    }
+
+    private static void write(FileChannel channel, List<ByteBuffer> chunks) throws IOException {
+        for (ByteBuffer chunk : chunks) {
+            while (chunk.hasRemaining()) {
+                channel.write(chunk);
+            }
+        }
+    }
+
+    private void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                Log.error(LogCategory.GAME_PROVIDER, "Gave up waiting for the last saves to be written after %d seconds", SHUTDOWN_TIMEOUT_SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Everything to write to one file, either replacing it or appended to it
+     */
+    private static final class Pending {
+        private boolean replace;
+        private final List<ByteBuffer> chunks = new ArrayList<>();
+
+        Pending(boolean replace) {
+            this.replace = replace;
+        }
+    }
+}
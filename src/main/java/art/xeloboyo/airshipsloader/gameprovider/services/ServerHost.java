@@ -0,0 +1,373 @@
+package art.xeloboyo.airshipsloader.gameprovider.services;
+
+import art.xeloboyo.airshipsloader.gameprovider.cache.GameJarIndex;
+import art.xeloboyo.airshipsloader.gameprovider.diagnostics.LoaderMetrics;
+import art.xeloboyo.airshipsloader.gameprovider.diagnostics.ModOrigins;
+import art.xeloboyo.airshipsloader.gameprovider.patch.AirshipGameTransformer;
+import net.fabricmc.loader.impl.launch.FabricLauncher;
+import net.fabricmc.loader.impl.util.Arguments;
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+import org.objectweb.asm.*;
+import org.spongepowered.asm.mixin.Mixins;
+import org.spongepowered.asm.mixin.transformer.Config;
+import org.spongepowered.asm.mixin.transformer.IMixinTransformer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.MalformedURLException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Host mode, runs several dedicated servers in one JVM, enabled with {@code -Dairships.host=<host file>}.
+ * <br>
+ * Fabric, the mods and the transformation pipeline exist once. Every instance gets its own class loader which defines
+ * the game classes again, so each server has its own static state, from bytes that were patched, access widened
+ * and mixed only once for all of them. Everything else, the mods included, comes from Knot and is shared.
+ * Mods are initialized once, by the first instance.
+ * <br>
+ * The host file is a properties file:
+ * <pre>
+ * instances=alpha,beta
+ * alpha.gameDir=servers/alpha
+ * alpha.args=--port 7001
+ * beta.gameDir=servers/beta
+ * beta.args=--port 7002
+ * beta.enabled=false
+ * </pre>
+ * The arguments of an instance are those of the host with {@code gameDir} and {@code args} on top.
+ * <br>
+ * Mod classes that keep game objects in static fields see the instances mixed together,
+ * and mod code that reaches game classes directly (not through a mixin) gets Knot's copy, which no instance uses.
+ * Host mode is meant for mods that only change the game through mixins.
+ * <br>
+ * For the same reason mixin code can't hand game objects to mod code: {@code MyMod.onTick((Server) (Object) this)} would link
+ * an instance's {@code Server} against the one Knot resolves for {@code MyMod}, which the JVM refuses with a {@link LinkageError}.
+ * Every game class is checked for such calls once it went through Mixin, the targets of the mods' mixins before any server starts,
+ * so a mod that does this stops host mode up front instead of crashing a server later.
+ * <br>
+ * The servers run their ticks in parallel, but the {@code TickBus} only calls the {@code TickListener}s of one server at a time.
+ */
+final class ServerHost {
+    private final List<Instance> instances;
+
+    private ServerHost(List<Instance> instances) {
+        this.instances = instances;
+    }
+
+    static ServerHost load(Path hostFile, Arguments hostArguments) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream is = Files.newInputStream(hostFile)) {
+            properties.load(is);
+        }
+
+        List<Instance> instances = new ArrayList<>();
+        for (String name : properties.getProperty("instances", "").split(",")) {
+            name = name.trim();
+            if (name.isEmpty() || !Boolean.parseBoolean(properties.getProperty(name + ".enabled", "true"))) continue;
+
+            String gameDir = properties.getProperty(name + ".gameDir");
+            if (gameDir == null) {
+                throw new IOException("Instance " + name + " in " + hostFile + " has no gameDir");
+            }
+
+            Arguments arguments = new Arguments();
+            arguments.parse(hostArguments.toArray());
+            String args = properties.getProperty(name + ".args", "").trim();
+            if (!args.isEmpty()) {
+                arguments.parse(args.split("\\s+"));
+            }
+            arguments.put("gameDir", hostFile.toAbsolutePath().getParent().resolve(gameDir).normalize().toString());
+            instances.add(new Instance(name, arguments));
+        }
+
+        if (instances.isEmpty()) {
+            throw new IOException("No enabled instances in " + hostFile);
+        }
+        return new ServerHost(instances);
+    }
+
+    List<Instance> getInstances() {
+        return instances;
+    }
+
+    /**
+     * Starts every instance on its own thread and waits until all of them have stopped.
+     * An instance that crashes is logged, the others keep running.
+     */
+    void run(FabricLauncher launcher, ClassLoader knot, GameJarIndex game, String mainClass) throws IOException {
+        IMixinTransformer mixins = KnotMixins.get(knot);
+        if (mixins == null) {
+            throw new IOException("Can't host servers without access to Knot's Mixin transformer");
+        }
+
+        SharedClasses classes = new SharedClasses(launcher, mixins, game);
+        classes.checkMixinTargets();
+        // The listeners are shared and were written for a single game thread
+        AirshipGameHooks.tickLock = new Object();
+
+        List<Thread> threads = new ArrayList<>();
+        for (Instance instance : instances) {
+            InstanceClassLoader loader = new InstanceClassLoader(knot, classes, LoaderMetrics.classLoader("server " + instance.name));
+            Thread thread = new Thread(() -> runInstance(instance, loader, mainClass), "Airships Server " + instance.name);
+            thread.setContextClassLoader(loader);
+            threads.add(thread);
+        }
+
+        Log.info(LogCategory.GAME_PROVIDER, "Hosting %d servers", threads.size());
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static void runInstance(Instance instance, ClassLoader loader, String mainClass) {
+        Log.info(LogCategory.GAME_PROVIDER, "Starting server %s in %s", instance.name, instance.arguments.get("gameDir"));
+        try {
+            Class<?> c = Class.forName(mainClass, false, loader);
+            c.getMethod("main", String[].class).invoke(null, (Object) instance.arguments.toArray());
+            Log.info(LogCategory.GAME_PROVIDER, "Server %s has stopped", instance.name);
+        } catch (InvocationTargetException e) {
+            Log.error(LogCategory.GAME_PROVIDER, "Server " + instance.name + " has crashed!", e.getCause());
+        } catch (ReflectiveOperationException | LinkageError e) {
+            Log.error(LogCategory.GAME_PROVIDER, "Failed to start server " + instance.name, e);
+        }
+    }
+
+    static final class Instance {
+        final String name;
+        /** The host's arguments with the instance's on top, see {@link #load(Path, Arguments)} */
+        final Arguments arguments;
+
+        private Instance(String name, Arguments arguments) {
+            this.name = name;
+            this.arguments = arguments;
+        }
+    }
+
+    /**
+     * The game classes after the whole pipeline Knot would run them through, transformed once for all instances.
+     */
+    private static final class SharedClasses {
+        private final FabricLauncher launcher;
+        private final IMixinTransformer mixins;
+        private final GameJarIndex game;
+        private final ProtectionDomain protectionDomain;
+        private final Map<String, byte[]> classes = new ConcurrentHashMap<>();
+
+        SharedClasses(FabricLauncher launcher, IMixinTransformer mixins, GameJarIndex game) throws MalformedURLException {
+            this.launcher = launcher;
+            this.mixins = mixins;
+            this.game = game;
+            this.protectionDomain = new ProtectionDomain(new CodeSource(game.getJar().toUri().toURL(), (Certificate[]) null), null);
+        }
+
+        boolean contains(String name) {
+            return game.containsClass(name);
+        }
+
+        /**
+         * Transforms the game classes the mods' mixins target, which are the only ones their code ends up in.
+         * Only the configs Mixin selected so far are known, classes targeted by later ones are checked when they're first loaded.
+         */
+        void checkMixinTargets() throws IOException {
+            for (Config config : Mixins.getConfigs()) {
+                for (String target : config.getConfig().getTargets()) {
+                    String name = target.replace('/', '.');
+                    if (!contains(name)) continue;
+
+                    try {
+                        get(name);
+                    } catch (ClassNotFoundException e) {
+                        Log.debug(LogCategory.GAME_PROVIDER, "Failed to check %s, a target of %s: %s", name, config.getName(), e);
+                    } catch (LinkageError e) {
+                        throw new IOException(e.getMessage() + " Host the servers without that mod or run them in separate JVMs", e);
+                    }
+                }
+            }
+        }
+
+        byte[] get(String name) throws ClassNotFoundException {
+            byte[] bytes = classes.get(name);
+            if (bytes != null) return bytes;
+
+            // Defined by the instances, which count them themselves
+            AirshipGameTransformer.beginRead();
+            try {
+                // The provider's patches and the access wideners
+                bytes = launcher.getClassByteArray(name, true);
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            } finally {
+                AirshipGameTransformer.endRead();
+            }
+            if (bytes == null) throw new ClassNotFoundException(name);
+            bytes = mixins.transformClassBytes(name, name, bytes);
+            checkLinkage(name, bytes);
+
+            // Two instances may race for the same class, all of them define the first one's bytes
+            byte[] previous = classes.putIfAbsent(name, bytes);
+            if (previous != null) return previous;
+            LoaderMetrics.retained(bytes.length);
+            return bytes;
+        }
+
+        /**
+         * A member outside the game whose descriptor has a game class links that class in the instance against Knot's,
+         * see the class doc. That goes for calls and for the methods of interfaces mixins add, like accessors.
+         * The game never does that itself, only mixins can.
+         * @throws LinkageError naming the first such member, the class is never defined
+         */
+        private void checkLinkage(String name, byte[] bytes) {
+            new ClassReader(bytes).accept(new ClassVisitor(Opcodes.ASM9) {
+                @Override
+                public void visit(int version, int access, String className, String signature, String superName, String[] interfaces) {
+                    for (String owner : interfaces) {
+                        checkInterface(name, owner.replace('/', '.'));
+                    }
+                }
+
+                @Override
+                public MethodVisitor visitMethod(int access, String methodName, String descriptor, String signature, String[] exceptions) {
+                    return new MethodVisitor(Opcodes.ASM9) {
+                        @Override
+                        public void visitMethodInsn(int opcode, String owner, String memberName, String memberDescriptor, boolean isInterface) {
+                            check(owner, memberName, Type.getMethodType(memberDescriptor));
+                        }
+
+                        @Override
+                        public void visitFieldInsn(int opcode, String owner, String memberName, String memberDescriptor) {
+                            check(owner, memberName, Type.getType(memberDescriptor));
+                        }
+
+                        @Override
+                        public void visitInvokeDynamicInsn(String indyName, String indyDescriptor, Handle bootstrap, Object... arguments) {
+                            // Method references, e.g. MyMod::onTick
+                            for (Object argument : arguments) {
+                                if (argument instanceof Handle) {
+                                    Handle handle = (Handle) argument;
+                                    check(handle.getOwner(), handle.getName(), Type.getType(handle.getDesc()));
+                                }
+                            }
+                        }
+
+                        private void check(String owner, String memberName, Type type) {
+                            // Arrays are the JDK's, method handles take any descriptor
+                            if (owner.startsWith("[") || owner.startsWith("java/lang/invoke/")) return;
+                            String ownerName = owner.replace('/', '.');
+                            if (contains(ownerName) || !hasGameClass(type)) return;
+
+                            throw new LinkageError(String.format("%s.%s calls %s.%s%s of the mod %s with the game's classes, which can't work in host mode.",
+                                    name, methodName, ownerName, memberName, type.getDescriptor(), ModOrigins.getModId(ownerName)));
+                        }
+                    };
+                }
+            }, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        }
+
+        private void checkInterface(String name, String interfaceName) {
+            if (contains(interfaceName)) return;
+
+            byte[] bytes;
+            try {
+                // Without the transformers, only the descriptors matter
+                bytes = launcher.getClassByteArray(interfaceName, false);
+            } catch (IOException e) {
+                bytes = null;
+            }
+            // Not on Knot's class path, so it's the JDK's or the loader's
+            if (bytes == null) return;
+
+            new ClassReader(bytes).accept(new ClassVisitor(Opcodes.ASM9) {
+                @Override
+                public MethodVisitor visitMethod(int access, String methodName, String descriptor, String signature, String[] exceptions) {
+                    if (hasGameClass(Type.getMethodType(descriptor))) {
+                        throw new LinkageError(String.format("%s implements %s.%s%s of the mod %s with the game's classes, which can't work in host mode.",
+                                name, interfaceName, methodName, descriptor, ModOrigins.getModId(interfaceName)));
+                    }
+                    return null;
+                }
+            }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        }
+
+        private boolean hasGameClass(Type type) {
+            if (type.getSort() == Type.METHOD) {
+                if (hasGameClass(type.getReturnType())) return true;
+                for (Type argument : type.getArgumentTypes()) {
+                    if (hasGameClass(argument)) return true;
+                }
+                return false;
+            }
+            if (type.getSort() == Type.ARRAY) type = type.getElementType();
+            return type.getSort() == Type.OBJECT && contains(type.getClassName());
+        }
+    }
+
+    /**
+     * Defines the game classes itself and leaves everything else to Knot.
+     */
+    private static final class InstanceClassLoader extends ClassLoader {
+        static {
+            registerAsParallelCapable();
+        }
+
+        private final SharedClasses classes;
+        private final LongAdder loaded;
+
+        InstanceClassLoader(ClassLoader knot, SharedClasses classes, LongAdder loaded) {
+            super(knot);
+            this.classes = classes;
+            this.loaded = loaded;
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!classes.contains(name)) {
+                return super.loadClass(name, resolve);
+            }
+
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> c = findLoadedClass(name);
+                if (c == null) {
+                    LoaderMetrics.classLoaded();
+                    loaded.increment();
+                    byte[] bytes = classes.get(name);
+                    definePackage(name);
+                    c = defineClass(name, bytes, 0, bytes.length, classes.protectionDomain);
+                }
+                if (resolve) resolveClass(c);
+                return c;
+            }
+        }
+
+        @SuppressWarnings("deprecation")
+        private void definePackage(String className) {
+            int end = className.lastIndexOf('.');
+            if (end < 0) return;
+
+            String name = className.substring(0, end);
+            if (getPackage(name) == null) {
+                try {
+                    definePackage(name, null, null, null, null, null, null, null);
+                } catch (IllegalArgumentException e) {
+                    // Defined by another thread in the meantime
+                }
+            }
+        }
+    }
+}
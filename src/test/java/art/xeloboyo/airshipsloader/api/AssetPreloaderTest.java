@@ -0,0 +1,56 @@
+package art.xeloboyo.airshipsloader.api;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AssetPreloaderTest {
+    @TempDir
+    Path dir;
+
+    private final CountDownLatch decoded = new CountDownLatch(1);
+    private final AssetPreloader.Decoder<String> decoder = bytes -> {
+        decoded.countDown();
+        return new String(bytes, StandardCharsets.UTF_8);
+    };
+
+    @Test
+    void takesAnUnchangedFileOnce() throws Exception {
+        Path file = write("asset.txt", "preloaded");
+        AssetPreloader.preload(file, decoder);
+
+        assertEquals("preloaded", AssetPreloader.take(file, decoder));
+        assertNull(AssetPreloader.take(file, decoder));
+    }
+
+    @Test
+    void rereadsAFileThatChangedSinceItWasPreloaded() throws Exception {
+        Path file = write("asset.txt", "preloaded");
+        AssetPreloader.preload(file, decoder);
+        assertTrue(decoded.await(10, TimeUnit.SECONDS));
+
+        write("asset.txt", "changed on disk");
+
+        assertNull(AssetPreloader.take(file, decoder));
+    }
+
+    @Test
+    void onlyHandsOutWithTheSameDecoder() throws Exception {
+        Path file = write("asset.txt", "preloaded");
+        AssetPreloader.preload(file, decoder);
+
+        assertNull(AssetPreloader.take(file));
+        assertEquals("preloaded", AssetPreloader.take(file, decoder));
+    }
+
+    private Path write(String name, String contents) throws Exception {
+        return Files.write(dir.resolve(name), contents.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,135 @@
+package art.xeloboyo.airshipsloader.api;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TickBusTest {
+    private final List<String> calls = new ArrayList<>();
+    private final List<TickListener> registered = new ArrayList<>();
+
+    @AfterEach
+    void unregister() {
+        for (TickListener listener : registered) {
+            TickBus.unregister(listener);
+        }
+        TickBus.setWrapper(null);
+    }
+
+    @Test
+    void callsByPriorityThenRegistrationOrder() {
+        register(new Listener("b", 0));
+        register(new Listener("late", 10));
+        register(new Listener("early", -10));
+        register(new Listener("c", 0));
+
+        tick();
+
+        assertEquals(Arrays.asList("pre early", "pre b", "pre c", "pre late", "post early", "post b", "post c", "post late"), calls);
+    }
+
+    @Test
+    void rebuildsOnRegisterAndUnregister() {
+        Listener a = register(new Listener("a", 0));
+        tick();
+        Listener b = register(new Listener("b", -1));
+        tick();
+        TickBus.unregister(a);
+        tick();
+        TickBus.unregister(b);
+        tick();
+
+        assertEquals(Arrays.asList("pre a", "post a", "pre b", "pre a", "post b", "post a", "pre b", "post b"), calls);
+    }
+
+    @Test
+    void onlyCallsTheHooksAListenerOverrides() {
+        register(new TickListener() {
+            @Override
+            public void onPostTick() {
+                calls.add("post only");
+            }
+        });
+        List<TickListener> wrapped = new ArrayList<>();
+        // Wrapped once per rebuild, but only put in the arrays of the hooks it overrides
+        TickBus.setWrapper(listener -> new TickListener() {
+            {
+                wrapped.add(listener);
+            }
+
+            @Override
+            public void onPreTick() {
+                calls.add("wrapped pre");
+                listener.onPreTick();
+            }
+
+            @Override
+            public void onPostTick() {
+                calls.add("wrapped post");
+                listener.onPostTick();
+            }
+        });
+
+        tick();
+
+        assertEquals(1, wrapped.size());
+        assertEquals(Arrays.asList("wrapped post", "post only"), calls);
+    }
+
+    @Test
+    void removingTheWrapperCallsTheListenersDirectly() {
+        register(new Listener("a", 0));
+        TickBus.setWrapper(listener -> new Listener("wrapper", 0));
+        tick();
+        TickBus.setWrapper(null);
+        tick();
+
+        assertEquals(Arrays.asList("pre wrapper", "post wrapper", "pre a", "post a"), calls);
+    }
+
+    @Test
+    void rejectsNull() {
+        assertThrows(NullPointerException.class, () -> TickBus.register(null));
+    }
+
+    private <T extends TickListener> T register(T listener) {
+        registered.add(listener);
+        TickBus.register(listener);
+        return listener;
+    }
+
+    private static void tick() {
+        TickBus.preTick();
+        TickBus.postTick();
+    }
+
+    private class Listener implements TickListener {
+        private final String name;
+        private final int priority;
+
+        Listener(String name, int priority) {
+            this.name = name;
+            this.priority = priority;
+        }
+
+        @Override
+        public void onPreTick() {
+            calls.add("pre " + name);
+        }
+
+        @Override
+        public void onPostTick() {
+            calls.add("post " + name);
+        }
+
+        @Override
+        public int getPriority() {
+            return priority;
+        }
+    }
+}
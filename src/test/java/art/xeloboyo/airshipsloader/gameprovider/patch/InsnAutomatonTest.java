@@ -0,0 +1,206 @@
+package art.xeloboyo.airshipsloader.gameprovider.patch;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InsnAutomatonTest {
+    private static final String TARGET = "com.example.Target";
+
+    @Test
+    void matchesSequencesAcrossLabelsAndLineNumbers() {
+        LabelNode label = new LabelNode();
+        MethodNode method = method("run",
+                new VarInsnNode(Opcodes.ALOAD, 0),
+                label,
+                new LineNumberNode(12, label),
+                new InsnNode(Opcodes.ICONST_1),
+                new FieldInsnNode(Opcodes.PUTFIELD, "com/example/Target", "flag", "Z"),
+                new InsnNode(Opcodes.RETURN));
+
+        int[] applied = apply(method, definition("run")
+                .at(InsnMatcher.opcodes(Opcodes.ALOAD, Opcodes.ICONST_1).then(InsnMatcher.field(Opcodes.PUTFIELD, TARGET, "flag", "Z")))
+                .replace(insn -> PatchDefinition.insns(new InsnNode(Opcodes.NOP))));
+
+        assertArrayEquals(new int[]{1}, applied);
+        assertEquals(Arrays.asList(Opcodes.NOP, Opcodes.RETURN), opcodes(method));
+    }
+
+    @Test
+    void restartsAPartialMatchThatFails() {
+        // The second ALOAD starts the match the first one couldn't finish
+        MethodNode method = method("run",
+                new VarInsnNode(Opcodes.ALOAD, 0),
+                new VarInsnNode(Opcodes.ALOAD, 1),
+                new InsnNode(Opcodes.ARETURN));
+
+        int[] applied = apply(method, definition("run")
+                .at(InsnMatcher.opcodes(Opcodes.ALOAD, Opcodes.ARETURN))
+                .insertBefore(() -> PatchDefinition.insns(new InsnNode(Opcodes.NOP))));
+
+        assertArrayEquals(new int[]{1}, applied);
+        assertEquals(Arrays.asList(Opcodes.ALOAD, Opcodes.NOP, Opcodes.ALOAD, Opcodes.ARETURN), opcodes(method));
+    }
+
+    @Test
+    void selectsMatchesByOrdinal() {
+        assertEquals(Arrays.asList("0", "patched", "2"), constants(patchConstants(1)));
+        assertEquals(Arrays.asList("0", "1", "patched"), constants(patchConstants(PatchDefinition.LAST)));
+        assertEquals(Arrays.asList("patched", "patched", "patched"), constants(patchConstants(PatchDefinition.ALL)));
+        assertEquals(Arrays.asList("0", "1", "2"), constants(patchConstants(3)));
+    }
+
+    @Test
+    void insertsAtHeadAndTail() {
+        MethodNode method = method("run",
+                new InsnNode(Opcodes.ICONST_0),
+                new InsnNode(Opcodes.IRETURN));
+
+        int[] applied = apply(method,
+                definition("run").atHead().insertBefore(() -> PatchDefinition.insns(new InsnNode(Opcodes.NOP))),
+                definition("run").atTail().insertBefore(() -> PatchDefinition.insns(new InsnNode(Opcodes.POP), new InsnNode(Opcodes.ICONST_1))));
+
+        assertArrayEquals(new int[]{1, 1}, applied);
+        assertEquals(Arrays.asList(Opcodes.NOP, Opcodes.ICONST_0, Opcodes.POP, Opcodes.ICONST_1, Opcodes.IRETURN), opcodes(method));
+    }
+
+    @Test
+    void everyDefinitionSeesTheOriginalCode() {
+        MethodNode method = method("run",
+                new LdcInsnNode("a"),
+                new InsnNode(Opcodes.ARETURN));
+
+        // The second definition would match what the first one inserts
+        int[] applied = apply(method,
+                definition("run").at(InsnMatcher.ldc("a")).insertAfter(() -> PatchDefinition.insns(new InsnNode(Opcodes.POP), new LdcInsnNode("b"))),
+                definition("run").at(InsnMatcher.ldc("b")).replace(insn -> PatchDefinition.insns(new LdcInsnNode("c"))));
+
+        assertArrayEquals(new int[]{1, 0}, applied);
+        assertEquals(Arrays.asList("a", "b"), constants(method));
+    }
+
+    @Test
+    void skipsMatchesAnEarlierDefinitionReplaced() {
+        MethodNode method = method("run",
+                new LdcInsnNode("a"),
+                new InsnNode(Opcodes.ARETURN));
+
+        int[] applied = apply(method,
+                definition("run").at(InsnMatcher.ldc("a")).replace(insn -> PatchDefinition.insns(new LdcInsnNode("b"))),
+                definition("run").at(InsnMatcher.ldc("a")).replace(insn -> PatchDefinition.insns(new LdcInsnNode("c"))));
+
+        assertArrayEquals(new int[]{1, 0}, applied);
+        assertEquals(Arrays.asList("b"), constants(method));
+    }
+
+    @Test
+    void onlyPatchesTheNamedMethods() {
+        PatchDefinition other = definition("other").at(InsnMatcher.returns())
+                .insertBefore(() -> PatchDefinition.insns(new InsnNode(Opcodes.NOP))).build();
+        PatchDefinition descriptor = definition("run").setMethod("run", "(I)V").at(InsnMatcher.returns())
+                .insertBefore(() -> PatchDefinition.insns(new InsnNode(Opcodes.NOP))).build();
+        PatchDefinition any = definition(PatchDefinition.ANY_METHOD).at(InsnMatcher.returns())
+                .insertBefore(() -> PatchDefinition.insns(new InsnNode(Opcodes.ICONST_0), new InsnNode(Opcodes.POP))).build();
+        InsnAutomaton automaton = InsnAutomaton.compile(Arrays.asList(other, descriptor, any));
+        MethodNode method = method("run", new InsnNode(Opcodes.RETURN));
+        int[] applied = new int[3];
+
+        assertTrue(automaton.apply(method, applied));
+        assertArrayEquals(new int[]{0, 0, 1}, applied);
+        assertEquals(Arrays.asList(Opcodes.ICONST_0, Opcodes.POP, Opcodes.RETURN), opcodes(method));
+    }
+
+    @Test
+    void reportsUnchangedMethods() {
+        MethodNode method = method("run", new InsnNode(Opcodes.RETURN));
+        InsnAutomaton automaton = InsnAutomaton.compile(Arrays.asList(definition("run").at(InsnMatcher.ldc("a"))
+                .replace(insn -> PatchDefinition.insns(new LdcInsnNode("b"))).build()));
+        int[] applied = new int[1];
+
+        assertFalse(automaton.apply(method, applied));
+        assertArrayEquals(new int[]{0}, applied);
+    }
+
+    @Test
+    void matchesCallsByOwnerNameAndDescriptor() {
+        MethodNode method = method("run",
+                new MethodInsnNode(Opcodes.INVOKESTATIC, "java/nio/file/Files", "readAllBytes", "(Ljava/nio/file/Path;)[B", false),
+                new MethodInsnNode(Opcodes.INVOKESTATIC, "java/nio/file/Files", "readAllLines", "(Ljava/nio/file/Path;)Ljava/util/List;", false),
+                new MethodInsnNode(Opcodes.INVOKEVIRTUAL, "com/example/Files", "readAllBytes", "(Ljava/nio/file/Path;)[B", false),
+                new InsnNode(Opcodes.RETURN));
+
+        int[] applied = apply(method, definition("run")
+                .at(InsnMatcher.invoke("java.nio.file.Files", "readAllBytes", null))
+                .replace(insn -> PatchDefinition.insns(new MethodInsnNode(Opcodes.INVOKESTATIC, "com/example/Hooks", "readAllBytes",
+                        ((MethodInsnNode) insn).desc, false))));
+
+        assertArrayEquals(new int[]{1}, applied);
+        List<String> owners = new ArrayList<>();
+        for (AbstractInsnNode insn : method.instructions) {
+            if (insn instanceof MethodInsnNode) owners.add(((MethodInsnNode) insn).owner);
+        }
+        assertEquals(Arrays.asList("com/example/Hooks", "java/nio/file/Files", "com/example/Files"), owners);
+    }
+
+    private static MethodNode patchConstants(int ordinal) {
+        MethodNode method = method("run",
+                new LdcInsnNode("0"), new InsnNode(Opcodes.POP),
+                new LdcInsnNode("1"), new InsnNode(Opcodes.POP),
+                new LdcInsnNode("2"), new InsnNode(Opcodes.POP),
+                new InsnNode(Opcodes.RETURN));
+        InsnAutomaton automaton = InsnAutomaton.compile(Arrays.asList(definition("run")
+                .at(InsnMatcher.opcodes(Opcodes.LDC, Opcodes.POP))
+                .setOrdinal(ordinal)
+                .replace(insn -> PatchDefinition.insns(new LdcInsnNode("patched"), new InsnNode(Opcodes.POP)))
+                .build()));
+        automaton.apply(method, new int[1]);
+        return method;
+    }
+
+    private static PatchDefinition.Builder definition(String method) {
+        return new PatchDefinition.Builder("test " + method)
+                .setTarget(TARGET)
+                .setMethod(method, null);
+    }
+
+    private static int[] apply(MethodNode method, PatchDefinition.Builder... builders) {
+        List<PatchDefinition> definitions = new ArrayList<>();
+        for (PatchDefinition.Builder builder : builders) {
+            definitions.add(builder.build());
+        }
+        int[] applied = new int[definitions.size()];
+        InsnAutomaton.compile(definitions).apply(method, applied);
+        return applied;
+    }
+
+    private static MethodNode method(String name, AbstractInsnNode... insns) {
+        MethodNode method = new MethodNode(Opcodes.ACC_PUBLIC, name, "()V", null, null);
+        method.instructions.add(PatchDefinition.insns(insns));
+        return method;
+    }
+
+    /**
+     * @return the opcodes of the instructions, without labels, line numbers and frames
+     */
+    private static List<Integer> opcodes(MethodNode method) {
+        List<Integer> opcodes = new ArrayList<>();
+        for (AbstractInsnNode insn : method.instructions) {
+            if (insn.getOpcode() >= 0) opcodes.add(insn.getOpcode());
+        }
+        return opcodes;
+    }
+
+    private static List<Object> constants(MethodNode method) {
+        List<Object> constants = new ArrayList<>();
+        for (AbstractInsnNode insn : method.instructions) {
+            if (insn instanceof LdcInsnNode) constants.add(((LdcInsnNode) insn).cst);
+        }
+        return constants;
+    }
+}
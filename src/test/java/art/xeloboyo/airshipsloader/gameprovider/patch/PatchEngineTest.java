@@ -0,0 +1,178 @@
+package art.xeloboyo.airshipsloader.gameprovider.patch;
+
+import net.fabricmc.loader.impl.launch.FabricLauncher;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.LdcInsnNode;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PatchEngineTest {
+    @Test
+    void patchesOnlyTheMatchedMethods() throws ReflectiveOperationException {
+        Map<String, byte[]> game = new HashMap<>();
+        game.put("com.example.Greeter", greeter("com/example/Greeter"));
+
+        Map<String, byte[]> patched = PatchEngine.run(null, Collections.singletonList(new GreetPatch("com.example.Greeter", "modded", false)), game::get);
+
+        assertEquals(Collections.singleton("com.example.Greeter"), patched.keySet());
+        Class<?> greeter = define(patched).loadClass("com.example.Greeter");
+        assertEquals("modded", greeter.getMethod("greet").invoke(null));
+        assertEquals("vanilla", greeter.getMethod("other").invoke(null));
+    }
+
+    @Test
+    void runsEveryPatchOfAClassInOnePass() throws ReflectiveOperationException {
+        Map<String, byte[]> game = new HashMap<>();
+        game.put("com.example.Greeter", greeter("com/example/Greeter"));
+
+        // The second patch sees what the first one did to the same method
+        List<MethodPatch> patches = Arrays.asList(
+                new GreetPatch("com.example.Greeter", "first", false),
+                new DeclarativePatch() {
+                    @Override
+                    protected List<PatchDefinition> define(FabricLauncher launcher) {
+                        return Collections.singletonList(new PatchDefinition.Builder("second")
+                                .setTarget("com.example.Greeter")
+                                .setMethod("greet", "()Ljava/lang/String;")
+                                .at(InsnMatcher.ldc("first"))
+                                .replace(insn -> PatchDefinition.insns(new LdcInsnNode("second")))
+                                .build());
+                    }
+                });
+
+        Map<String, byte[]> patched = PatchEngine.run(null, patches, game::get);
+
+        assertEquals("second", define(patched).loadClass("com.example.Greeter").getMethod("greet").invoke(null));
+    }
+
+    @Test
+    void patchesSeveralClasses() throws ReflectiveOperationException {
+        Map<String, byte[]> game = new HashMap<>();
+        List<MethodPatch> patches = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            game.put("com.example.Greeter" + i, greeter("com/example/Greeter" + i));
+            patches.add(new GreetPatch("com.example.Greeter" + i, "modded " + i, false));
+        }
+        game.put("com.example.Untouched", greeter("com/example/Untouched"));
+
+        Map<String, byte[]> patched = PatchEngine.run(null, patches, game::get);
+
+        assertEquals(6, patched.size());
+        ClassLoader loader = define(patched);
+        for (int i = 0; i < 6; i++) {
+            assertEquals("modded " + i, loader.loadClass("com.example.Greeter" + i).getMethod("greet").invoke(null));
+        }
+    }
+
+    @Test
+    void leavesOutClassesNothingChanged() {
+        Map<String, byte[]> game = new HashMap<>();
+        game.put("com.example.Greeter", greeter("com/example/Greeter"));
+
+        GreetPatch patch = new GreetPatch("com.example.Greeter", "modded", false) {
+            @Override
+            protected List<PatchDefinition> define(FabricLauncher launcher) {
+                return Collections.singletonList(new PatchDefinition.Builder("no match")
+                        .setTarget("com.example.Greeter")
+                        .setMethod("greet", null)
+                        .at(InsnMatcher.ldc("something else"))
+                        .replace(insn -> PatchDefinition.insns(new LdcInsnNode("modded")))
+                        .build());
+            }
+        };
+
+        assertTrue(PatchEngine.run(null, Collections.singletonList(patch), game::get).isEmpty());
+    }
+
+    @Test
+    void failsOnAMissingClass() {
+        List<MethodPatch> patches = Collections.singletonList(new GreetPatch("com.example.Missing", "modded", false));
+
+        assertThrows(LinkageError.class, () -> PatchEngine.run(null, patches, name -> null));
+    }
+
+    @Test
+    void failsOnARequiredDefinitionWithoutMatch() {
+        Map<String, byte[]> game = new HashMap<>();
+        game.put("com.example.Greeter", greeter("com/example/Greeter"));
+        game.put("com.example.Other", greeter("com/example/Other"));
+
+        // Also when it is thrown on a worker thread
+        List<MethodPatch> patches = Arrays.asList(
+                new GreetPatch("com.example.Greeter", "modded", false),
+                new GreetPatch("com.example.Other", "modded", true) {
+                    @Override
+                    protected List<PatchDefinition> define(FabricLauncher launcher) {
+                        return Collections.singletonList(new PatchDefinition.Builder("required")
+                                .setTarget("com.example.Other")
+                                .setMethod("missing", null)
+                                .atHead()
+                                .insertBefore(PatchDefinition::insns)
+                                .setRequired(true)
+                                .build());
+                    }
+                });
+
+        assertThrows(NoSuchMethodError.class, () -> PatchEngine.run(null, patches, game::get));
+    }
+
+    /**
+     * Replaces the string {@code greet()} returns.
+     */
+    private static class GreetPatch extends DeclarativePatch {
+        private final String target;
+        private final String greeting;
+        private final boolean required;
+
+        GreetPatch(String target, String greeting, boolean required) {
+            this.target = target;
+            this.greeting = greeting;
+            this.required = required;
+        }
+
+        @Override
+        protected List<PatchDefinition> define(FabricLauncher launcher) {
+            return Collections.singletonList(new PatchDefinition.Builder("greeting")
+                    .setTarget(target)
+                    .setMethod("greet", "()Ljava/lang/String;")
+                    .at(InsnMatcher.ldc("vanilla"))
+                    .replace(insn -> PatchDefinition.insns(new LdcInsnNode(greeting)))
+                    .setRequired(required)
+                    .build());
+        }
+    }
+
+    /**
+     * A class with the static methods {@code greet()} and {@code other()}, both returning {@code "vanilla"}.
+     */
+    private static byte[] greeter(String internalName) {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, internalName, null, "java/lang/Object", null);
+        for (String name : new String[]{"greet", "other"}) {
+            MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, name, "()Ljava/lang/String;", null, null);
+            method.visitCode();
+            method.visitLdcInsn("vanilla");
+            method.visitInsn(Opcodes.ARETURN);
+            method.visitMaxs(0, 0);
+            method.visitEnd();
+        }
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    private static ClassLoader define(Map<String, byte[]> classes) {
+        return new ClassLoader(PatchEngineTest.class.getClassLoader()) {
+            @Override
+            protected Class<?> findClass(String name) throws ClassNotFoundException {
+                byte[] bytes = classes.get(name);
+                if (bytes == null) throw new ClassNotFoundException(name);
+                return defineClass(name, bytes, 0, bytes.length);
+            }
+        };
+    }
+}
@@ -0,0 +1,154 @@
+package art.xeloboyo.airshipsloader.gameprovider.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SaveWriterTest {
+    @TempDir
+    Path dir;
+
+    private final CountDownLatch blocked = new CountDownLatch(1);
+    private final AtomicInteger writes = new AtomicInteger();
+    private ThreadPoolExecutor executor;
+    private SaveWriter writer;
+
+    @BeforeEach
+    void createWriter() {
+        executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>()) {
+            @Override
+            public void execute(Runnable command) {
+                writes.incrementAndGet();
+                super.execute(command);
+            }
+        };
+        writer = new SaveWriter(executor);
+    }
+
+    @AfterEach
+    void shutdown() {
+        blocked.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    void replacesSavesThatWerentWrittenYet() throws Exception {
+        Path file = dir.resolve("game.save");
+        block();
+
+        writer.submit(file, bytes("first"), 5, false);
+        writer.submit(file, bytes("second"), 6, false);
+        writer.submit(file, bytes("third"), 5, false);
+
+        // The blocking task and one write
+        assertEquals(2, writes.get());
+        assertEquals("third", written(file));
+    }
+
+    @Test
+    void appendsToTheSaveThatWasntWrittenYet() throws Exception {
+        Path file = dir.resolve("game.save");
+        Files.write(file, bytes("old"));
+        block();
+
+        writer.submit(file, bytes("head"), 4, false);
+        writer.submit(file, bytes("-tail-ignored"), 5, true);
+
+        assertEquals(2, writes.get());
+        assertEquals("head-tail", written(file));
+    }
+
+    @Test
+    void appendsToTheFile() throws Exception {
+        Path file = dir.resolve("game.log");
+        Files.write(file, bytes("old"));
+        block();
+
+        writer.submit(file, bytes("-new"), 4, true);
+        writer.submit(file, bytes("-newer"), 6, true);
+
+        assertEquals(2, writes.get());
+        assertEquals("old-new-newer", written(file));
+    }
+
+    @Test
+    void keepsSavesOfDifferentFilesApart() throws Exception {
+        Path a = dir.resolve("a.save");
+        Path b = dir.resolve("b.save");
+        block();
+
+        writer.submit(a, bytes("a"), 1, false);
+        writer.submit(b, bytes("b"), 1, false);
+        writer.submit(a, bytes("aa"), 2, false);
+
+        assertEquals(3, writes.get());
+        assertEquals("aa", written(a));
+        assertEquals("b", written(b));
+    }
+
+    @Test
+    void writesAgainOnceTheSaveWasWritten() throws Exception {
+        Path file = dir.resolve("game.save");
+
+        writer.submit(file, bytes("first"), 5, false);
+        assertEquals("first", written(file));
+        writer.submit(file, bytes("second"), 6, false);
+
+        assertEquals("second", written(file));
+        assertFalse(Files.exists(dir.resolve(".game.save.tmp")));
+    }
+
+    @Test
+    void reportsAFailedWriteWithTheNextSave() throws Exception {
+        Path missing = dir.resolve("missing");
+        Path file = missing.resolve("game.save");
+
+        writer.submit(file, bytes("lost"), 4, false);
+        await();
+        Files.createDirectories(missing);
+
+        IOException e = assertThrows(IOException.class, () -> writer.submit(file, bytes("saved"), 5, false));
+        assertTrue(e.getCause().getMessage().contains(file.toString()));
+        // Written regardless, and reported only once
+        assertEquals("saved", written(file));
+        writer.submit(file, bytes("again"), 5, false);
+        assertEquals("again", written(file));
+    }
+
+    /**
+     * Keeps the writer's thread busy until the saves are read back.
+     */
+    private void block() {
+        executor.execute(() -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    private String written(Path file) throws Exception {
+        blocked.countDown();
+        await();
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    private void await() throws Exception {
+        executor.submit(() -> { }).get(10, TimeUnit.SECONDS);
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}